@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
+import org.onosproject.net.topology.TopologyService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache dos pontos de broadcast da topologia atual, para a decisao de flood por pacote.
+ *
+ * Portas de borda sao sempre pontos de broadcast; entre as portas de links, so as
+ * da arvore de broadcast do cluster. O cache guarda, por switch, um bitset
+ * (indexado pelo numero da porta) das portas de link fora da arvore; a consulta e
+ * um get no mapa de switches e a leitura de um bit, sem buscar o snapshot da
+ * topologia a cada pacote. O cache e refeito a cada TopologyEvent a partir da
+ * topologia do evento, reaproveitando os bitsets dos switches que nao mudaram.
+ */
+public final class BroadcastPoints {
+
+    // Portas acima deste numero (raras; por exemplo, portas logicas) ficam fora do bitset
+    private static final int MAX_INDEXED_PORT = 1 << 16;
+
+    private final TopologyService topologyService;
+    private final TopologyListener listener = new InternalTopologyListener();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public BroadcastPoints(TopologyService topologyService) {
+        this.topologyService = topologyService;
+    }
+
+    /**
+     * Monta o cache com a topologia atual e passa a acompanhar as mudancas.
+     */
+    public void start() {
+        topologyService.addListener(listener);
+        rebuild(topologyService.currentTopology());
+    }
+
+    public void stop() {
+        topologyService.removeListener(listener);
+        snapshot = Snapshot.EMPTY;
+    }
+
+    /**
+     * Indica se um pacote recebido no ponto pode ser inundado, como
+     * TopologyService.isBroadcastPoint na topologia atual.
+     */
+    public boolean isBroadcastPoint(ConnectPoint point) {
+        Snapshot current = snapshot;
+        long[] blocked = current.blocked.get(point.deviceId());
+        if (blocked == null) {
+            return true;
+        }
+        long port = point.port().toLong();
+        if (port >= 0 && port < MAX_INDEXED_PORT) {
+            int word = (int) (port >>> 6);
+            return word >= blocked.length || (blocked[word] & (1L << port)) == 0;
+        }
+        return !current.overflow.contains(point);
+    }
+
+    /**
+     * Refaz o cache a partir da topologia informada (que pode ser mais nova que o ultimo evento).
+     */
+    public void rebuild(Topology topology) {
+        if (topology == null) {
+            return;
+        }
+        Map<DeviceId, long[]> blocked = new HashMap<>();
+        Set<ConnectPoint> overflow = new HashSet<>();
+        for (TopologyEdge edge : topologyService.getGraph(topology).getEdges()) {
+            Link link = edge.link();
+            block(topology, link.src(), blocked, overflow);
+            block(topology, link.dst(), blocked, overflow);
+        }
+
+        // Switches com as mesmas portas bloqueadas mantem o array anterior
+        Map<DeviceId, long[]> previous = snapshot.blocked;
+        for (Map.Entry<DeviceId, long[]> entry : blocked.entrySet()) {
+            long[] old = previous.get(entry.getKey());
+            if (old != null && Arrays.equals(old, entry.getValue())) {
+                entry.setValue(old);
+            }
+        }
+        snapshot = new Snapshot(blocked, overflow);
+    }
+
+    private void block(Topology topology, ConnectPoint point,
+                       Map<DeviceId, long[]> blocked, Set<ConnectPoint> overflow) {
+        if (topologyService.isBroadcastPoint(topology, point)) {
+            return;
+        }
+        long port = point.port().toLong();
+        long[] bits = blocked.computeIfAbsent(point.deviceId(), d -> new long[0]);
+        if (port < 0 || port >= MAX_INDEXED_PORT) {
+            overflow.add(point);
+            return;
+        }
+        int word = (int) (port >>> 6);
+        if (word >= bits.length) {
+            bits = Arrays.copyOf(bits, word + 1);
+            blocked.put(point.deviceId(), bits);
+        }
+        bits[word] |= 1L << port;
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptySet());
+
+        final Map<DeviceId, long[]> blocked;
+        final Set<ConnectPoint> overflow;
+
+        Snapshot(Map<DeviceId, long[]> blocked, Set<ConnectPoint> overflow) {
+            this.blocked = blocked;
+            this.overflow = overflow;
+        }
+    }
+
+    private class InternalTopologyListener implements TopologyListener {
+        @Override
+        public void event(TopologyEvent event) {
+            rebuild(event.subject());
+        }
+    }
+}
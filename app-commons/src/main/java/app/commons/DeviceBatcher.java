@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onosproject.net.DeviceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Agrupa itens por dispositivo e os entrega em lotes.
+ *
+ * submit() apenas coloca o item em uma fila sem bloqueio do dispositivo; a fila
+ * e esvaziada em outra thread quando atinge maxBatchSize itens ou, no maximo,
+ * a cada maxDelayMillis. Nunca ha duas entregas simultaneas para o mesmo
+ * dispositivo, de modo que a ordem de submissao e preservada por dispositivo.
+ *
+ * @param <T> tipo dos itens agrupados
+ */
+public abstract class DeviceBatcher<T> {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final int flusherThreads;
+    private final ConcurrentMap<DeviceId, DeviceQueue<T>> queues = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private ScheduledExecutorService timer;
+    private ExecutorService flusher;
+
+    /**
+     * Cria um agrupador.
+     *
+     * @param name           nome usado nas threads do agrupador
+     * @param maxBatchSize   numero de itens que dispara a entrega imediata
+     * @param maxDelayMillis tempo maximo que um item espera na fila
+     * @param flusherThreads numero de threads de entrega
+     */
+    protected DeviceBatcher(String name, int maxBatchSize, long maxDelayMillis, int flusherThreads) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize deve ser positivo");
+        checkArgument(maxDelayMillis > 0, "maxDelayMillis deve ser positivo");
+        checkArgument(flusherThreads > 0, "flusherThreads deve ser positivo");
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.flusherThreads = flusherThreads;
+    }
+
+    /**
+     * Entrega um lote de itens de um dispositivo, na ordem em que foram submetidos.
+     *
+     * @param deviceId dispositivo
+     * @param batch    itens do lote; nunca vazio
+     */
+    protected abstract void flush(DeviceId deviceId, List<T> batch);
+
+    /**
+     * Inicia as threads de entrega.
+     */
+    public void start() {
+        flusher = Executors.newFixedThreadPool(flusherThreads, groupedThreads("app/commons", name + "-flush-%d"));
+        timer = Executors.newSingleThreadScheduledExecutor(groupedThreads("app/commons", name + "-timer"));
+        running = true;
+        timer.scheduleWithFixedDelay(this::tick, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Para as threads de entrega e entrega, na thread chamadora, os itens ainda na fila.
+     */
+    public void stop() {
+        running = false;
+        timer.shutdownNow();
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(maxDelayMillis * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushPending();
+    }
+
+    /**
+     * Coloca o item na fila do dispositivo. Se o agrupador nao estiver em
+     * execucao, o item e entregue imediatamente na thread chamadora.
+     *
+     * @param deviceId dispositivo
+     * @param item     item a entregar
+     */
+    public void submit(DeviceId deviceId, T item) {
+        if (!running) {
+            deliver(deviceId, Collections.singletonList(item));
+            return;
+        }
+        DeviceQueue<T> queue = queues.get(deviceId);
+        if (queue == null) {
+            queue = queues.computeIfAbsent(deviceId, DeviceQueue::new);
+        }
+        queue.items.add(item);
+        if (queue.size.incrementAndGet() >= maxBatchSize) {
+            schedule(queue);
+        }
+        // stop() pode ter esvaziado as filas entre a leitura de running e o add: sem o
+        // timer, ninguem mais entregaria o item
+        if (!running) {
+            flushQueue(queue);
+        }
+    }
+
+    /**
+     * Entrega, na thread chamadora, todos os itens ja submetidos. Util antes de
+     * uma operacao que precisa enxergar o efeito dos itens pendentes.
+     */
+    public void flushPending() {
+        for (DeviceQueue<T> queue : queues.values()) {
+            flushQueue(queue);
+        }
+    }
+
+    /**
+     * Numero de itens aguardando entrega.
+     */
+    public int pending() {
+        int total = 0;
+        for (DeviceQueue<T> queue : queues.values()) {
+            total += queue.size.get();
+        }
+        return total;
+    }
+
+    private void tick() {
+        for (DeviceQueue<T> queue : queues.values()) {
+            if (queue.size.get() > 0) {
+                schedule(queue);
+            }
+        }
+    }
+
+    // Apenas uma entrega por dispositivo fica agendada ou em andamento por vez
+    private void schedule(DeviceQueue<T> queue) {
+        if (!running || !queue.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flusher.execute(() -> drain(queue));
+        } catch (RejectedExecutionException e) {
+            // Agrupador parando; stop() entrega o que restou
+            queue.scheduled.set(false);
+        }
+    }
+
+    private void flushQueue(DeviceQueue<T> queue) {
+        // Espera uma eventual entrega em andamento para manter a ordem
+        while (!queue.scheduled.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+        try {
+            while (drainOnce(queue) > 0) {
+                // continua ate a fila esvaziar
+            }
+        } finally {
+            queue.scheduled.set(false);
+        }
+    }
+
+    private void drain(DeviceQueue<T> queue) {
+        try {
+            drainOnce(queue);
+        } finally {
+            queue.scheduled.set(false);
+        }
+        if (queue.size.get() >= maxBatchSize) {
+            schedule(queue);
+        }
+    }
+
+    private int drainOnce(DeviceQueue<T> queue) {
+        // size e incrementado depois do add, e pode estar negativo por um instante
+        List<T> batch = new ArrayList<>(Math.max(Math.min(queue.size.get(), maxBatchSize), 0));
+        T item;
+        while (batch.size() < maxBatchSize && (item = queue.items.poll()) != null) {
+            batch.add(item);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        queue.size.addAndGet(-batch.size());
+        deliver(queue.deviceId, batch);
+        return batch.size();
+    }
+
+    private void deliver(DeviceId deviceId, List<T> batch) {
+        try {
+            flush(deviceId, batch);
+        } catch (RuntimeException e) {
+            log.warn("Falha ao entregar lote de {} itens para {}", batch.size(), deviceId, e);
+        }
+    }
+
+    private static final class DeviceQueue<T> {
+        private final DeviceId deviceId;
+        private final Queue<T> items = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private DeviceQueue(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+}
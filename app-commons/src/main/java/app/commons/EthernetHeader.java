@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onlab.packet.Ethernet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Leitura dos campos de cabecalho de um quadro Ethernet diretamente do buffer
+ * recebido (InboundPacket.unparsed()), sem decodificar o pacote e sem criar objetos.
+ *
+ * Todas as leituras sao absolutas, a partir da posicao atual do buffer, e nao
+ * alteram a posicao nem o limite dele. Campos que nao cabem no buffer sao
+ * lidos como zero. Ate dois tags de VLAN (802.1Q e 802.1ad) sao reconhecidos.
+ */
+public final class EthernetHeader {
+
+    /** Tamanho do cabecalho Ethernet sem VLAN. */
+    public static final int HEADER_LENGTH = 14;
+
+    /** Valor retornado por vlanId() para quadros sem tag. */
+    public static final short NO_VLAN = -1;
+
+    private static final int ETHER_TYPE_OFFSET = 12;
+    private static final int VLAN_TAG_LENGTH = 4;
+    private static final short TYPE_QINQ = (short) 0x88a8;
+    private static final short TYPE_BDDP = (short) 0x8942;
+    private static final int IPV4_SRC_OFFSET = 12;
+    private static final int IPV4_DST_OFFSET = 16;
+
+    // Nao instanciavel
+    private EthernetHeader() {
+    }
+
+    /**
+     * MAC de destino nos 48 bits menos significativos.
+     */
+    public static long dstMac(ByteBuffer frame) {
+        return mac(frame, 0);
+    }
+
+    /**
+     * MAC de origem nos 48 bits menos significativos.
+     */
+    public static long srcMac(ByteBuffer frame) {
+        return mac(frame, 6);
+    }
+
+    /**
+     * Indica se o MAC de destino e multicast (inclui broadcast).
+     */
+    public static boolean isMulticast(ByteBuffer frame) {
+        return (byte8(frame, 0) & 0x01) != 0;
+    }
+
+    /**
+     * Indica se o MAC de destino e broadcast.
+     */
+    public static boolean isBroadcast(ByteBuffer frame) {
+        return dstMac(frame) == 0xffffffffffffL;
+    }
+
+    /**
+     * EtherType do payload, depois de eventuais tags de VLAN; o mesmo valor
+     * retornado por Ethernet.getEtherType() para o quadro decodificado.
+     */
+    public static short etherType(ByteBuffer frame) {
+        return short16(frame, payloadOffset(frame) - 2);
+    }
+
+    /**
+     * VLAN do tag mais externo ou NO_VLAN se o quadro nao tem tag.
+     */
+    public static short vlanId(ByteBuffer frame) {
+        short outer = short16(frame, ETHER_TYPE_OFFSET);
+        if (!isVlanType(outer)) {
+            return NO_VLAN;
+        }
+        return (short) (short16(frame, ETHER_TYPE_OFFSET + 2) & 0x0fff);
+    }
+
+    /**
+     * Deslocamento do payload (por exemplo, do cabecalho IPv4) a partir do inicio do quadro.
+     */
+    public static int payloadOffset(ByteBuffer frame) {
+        int offset = ETHER_TYPE_OFFSET;
+        for (int tags = 0; tags < 2 && isVlanType(short16(frame, offset)); tags++) {
+            offset += VLAN_TAG_LENGTH;
+        }
+        return offset + 2;
+    }
+
+    /**
+     * Endereco IPv4 de origem. So faz sentido se etherType() for IPv4.
+     */
+    public static int ipv4Src(ByteBuffer frame) {
+        return int32(frame, payloadOffset(frame) + IPV4_SRC_OFFSET);
+    }
+
+    /**
+     * Endereco IPv4 de destino. So faz sentido se etherType() for IPv4.
+     */
+    public static int ipv4Dst(ByteBuffer frame) {
+        return int32(frame, payloadOffset(frame) + IPV4_DST_OFFSET);
+    }
+
+    /**
+     * Indica se o quadro e um pacote de controle que os processors das aplicacoes ignoram:
+     * LLDP, BDDP e, como nas versoes originais dos processors, qualquer IPv6.
+     */
+    public static boolean isControlPacket(ByteBuffer frame) {
+        short type = etherType(frame);
+        return type == Ethernet.TYPE_LLDP || type == TYPE_BDDP || type == Ethernet.TYPE_IPV6;
+    }
+
+    /**
+     * Indica se o quadro e um pacote IPv6 multicast.
+     */
+    public static boolean isIpv6Multicast(ByteBuffer frame) {
+        return etherType(frame) == Ethernet.TYPE_IPV6 && isMulticast(frame);
+    }
+
+    private static boolean isVlanType(short type) {
+        return type == Ethernet.TYPE_VLAN || type == TYPE_QINQ;
+    }
+
+    private static long mac(ByteBuffer frame, int offset) {
+        int base = frame.position() + offset;
+        if (base + 6 > frame.limit()) {
+            return 0;
+        }
+        return ((long) (frame.getShort(base) & 0xffff) << 32) | (frame.getInt(base + 2) & 0xffffffffL);
+    }
+
+    private static int byte8(ByteBuffer frame, int offset) {
+        int base = frame.position() + offset;
+        return base + 1 > frame.limit() ? 0 : frame.get(base);
+    }
+
+    private static short short16(ByteBuffer frame, int offset) {
+        int base = frame.position() + offset;
+        return base + 2 > frame.limit() ? 0 : frame.getShort(base);
+    }
+
+    private static int int32(ByteBuffer frame, int offset) {
+        int base = frame.position() + offset;
+        return base + 4 > frame.limit() ? 0 : frame.getInt(base);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.topology.TopologyService;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limitador de floods por porta de entrada (token bucket).
+ *
+ * Cada porta tem um balde de burst fichas reposto a rate fichas por segundo; cada
+ * flood gasta uma ficha e, sem fichas, o flood e recusado. Os baldes ficam em um
+ * array de tamanho fixo indexado pelo hash da porta (portas que colidem dividem o
+ * balde). Cada balde e um unico long (o instante teorico em que ele estara cheio,
+ * em ns) atualizado com compareAndSet, sem locks.
+ *
+ * O limitador tambem indica, no maximo uma vez a cada holdMillis por porta, quando
+ * uma porta acima do limite deve ser tratada como tempestade de broadcast e, se
+ * configureStormRule ligou a regra de descarte, qual regra instalar nela.
+ */
+public final class FloodLimiter {
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+
+    private final LongAdder dropped = new LongAdder();
+
+    // Porta -> instante (ms) do ultimo aviso de tempestade
+    private final ConcurrentMap<ConnectPoint, Long> storms = new ConcurrentHashMap<>();
+
+    // Intervalo entre duas fichas e capacidade do balde, ambos em ns; interval = 0 desliga o limite
+    private volatile long interval;
+    private volatile long capacity;
+
+    // Regra de descarte das tempestades: null desliga
+    private volatile StormRule stormRule;
+
+    /**
+     * Cria um limitador com stripes baldes (arredondado para potencia de 2), sem limite
+     * ate configure ser chamado.
+     */
+    public FloodLimiter(int stripes) {
+        int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+        this.buckets = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Floods por segundo e rajada maxima por porta. rate <= 0 desliga o limite.
+     */
+    public void configure(int rate, int burst) {
+        long newInterval = rate <= 0 ? 0 : Math.max(1_000_000_000L / rate, 1);
+        capacity = newInterval * Math.max(burst, 1);
+        interval = newInterval;
+    }
+
+    /**
+     * Liga (enabled) ou desliga a regra de descarte das tempestades, com a prioridade e o
+     * tempo de inatividade (s) informados.
+     */
+    public void configureStormRule(ApplicationId appId, boolean enabled, int priority, int timeoutSeconds) {
+        stormRule = enabled ? new StormRule(appId, priority, Math.max(timeoutSeconds, 1)) : null;
+    }
+
+    /**
+     * Gasta uma ficha do balde da porta. Retorna false (e conta o descarte) se o balde esta vazio.
+     */
+    public boolean tryAcquire(ConnectPoint inPort) {
+        long step = interval;
+        if (step == 0) {
+            return true;
+        }
+        long limit = capacity;
+        int index = index(inPort);
+        long now = System.nanoTime();
+        while (true) {
+            long full = buckets.get(index);
+            // Balde nunca usado (0) ou cheio ha tempo: recomeca de now
+            long base = full == 0 || full - now < 0 ? now : full;
+            long next = base + step;
+            if (next - now > limit) {
+                dropped.increment();
+                return false;
+            }
+            if (buckets.compareAndSet(index, full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Registra uma tempestade na porta. Retorna true se nenhuma foi registrada nos
+     * ultimos holdMillis, ou seja, se o chamador deve agir (por exemplo, instalar uma
+     * regra de descarte temporaria).
+     */
+    public boolean reportStorm(ConnectPoint inPort, long holdMillis) {
+        long now = System.currentTimeMillis();
+        Long last = storms.get(inPort);
+        if (last != null && now - last < holdMillis) {
+            return false;
+        }
+        boolean first = last == null ? storms.putIfAbsent(inPort, now) == null : storms.replace(inPort, last, now);
+        if (first && storms.size() > buckets.length()) {
+            storms.values().removeIf(reported -> now - reported >= holdMillis);
+        }
+        return first;
+    }
+
+    /**
+     * Chamado quando um flood da porta foi recusado. Se a regra de descarte esta ligada,
+     * a porta e de borda e nenhuma tempestade foi registrada nela no tempo de inatividade
+     * da regra, retorna a regra temporaria que descarta tudo o que entra pela porta (o
+     * switch a remove quando a tempestade passa); senao, retorna null. Portas de links nao
+     * recebem a regra, que cortaria tambem a descoberta de links.
+     */
+    public FlowRule stormRule(ConnectPoint inPort, TopologyService topologyService) {
+        StormRule rule = stormRule;
+        if (rule == null || !reportStorm(inPort, rule.timeoutSeconds * 1000L)
+                || topologyService.isInfrastructure(topologyService.currentTopology(), inPort)) {
+            return null;
+        }
+        return DefaultFlowRule.builder()
+                .fromApp(rule.appId)
+                .forDevice(inPort.deviceId())
+                .withSelector(DefaultTrafficSelector.builder().matchInPort(inPort.port()).build())
+                .withTreatment(DefaultTrafficTreatment.builder().drop().build())
+                .withPriority(rule.priority)
+                .makeTemporary(rule.timeoutSeconds)
+                .build();
+    }
+
+    /**
+     * Numero de floods recusados desde a criacao (ou o ultimo reset).
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Esvazia o historico: todos os baldes voltam cheios e o contador volta a zero.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        storms.clear();
+        dropped.reset();
+    }
+
+    private static final class StormRule {
+        private final ApplicationId appId;
+        private final int priority;
+        private final int timeoutSeconds;
+
+        private StormRule(ApplicationId appId, int priority, int timeoutSeconds) {
+            this.appId = appId;
+            this.priority = priority;
+            this.timeoutSeconds = timeoutSeconds;
+        }
+    }
+
+    private int index(ConnectPoint inPort) {
+        int h = inPort.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleService;
+
+import java.util.List;
+
+/**
+ * Agrupador de regras de fluxo.
+ *
+ * As operacoes de cada dispositivo sao aplicadas como um unico
+ * FlowRuleOperations, preservando a ordem de submissao.
+ */
+public class FlowRuleBatcher extends DeviceBatcher<FlowRuleOperation> {
+
+    private final FlowRuleService flowRuleService;
+
+    public FlowRuleBatcher(FlowRuleService flowRuleService, String name,
+                           int maxBatchSize, long maxDelayMillis, int flusherThreads) {
+        super(name, maxBatchSize, maxDelayMillis, flusherThreads);
+        this.flowRuleService = flowRuleService;
+    }
+
+    /**
+     * Agenda a instalacao da regra.
+     */
+    public void add(FlowRule rule) {
+        submit(rule.deviceId(), new FlowRuleOperation(rule, FlowRuleOperation.Type.ADD));
+    }
+
+    /**
+     * Agenda a remocao da regra.
+     */
+    public void remove(FlowRule rule) {
+        submit(rule.deviceId(), new FlowRuleOperation(rule, FlowRuleOperation.Type.REMOVE));
+    }
+
+    @Override
+    protected void flush(DeviceId deviceId, List<FlowRuleOperation> batch) {
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        for (FlowRuleOperation op : batch) {
+            ops.operation(op);
+        }
+        flowRuleService.apply(ops.build());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import com.google.common.collect.Lists;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.intent.Intent;
+import org.onosproject.net.intent.IntentService;
+import org.onosproject.net.intent.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Indice das chaves das intents submetidas por uma aplicacao, para retira-las sem
+ * percorrer todas as intents do cluster.
+ *
+ * withdrawAll() busca cada intent do indice pela chave e a retira, em lotes
+ * processados em paralelo, registrando o progresso no log. A varredura completa
+ * (withdrawOrphans) limpa as intents da aplicacao que nao estao no indice, por
+ * exemplo as deixadas por uma ativacao anterior; withdrawEverything faz as duas.
+ *
+ * As intents sao apenas retiradas: o purge so tem efeito depois do evento
+ * WITHDRAWN, que chega de forma assincrona.
+ */
+public final class IntentIndex {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final IntentService intentService;
+    private final Set<Key> keys = ConcurrentHashMap.newKeySet();
+
+    public IntentIndex(IntentService intentService) {
+        this.intentService = intentService;
+    }
+
+    /**
+     * Registra a chave da intent no indice e a submete.
+     */
+    public void submit(Intent intent) {
+        keys.add(intent.key());
+        intentService.submit(intent);
+    }
+
+    /**
+     * Retira a chave do indice (por exemplo, quando a intent foi retirada por outro caminho).
+     */
+    public void remove(Key key) {
+        keys.remove(key);
+    }
+
+    /**
+     * Numero de chaves no indice.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Retira as intents do indice, em lotes de batchSize chaves processados por ate
+     * parallelism threads. Retorna quantas intents foram retiradas; o indice fica vazio.
+     */
+    public long withdrawAll(int batchSize, int parallelism) {
+        checkArgument(batchSize > 0, "batchSize deve ser positivo");
+        checkArgument(parallelism > 0, "parallelism deve ser positivo");
+        List<Key> pending = new ArrayList<>(keys);
+        keys.removeAll(pending);
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        int total = pending.size();
+        AtomicLong done = new AtomicLong();
+        AtomicLong withdrawn = new AtomicLong();
+        List<Callable<Void>> batches = Lists.partition(pending, batchSize).stream()
+                .map(batch -> (Callable<Void>) () -> {
+                    for (Key key : batch) {
+                        Intent intent = intentService.getIntent(key);
+                        if (intent != null) {
+                            intentService.withdraw(intent);
+                            withdrawn.incrementAndGet();
+                        }
+                    }
+                    log.info("Intents retiradas: {}/{}", done.addAndGet(batch.size()), total);
+                    return null;
+                })
+                .collect(Collectors.toList());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()),
+                                                                groupedThreads("app/commons", "intent-withdraw-%d"));
+        try {
+            executor.invokeAll(batches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return withdrawn.get();
+    }
+
+    /**
+     * Percorre todas as intents do cluster e retira as da aplicacao que nao estao no indice.
+     * Retorna quantas intents foram retiradas.
+     */
+    public long withdrawOrphans(ApplicationId appId) {
+        return withdrawOrphans(appId, keys);
+    }
+
+    /**
+     * Retira as intents do indice (withdrawAll) e depois as da aplicacao fora dele
+     * (withdrawOrphans), sem retirar de novo as que acabaram de sair do indice. Retorna
+     * quantas intents foram retiradas.
+     */
+    public long withdrawEverything(ApplicationId appId, int batchSize, int parallelism) {
+        Set<Key> indexed = new HashSet<>(keys);
+        long withdrawn = withdrawAll(batchSize, parallelism);
+        indexed.addAll(keys);
+        return withdrawn + withdrawOrphans(appId, indexed);
+    }
+
+    private long withdrawOrphans(ApplicationId appId, Set<Key> skipped) {
+        long withdrawn = 0;
+        for (Intent intent : intentService.getIntents()) {
+            if (Objects.equals(appId, intent.appId()) && !skipped.contains(intent.key())) {
+                intentService.withdraw(intent);
+                withdrawn++;
+            }
+        }
+        return withdrawn;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Tabela de enderecos IPv4 (int, como em Ip4Address.toInt()) para valores long:
+ * o MAC do host (MacAddress.toLong()), o instante do ultimo flood, etc.
+ *
+ * Enderecamento aberto (OpenAddressingTable) com os valores em um array de long,
+ * sem objetos por entrada. As consultas sao otimistas e nao bloqueiam; as alteracoes
+ * sao serializadas. NO_VALUE indica ausencia e nao pode ser armazenado.
+ */
+public final class Ip4Table extends OpenAddressingTable<long[]> {
+
+    /** Valor retornado por get() quando o endereco nao esta na tabela. */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    /**
+     * Cria uma tabela dimensionada para expectedSize enderecos.
+     */
+    public Ip4Table(int expectedSize) {
+        super(expectedSize);
+    }
+
+    /**
+     * Valor associado ao endereco ou NO_VALUE.
+     */
+    public long get(int address) {
+        long stamp = lock.tryOptimisticRead();
+        long[] k = keys;
+        long[] v = values;
+        // Durante um rehash concorrente os dois arrays podem ser de geracoes diferentes
+        long value = k.length == v.length ? valueAt(v, find(k, v, address)) : NO_VALUE;
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        stamp = lock.readLock();
+        try {
+            return valueAt(values, find(keys, values, address));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Associa o valor ao endereco e retorna o valor anterior (ou NO_VALUE).
+     */
+    public long put(int address, long value) {
+        if (value == NO_VALUE) {
+            throw new IllegalArgumentException("NO_VALUE nao pode ser armazenado");
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(address);
+            long previous = values[slot];
+            values[slot] = value;
+            if (previous == NO_VALUE) {
+                added(slot, address);
+            }
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retira o endereco da tabela e retorna o valor que ele tinha (ou NO_VALUE).
+     */
+    public long remove(int address) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(address, NO_VALUE);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retira o endereco somente se ele ainda estiver associado ao valor informado.
+     */
+    public boolean remove(int address, long value) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(address, value) != NO_VALUE;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retira todas as entradas cujo valor satisfaz o predicado e retorna quantas sairam.
+     */
+    public int removeIf(LongPredicate predicate) {
+        long stamp = lock.writeLock();
+        try {
+            long[] old = values;
+            return retain(slot -> predicate.test(old[slot]));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long delete(int address, long expected) {
+        int slot = slotOf(address);
+        long previous = values[slot];
+        if (previous == NO_VALUE || (expected != NO_VALUE && previous != expected)) {
+            return NO_VALUE;
+        }
+        removeAt(slot);
+        return previous;
+    }
+
+    private static long valueAt(long[] values, int slot) {
+        return slot < 0 ? NO_VALUE : values[slot];
+    }
+
+    @Override
+    long[] newValues(int capacity) {
+        long[] empty = new long[capacity];
+        Arrays.fill(empty, NO_VALUE);
+        return empty;
+    }
+
+    @Override
+    boolean occupied(long[] values, int slot) {
+        return values[slot] != NO_VALUE;
+    }
+
+    @Override
+    void move(long[] from, int fromSlot, long[] to, int toSlot) {
+        to[toSlot] = from[fromSlot];
+    }
+
+    @Override
+    void vacate(long[] values, int slot) {
+        values[slot] = NO_VALUE;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+/**
+ * Tabela de enderecos MAC (long, como em MacAddress.toLong()) para objetos, por
+ * exemplo o Host com aquele MAC.
+ *
+ * Enderecamento aberto (OpenAddressingTable) com os valores em um array de objetos,
+ * sem objetos de entrada nem boxing da chave. As consultas sao otimistas e nao
+ * bloqueiam; as alteracoes sao serializadas. Uma posicao vazia tem valor null, por
+ * isso null nao pode ser armazenado.
+ *
+ * @param <V> tipo dos valores
+ */
+public final class MacTable<V> extends OpenAddressingTable<Object[]> {
+
+    /**
+     * Cria uma tabela dimensionada para expectedSize enderecos.
+     */
+    public MacTable(int expectedSize) {
+        super(expectedSize);
+    }
+
+    /**
+     * Valor associado ao endereco ou null.
+     */
+    public V get(long mac) {
+        long stamp = lock.tryOptimisticRead();
+        long[] k = keys;
+        Object[] v = values;
+        // Durante um rehash concorrente os dois arrays podem ser de geracoes diferentes
+        Object value = k.length == v.length ? valueAt(v, find(k, v, mac)) : null;
+        if (lock.validate(stamp)) {
+            return cast(value);
+        }
+        stamp = lock.readLock();
+        try {
+            return cast(valueAt(values, find(keys, values, mac)));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Associa o valor ao endereco e retorna o valor anterior (ou null).
+     */
+    public V put(long mac, V value) {
+        return put(mac, value, true);
+    }
+
+    /**
+     * Associa o valor ao endereco somente se ele ainda nao estiver na tabela; retorna o
+     * valor ja associado (ou null, quando o valor informado foi gravado).
+     */
+    public V putIfAbsent(long mac, V value) {
+        return put(mac, value, false);
+    }
+
+    /**
+     * Retira o endereco somente se ele ainda estiver associado ao valor informado (equals).
+     */
+    public boolean remove(long mac, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(mac, value) != null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retira o endereco da tabela e retorna o valor que ele tinha (ou null).
+     */
+    public V remove(long mac) {
+        long stamp = lock.writeLock();
+        try {
+            return cast(delete(mac, null));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private V put(long mac, V value, boolean replace) {
+        if (value == null) {
+            throw new IllegalArgumentException("null nao pode ser armazenado");
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(mac);
+            Object previous = values[slot];
+            if (previous == null) {
+                values[slot] = value;
+                added(slot, mac);
+            } else if (replace) {
+                values[slot] = value;
+            }
+            return cast(previous);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Object delete(long mac, Object expected) {
+        int slot = slotOf(mac);
+        Object previous = values[slot];
+        if (previous == null || (expected != null && !previous.equals(expected))) {
+            return null;
+        }
+        removeAt(slot);
+        return previous;
+    }
+
+    private static Object valueAt(Object[] values, int slot) {
+        return slot < 0 ? null : values[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    @Override
+    Object[] newValues(int capacity) {
+        return new Object[capacity];
+    }
+
+    @Override
+    boolean occupied(Object[] values, int slot) {
+        return values[slot] != null;
+    }
+
+    @Override
+    void move(Object[] from, int fromSlot, Object[] to, int toSlot) {
+        to[toSlot] = from[fromSlot];
+    }
+
+    @Override
+    void vacate(Object[] values, int slot) {
+        values[slot] = null;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flowobjective.FilteringObjective;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.NextObjective;
+import org.onosproject.net.flowobjective.Objective;
+
+import java.util.List;
+
+/**
+ * Fila por dispositivo de objetivos de fluxo (filtering, next e forwarding).
+ *
+ * Os objetivos sao repassados ao FlowObjectiveService fora da thread de quem os
+ * submete, um a um e na ordem em que foram submetidos; assim um forwarding que
+ * aponta para um next submetido antes continua chegando depois dele. O
+ * FlowObjectiveService nao tem operacao em lote: cada objetivo continua sendo uma
+ * chamada (e uma mensagem para o switch), so o chamador deixa de esperar por ela.
+ */
+public class ObjectiveQueue extends DeviceBatcher<Objective> {
+
+    private final FlowObjectiveService flowObjectiveService;
+
+    public ObjectiveQueue(FlowObjectiveService flowObjectiveService, String name,
+                          int maxBatchSize, long maxDelayMillis, int flusherThreads) {
+        super(name, maxBatchSize, maxDelayMillis, flusherThreads);
+        this.flowObjectiveService = flowObjectiveService;
+    }
+
+    @Override
+    protected void flush(DeviceId deviceId, List<Objective> batch) {
+        for (Objective objective : batch) {
+            if (objective instanceof ForwardingObjective) {
+                flowObjectiveService.forward(deviceId, (ForwardingObjective) objective);
+            } else if (objective instanceof NextObjective) {
+                flowObjectiveService.next(deviceId, (NextObjective) objective);
+            } else if (objective instanceof FilteringObjective) {
+                flowObjectiveService.filter(deviceId, (FilteringObjective) objective);
+            } else {
+                throw new IllegalArgumentException("Tipo de objetivo desconhecido: " + objective);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Nucleo de Ip4Table e MacTable: enderecamento aberto com sondagem linear em um array
+ * de chaves long e um array de valores de mesmo tamanho, sem objetos por entrada.
+ *
+ * A subclasse escolhe o array de valores e o valor que marca uma posicao vazia, e faz
+ * as leituras otimistas e as alteracoes (com o write lock) sobre as posicoes achadas
+ * aqui. A tabela dobra quando passa da metade da capacidade.
+ *
+ * @param <A> tipo do array de valores
+ */
+abstract class OpenAddressingTable<A> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    final StampedLock lock = new StampedLock();
+
+    long[] keys;
+    A values;
+    private int size;
+
+    OpenAddressingTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /** Array de valores com todas as posicoes vazias. */
+    abstract A newValues(int capacity);
+
+    /** Indica se a posicao do array tem valor. */
+    abstract boolean occupied(A values, int slot);
+
+    /** Copia o valor da posicao from de um array para a posicao to de outro (ou do mesmo). */
+    abstract void move(A from, int fromSlot, A to, int toSlot);
+
+    /** Esvazia a posicao do array. */
+    abstract void vacate(A values, int slot);
+
+    /**
+     * Retira todas as entradas.
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            allocate(MIN_CAPACITY);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Numero de enderecos na tabela.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Posicao da chave em um par de arrays lido sem lock, ou -1. A sondagem e limitada ao
+    // tamanho da tabela: uma leitura otimista concorrente com uma alteracao nunca entra em
+    // laco, apenas e descartada pelo validate()
+    final int find(long[] keys, A values, long key) {
+        int mask = keys.length - 1;
+        int slot = slot(key, keys.length);
+        for (int probes = 0; probes < keys.length; probes++) {
+            if (!occupied(values, slot)) {
+                return -1;
+            }
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Com o write lock: posicao da chave ou a posicao vazia onde ela entraria
+    final int slotOf(long key) {
+        int mask = keys.length - 1;
+        int slot = slot(key, keys.length);
+        while (occupied(values, slot) && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Com o write lock: registra a chave cujo valor acabou de ser gravado na posicao vazia
+    final void added(int slot, long key) {
+        keys[slot] = key;
+        if (++size > keys.length / 2) {
+            rebuild(keys.length * 2, s -> false);
+        }
+    }
+
+    // Com o write lock: remocao com deslocamento das entradas seguintes, sem marcadores de remocao
+    final void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (occupied(values, next)) {
+            int home = slot(keys[next], keys.length);
+            // A entrada em next pode ocupar o buraco se sua posicao ideal nao esta entre hole e next
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                move(values, next, values, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        vacate(values, hole);
+        size--;
+    }
+
+    // Com o write lock: reconstroi a tabela na mesma capacidade sem as posicoes descartadas;
+    // discard recebe a posicao no array de valores anterior. Retorna quantas entradas sairam
+    final int retain(IntPredicate discard) {
+        int before = size;
+        rebuild(keys.length, discard);
+        return before - size;
+    }
+
+    private void rebuild(int capacity, IntPredicate discard) {
+        long[] oldKeys = keys;
+        A oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!occupied(oldValues, i) || discard.test(i)) {
+                continue;
+            }
+            int slot = slot(oldKeys[i], capacity);
+            while (occupied(values, slot)) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            move(oldValues, i, values, slot);
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = newValues(capacity);
+        size = 0;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Espalha os bits da chave: enderecos de uma mesma sub-rede ou MACs de um mesmo
+    // fabricante diferem so nos bits baixos
+    private static int slot(long key, int capacity) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & (capacity - 1);
+    }
+}
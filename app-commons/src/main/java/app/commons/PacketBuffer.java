@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import org.onosproject.net.ConnectPoint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pacotes guardados ate a instalacao do encaminhamento de que dependem (por
+ * exemplo, uma intent), para serem reenviados em ordem quando ela e confirmada.
+ *
+ * A fila de uma chave e aberta quando o encaminhamento e pedido (open) e fechada
+ * quando ele e confirmado (drain) ou falha (discard); uma fila nao drenada em
+ * timeoutMillis e descartada. Cada fila guarda no maximo maxPerKey pacotes e o
+ * buffer no maximo maxBytes bytes; fora disso add() recusa o pacote e o chamador
+ * decide o que fazer com ele. Os pacotes sao copiados, pois o buffer do packet-in
+ * pode ser reaproveitado depois do processamento.
+ *
+ * @param <K> chave do encaminhamento esperado
+ */
+public final class PacketBuffer<K> {
+
+    private final Cache<K, Queue> queues;
+    private final int maxPerKey;
+    private final long maxBytes;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Cria um buffer com ate maxPerKey pacotes por chave e maxBytes bytes no total, cada
+     * fila expirando timeoutMillis depois de criada.
+     */
+    public PacketBuffer(int maxPerKey, long maxBytes, long timeoutMillis) {
+        this.maxPerKey = maxPerKey;
+        this.maxBytes = maxBytes;
+        // Filas expiradas ou descartadas: os pacotes restantes sao perdidos
+        RemovalListener<K, Queue> release = notification -> dropped.add(notification.getValue().close().size());
+        queues = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeoutMillis, TimeUnit.MILLISECONDS)
+                .removalListener(release)
+                .build();
+    }
+
+    /**
+     * Abre a fila da chave, se ela ainda nao existe.
+     */
+    public void open(K key) {
+        queues.asMap().computeIfAbsent(key, k -> new Queue());
+    }
+
+    /**
+     * Guarda o pacote, a ser enviado por destination, na fila da chave. Retorna false se
+     * a fila nao esta aberta ou se ela ou o buffer estao cheios.
+     */
+    public boolean add(K key, ConnectPoint destination, ByteBuffer frame) {
+        Queue queue = queues.getIfPresent(key);
+        if (queue == null) {
+            return false;
+        }
+        int size = frame.remaining();
+        if (bytes.addAndGet(size) > maxBytes) {
+            bytes.addAndGet(-size);
+            return false;
+        }
+        if (!queue.offer(new BufferedPacket(destination, copy(frame)))) {
+            bytes.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retira e retorna, na ordem de chegada, os pacotes da chave.
+     */
+    public List<BufferedPacket> drain(K key) {
+        Queue queue = queues.getIfPresent(key);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        List<BufferedPacket> packets = queue.close();
+        queues.invalidate(key);
+        return packets;
+    }
+
+    /**
+     * Descarta os pacotes da chave (por exemplo, se a instalacao falhou).
+     */
+    public void discard(K key) {
+        queues.invalidate(key);
+    }
+
+    /**
+     * Descarta todos os pacotes.
+     */
+    public void clear() {
+        queues.invalidateAll();
+    }
+
+    /**
+     * Bytes guardados no momento.
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Pacotes descartados (por falha ou expiracao) desde a criacao.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private static ByteBuffer copy(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Pacote guardado e o ponto (switch e porta) por onde ele deve ser enviado.
+     */
+    public static final class BufferedPacket {
+        public final ConnectPoint destination;
+        public final ByteBuffer frame;
+
+        private BufferedPacket(ConnectPoint destination, ByteBuffer frame) {
+            this.destination = destination;
+            this.frame = frame;
+        }
+    }
+
+    // Fila de uma chave; depois de fechada, nao aceita mais pacotes
+    private final class Queue {
+        private List<BufferedPacket> packets = new ArrayList<>();
+
+        synchronized boolean offer(BufferedPacket packet) {
+            if (packets == null || packets.size() >= maxPerKey) {
+                return false;
+            }
+            packets.add(packet);
+            return true;
+        }
+
+        // Fecha a fila e libera seus bytes; so a primeira chamada recebe os pacotes
+        synchronized List<BufferedPacket> close() {
+            List<BufferedPacket> closed = packets;
+            packets = null;
+            if (closed == null) {
+                return Collections.emptyList();
+            }
+            bytes.addAndGet(-closed.stream().mapToLong(p -> p.frame.remaining()).sum());
+            return closed;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.slf4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Log das mensagens emitidas a cada pacote, para uso nos packet processors.
+ *
+ * Cada mensagem e identificada pelo seu formato: apenas 1 a cada sampling chamadas
+ * da mensagem e considerada, e ela e registrada no maximo maxPerSecond vezes por
+ * segundo; as demais sao contadas e resumidas em uma linha "N mensagens suprimidas".
+ * Como no slf4j, as variantes com um e dois argumentos nao alocam nada quando a
+ * mensagem e descartada, e os argumentos passados como Args so sao avaliados se a
+ * mensagem for de fato registrada. A escrita no log e feita por uma thread propria,
+ * fora da thread que processa o pacote.
+ *
+ * Antes de start() e depois de stop() as mensagens sao escritas na propria thread.
+ */
+public final class PacketLog {
+
+    /**
+     * Argumentos de uma mensagem, avaliados apenas se ela for registrada.
+     */
+    @FunctionalInterface
+    public interface Args {
+        Object[] get();
+    }
+
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final long DRAIN_MILLIS = 100;
+    private static final int QUEUE_SIZE = 1024;
+    // Bits baixos do estado de uma Window usados pela contagem de mensagens registradas
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final Logger log;
+    private final String name;
+    private final Queue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile int sampling;
+    private volatile int maxPerSecond;
+    private volatile boolean running;
+    private ScheduledExecutorService writer;
+    private long lastSummary;
+
+    /**
+     * Cria o log sobre o logger da aplicacao, registrando 1 a cada sampling chamadas
+     * (0 desliga o log) e no maximo maxPerSecond vezes por segundo cada mensagem.
+     */
+    public PacketLog(Logger log, String name, int sampling, int maxPerSecond) {
+        this.log = log;
+        this.name = name;
+        configure(sampling, maxPerSecond);
+    }
+
+    /**
+     * Altera a amostragem e o limite por segundo.
+     */
+    public void configure(int sampling, int maxPerSecond) {
+        checkArgument(sampling >= 0, "sampling deve ser >= 0");
+        checkArgument(maxPerSecond > 0 && maxPerSecond < COUNT_MASK, "maxPerSecond fora do intervalo");
+        this.sampling = sampling;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Inicia a thread de escrita.
+     */
+    public void start() {
+        writer = Executors.newSingleThreadScheduledExecutor(groupedThreads("app/commons", name + "-log"));
+        lastSummary = System.currentTimeMillis();
+        running = true;
+        writer.scheduleWithFixedDelay(this::drain, DRAIN_MILLIS, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Para a thread de escrita e escreve, na thread atual, o que ainda estava na fila
+     * e o resumo das mensagens suprimidas.
+     */
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            writer.shutdownNow();
+            try {
+                writer.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        writeQueued();
+        summarize();
+    }
+
+    public void info(String format) {
+        if (admit(false, format)) {
+            enqueue(new Record(false, format, 0, null, null, null));
+        }
+    }
+
+    public void info(String format, Object arg) {
+        if (admit(false, format)) {
+            enqueue(new Record(false, format, 1, arg, null, null));
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (admit(false, format)) {
+            enqueue(new Record(false, format, 2, arg1, arg2, null));
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (admit(false, format)) {
+            enqueue(new Record(false, format, -1, null, null, args));
+        }
+    }
+
+    public void info(String format, Args args) {
+        if (admit(false, format)) {
+            enqueue(new Record(false, format, -1, null, null, args.get()));
+        }
+    }
+
+    public void warn(String format) {
+        if (admit(true, format)) {
+            enqueue(new Record(true, format, 0, null, null, null));
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        if (admit(true, format)) {
+            enqueue(new Record(true, format, 1, arg, null, null));
+        }
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        if (admit(true, format)) {
+            enqueue(new Record(true, format, 2, arg1, arg2, null));
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (admit(true, format)) {
+            enqueue(new Record(true, format, -1, null, null, args));
+        }
+    }
+
+    public void warn(String format, Args args) {
+        if (admit(true, format)) {
+            enqueue(new Record(true, format, -1, null, null, args.get()));
+        }
+    }
+
+    // Amostragem e limite por segundo da mensagem; nao aloca nada depois da primeira chamada
+    private boolean admit(boolean warn, String format) {
+        int n = sampling;
+        if (n == 0 || !(warn ? log.isWarnEnabled() : log.isInfoEnabled())) {
+            return false;
+        }
+        Window window = windows.get(format);
+        if (window == null) {
+            window = windows.computeIfAbsent(format, f -> new Window(warn));
+        }
+        if (n > 1 && window.calls.incrementAndGet() % n != 0) {
+            return false;
+        }
+        return window.admit(maxPerSecond);
+    }
+
+    private void enqueue(Record record) {
+        if (!running) {
+            write(record);
+        } else if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        writeQueued();
+        long now = System.currentTimeMillis();
+        if (now - lastSummary >= INTERVAL_MILLIS) {
+            lastSummary = now;
+            summarize();
+        }
+    }
+
+    private void writeQueued() {
+        Record record;
+        while ((record = queue.poll()) != null) {
+            write(record);
+        }
+    }
+
+    private void summarize() {
+        windows.forEach((format, window) -> {
+            long suppressed = window.suppressed.sumThenReset();
+            if (suppressed > 0) {
+                write(new Record(window.warn, "{} mensagens suprimidas: {}", 2, suppressed, format, null));
+            }
+        });
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            log.warn("{} mensagens descartadas com a fila do log cheia", lost);
+        }
+    }
+
+    private void write(Record record) {
+        if (record.warn) {
+            switch (record.arity) {
+                case 0:
+                    log.warn(record.format);
+                    break;
+                case 1:
+                    log.warn(record.format, record.arg1);
+                    break;
+                case 2:
+                    log.warn(record.format, record.arg1, record.arg2);
+                    break;
+                default:
+                    log.warn(record.format, record.args);
+                    break;
+            }
+        } else {
+            switch (record.arity) {
+                case 0:
+                    log.info(record.format);
+                    break;
+                case 1:
+                    log.info(record.format, record.arg1);
+                    break;
+                case 2:
+                    log.info(record.format, record.arg1, record.arg2);
+                    break;
+                default:
+                    log.info(record.format, record.args);
+                    break;
+            }
+        }
+    }
+
+    // Mensagem a registrar: ate dois argumentos avulsos (arity 0 a 2) ou o array args (arity -1)
+    private static final class Record {
+        private final boolean warn;
+        private final String format;
+        private final int arity;
+        private final Object arg1;
+        private final Object arg2;
+        private final Object[] args;
+
+        private Record(boolean warn, String format, int arity, Object arg1, Object arg2, Object[] args) {
+            this.warn = warn;
+            this.format = format;
+            this.arity = arity;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.args = args;
+        }
+    }
+
+    // Janela de um segundo de uma mensagem: quantas vezes ela foi chamada, registrada e suprimida.
+    // O inicio da janela e a contagem de registradas ficam no mesmo long, de modo que virar a
+    // janela e contar a primeira mensagem da nova janela e um unico compareAndSet
+    private static final class Window {
+        private final boolean warn;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong state = new AtomicLong(System.currentTimeMillis() << COUNT_BITS);
+        private final LongAdder suppressed = new LongAdder();
+
+        private Window(boolean warn) {
+            this.warn = warn;
+        }
+
+        private boolean admit(int max) {
+            long now = System.currentTimeMillis();
+            while (true) {
+                long current = state.get();
+                long next;
+                if (now - (current >>> COUNT_BITS) >= INTERVAL_MILLIS) {
+                    next = (now << COUNT_BITS) | 1;
+                } else if ((current & COUNT_MASK) < max) {
+                    next = current + 1;
+                } else {
+                    suppressed.increment();
+                    return false;
+                }
+                if (state.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
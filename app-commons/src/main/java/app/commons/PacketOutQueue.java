@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketService;
+
+import java.util.List;
+
+/**
+ * Fila por dispositivo de pacotes de saida (packet-out).
+ *
+ * Os pacotes sao repassados ao PacketService fora da thread de quem os submete,
+ * um a um e na ordem em que foram submetidos. O PacketService nao tem emissao em
+ * lote: cada pacote continua sendo uma chamada (e uma mensagem para o switch), so
+ * o chamador deixa de esperar por ela, ao custo de ate maxDelayMillis de espera
+ * na fila.
+ */
+public class PacketOutQueue extends DeviceBatcher<OutboundPacket> {
+
+    private final PacketService packetService;
+
+    public PacketOutQueue(PacketService packetService, String name,
+                          int maxBatchSize, long maxDelayMillis, int flusherThreads) {
+        super(name, maxBatchSize, maxDelayMillis, flusherThreads);
+        this.packetService = packetService;
+    }
+
+    /**
+     * Agenda a emissao do pacote no dispositivo indicado por ele.
+     */
+    public void emit(OutboundPacket packet) {
+        submit(packet.sendThrough(), packet);
+    }
+
+    @Override
+    protected void flush(DeviceId deviceId, List<OutboundPacket> batch) {
+        for (OutboundPacket packet : batch) {
+            packetService.emit(packet);
+        }
+    }
+}
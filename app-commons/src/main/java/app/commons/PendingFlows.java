@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Tabela dos fluxos cuja regra (ou intent) ja foi pedida mas ainda nao foi instalada.
+ *
+ * Enquanto o fluxo (switch, porta de entrada, MAC de origem, MAC de destino) esta
+ * na tabela, os proximos packet-ins dele devem apenas ser encaminhados usando a
+ * decisao guardada, sem recalcular nem reinstalar nada. A entrada sai da tabela
+ * quando a instalacao e confirmada (clear/clearFlow) ou depois do timeout.
+ *
+ * @param <V> decisao guardada para o fluxo (porta de saida, host de destino, ...)
+ */
+public final class PendingFlows<V> {
+
+    private final Cache<FlowKey, V> entries;
+
+    // Indice (MAC de origem, MAC de destino) -> entradas, para confirmacoes que nao
+    // informam o switch nem a porta (por exemplo, a instalacao de uma intent)
+    private final ConcurrentMap<MacPair, Set<FlowKey>> byMacs = new ConcurrentHashMap<>();
+
+    /**
+     * Cria uma tabela com ate maxEntries fluxos, cada um expirando timeoutMillis
+     * depois de registrado.
+     */
+    public PendingFlows(long timeoutMillis, long maxEntries) {
+        RemovalListener<FlowKey, V> unindex = notification -> unindex(notification.getKey());
+        entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeoutMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .removalListener(unindex)
+                .build();
+    }
+
+    /**
+     * Retorna a decisao guardada para o fluxo ou null se ele nao esta pendente.
+     */
+    public V lookup(DeviceId deviceId, PortNumber inPort, MacAddress src, MacAddress dst) {
+        return entries.getIfPresent(new FlowKey(deviceId, inPort, src, dst));
+    }
+
+    /**
+     * Registra o fluxo como pendente. Retorna false se ele ja estava registrado.
+     */
+    public boolean register(DeviceId deviceId, PortNumber inPort, MacAddress src, MacAddress dst, V decision) {
+        FlowKey key = new FlowKey(deviceId, inPort, src, dst);
+        if (entries.asMap().putIfAbsent(key, decision) != null) {
+            return false;
+        }
+        byMacs.compute(key.macs, (macs, keys) -> {
+            Set<FlowKey> set = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            set.add(key);
+            return set;
+        });
+        return true;
+    }
+
+    /**
+     * Retira o fluxo da tabela (por exemplo, quando sua regra foi instalada).
+     */
+    public void clear(DeviceId deviceId, PortNumber inPort, MacAddress src, MacAddress dst) {
+        entries.invalidate(new FlowKey(deviceId, inPort, src, dst));
+    }
+
+    /**
+     * Retira da tabela todos os fluxos de src para dst, em qualquer switch e porta.
+     */
+    public void clearFlow(MacAddress src, MacAddress dst) {
+        Set<FlowKey> keys = byMacs.remove(new MacPair(src, dst));
+        if (keys != null) {
+            entries.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * Retira da tabela os fluxos cuja decisao satisfaz o filtro (percorre a tabela
+     * inteira; para confirmacoes raras, como a falha de uma intent compartilhada).
+     */
+    public void clearMatching(Predicate<? super V> decision) {
+        entries.asMap().values().removeIf(decision);
+    }
+
+    /**
+     * Retira todos os fluxos da tabela.
+     */
+    public void clearAll() {
+        entries.invalidateAll();
+        byMacs.clear();
+    }
+
+    /**
+     * Numero aproximado de fluxos pendentes.
+     */
+    public long size() {
+        return entries.size();
+    }
+
+    private void unindex(FlowKey key) {
+        byMacs.computeIfPresent(key.macs, (macs, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static final class MacPair {
+        private final MacAddress src;
+        private final MacAddress dst;
+
+        private MacPair(MacAddress src, MacAddress dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * src.hashCode() + dst.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MacPair)) {
+                return false;
+            }
+            MacPair other = (MacPair) obj;
+            return src.equals(other.src) && dst.equals(other.dst);
+        }
+    }
+
+    private static final class FlowKey {
+        private final DeviceId deviceId;
+        private final PortNumber inPort;
+        private final MacPair macs;
+
+        private FlowKey(DeviceId deviceId, PortNumber inPort, MacAddress src, MacAddress dst) {
+            this.deviceId = deviceId;
+            this.inPort = inPort;
+            this.macs = new MacPair(src, dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, inPort, macs);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FlowKey)) {
+                return false;
+            }
+            FlowKey other = (FlowKey) obj;
+            return deviceId.equals(other.deviceId) && inPort.equals(other.inPort) && macs.equals(other.macs);
+        }
+    }
+}
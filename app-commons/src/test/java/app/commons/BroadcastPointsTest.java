@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.onlab.graph.AdjacencyListsGraph;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Link;
+import org.onosproject.net.NetTestTools;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.DefaultTopologyEdge;
+import org.onosproject.net.topology.DefaultTopologyVertex;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyGraph;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+import org.onosproject.net.topology.TopologyVertex;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.connectPoint;
+import static org.onosproject.net.NetTestTools.link;
+
+/**
+ * Tests of the broadcast point cache against a fake topology service.
+ */
+public class BroadcastPointsTest {
+
+    // Triangulo d1-d2-d3; o link d3-d1 fica fora da arvore de broadcast
+    private static final Set<Link> LINKS = ImmutableSet.of(
+            link("d1", 1, "d2", 1), link("d2", 1, "d1", 1),
+            link("d2", 2, "d3", 2), link("d3", 2, "d2", 2),
+            link("d3", 70, "d1", 3), link("d1", 3, "d3", 70));
+
+    private final Set<ConnectPoint> outsideTree = new HashSet<>();
+
+    @Test
+    public void edgeAndTreePortsAreBroadcastPoints() {
+        outsideTree.add(connectPoint("d3", 70));
+        outsideTree.add(connectPoint("d1", 3));
+        FakeTopologyService topologyService = new FakeTopologyService();
+        BroadcastPoints points = new BroadcastPoints(topologyService);
+        points.start();
+
+        assertTrue(points.isBroadcastPoint(connectPoint("d1", 1)));
+        assertTrue(points.isBroadcastPoint(connectPoint("d2", 2)));
+        assertFalse(points.isBroadcastPoint(connectPoint("d1", 3)));
+        assertFalse(points.isBroadcastPoint(connectPoint("d3", 70)));
+        // Portas de borda e switches sem links
+        assertTrue(points.isBroadcastPoint(connectPoint("d1", 4)));
+        assertTrue(points.isBroadcastPoint(connectPoint("d3", 200)));
+        assertTrue(points.isBroadcastPoint(connectPoint("d9", 1)));
+    }
+
+    @Test
+    public void followsTopologyChanges() {
+        outsideTree.add(connectPoint("d1", 3));
+        FakeTopologyService topologyService = new FakeTopologyService();
+        BroadcastPoints points = new BroadcastPoints(topologyService);
+        points.start();
+        assertFalse(points.isBroadcastPoint(connectPoint("d1", 3)));
+
+        outsideTree.clear();
+        outsideTree.add(connectPoint("d2", 2));
+        points.rebuild(topologyService.currentTopology());
+        assertTrue(points.isBroadcastPoint(connectPoint("d1", 3)));
+        assertFalse(points.isBroadcastPoint(connectPoint("d2", 2)));
+
+        points.stop();
+        assertTrue(points.isBroadcastPoint(connectPoint("d2", 2)));
+    }
+
+    private class FakeTopologyService extends TopologyServiceAdapter {
+        private final Topology topology = new FakeTopology();
+        private final TopologyGraph graph = new FakeGraph();
+
+        @Override
+        public Topology currentTopology() {
+            return topology;
+        }
+
+        @Override
+        public TopologyGraph getGraph(Topology topology) {
+            return graph;
+        }
+
+        @Override
+        public boolean isBroadcastPoint(Topology topology, ConnectPoint connectPoint) {
+            return !outsideTree.contains(connectPoint);
+        }
+    }
+
+    private static final class FakeTopology implements Topology {
+        @Override
+        public long time() {
+            return 1;
+        }
+
+        @Override
+        public long creationTime() {
+            return 1;
+        }
+
+        @Override
+        public long computeCost() {
+            return 0;
+        }
+
+        @Override
+        public int clusterCount() {
+            return 1;
+        }
+
+        @Override
+        public int deviceCount() {
+            return 3;
+        }
+
+        @Override
+        public int linkCount() {
+            return LINKS.size();
+        }
+
+        @Override
+        public ProviderId providerId() {
+            return NetTestTools.PID;
+        }
+    }
+
+    private static final class FakeGraph extends AdjacencyListsGraph<TopologyVertex, TopologyEdge>
+            implements TopologyGraph {
+        FakeGraph() {
+            super(vertexes(), edges());
+        }
+
+        private static Set<TopologyVertex> vertexes() {
+            Set<TopologyVertex> vertexes = new HashSet<>();
+            LINKS.forEach(l -> vertexes.add(new DefaultTopologyVertex(l.src().deviceId())));
+            return vertexes;
+        }
+
+        private static Set<TopologyEdge> edges() {
+            Set<TopologyEdge> edges = new HashSet<>();
+            LINKS.forEach(l -> edges.add(new DefaultTopologyEdge(new DefaultTopologyVertex(l.src().deviceId()),
+                                                                 new DefaultTopologyVertex(l.dst().deviceId()), l)));
+            return edges;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Tests of the per-device batcher.
+ */
+public class DeviceBatcherTest {
+
+    private static final DeviceId D1 = did("d1");
+    private static final DeviceId D2 = did("d2");
+
+    private TestBatcher batcher;
+
+    @Before
+    public void setUp() {
+        batcher = new TestBatcher(4, 50);
+        batcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        batcher.stop();
+    }
+
+    @Test
+    public void fullBatchFlushesImmediately() throws InterruptedException {
+        batcher.expect(1);
+        for (int i = 0; i < 4; i++) {
+            batcher.submit(D1, i);
+        }
+        assertTrue(batcher.await());
+        assertEquals(1, batcher.batches.get(D1).size());
+        assertEquals(4, batcher.batches.get(D1).get(0).size());
+    }
+
+    @Test
+    public void partialBatchFlushesOnTimer() throws InterruptedException {
+        batcher.expect(1);
+        batcher.submit(D2, 7);
+        assertTrue(batcher.await());
+        assertEquals(1, batcher.batches.get(D2).get(0).size());
+        assertEquals(0, batcher.pending());
+    }
+
+    @Test
+    public void orderPreservedPerDevice() throws InterruptedException {
+        int count = 1000;
+        Thread t1 = new Thread(() -> submitRange(D1, count));
+        Thread t2 = new Thread(() -> submitRange(D2, count));
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+        batcher.flushPending();
+
+        for (DeviceId deviceId : new DeviceId[]{D1, D2}) {
+            List<Integer> seen = new ArrayList<>();
+            batcher.batches.get(deviceId).forEach(seen::addAll);
+            assertEquals(count, seen.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) seen.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void stopFlushesRemaining() {
+        batcher.submit(D1, 1);
+        batcher.stop();
+        assertEquals(0, batcher.pending());
+        assertEquals(1, batcher.batches.get(D1).size());
+        // Depois de parado, os itens sao entregues na hora
+        batcher.submit(D1, 2);
+        assertEquals(2, batcher.batches.get(D1).size());
+        batcher.start();
+    }
+
+    @Test
+    public void itemsSubmittedWhileStoppingAreDelivered() throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger submitted = new AtomicInteger();
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            DeviceId deviceId = t % 2 == 0 ? D1 : D2;
+            // Keeps submitting across stop(), like a packet processor still running
+            Thread submitter = new Thread(() -> {
+                while (!done.get()) {
+                    batcher.submit(deviceId, 0);
+                    submitted.incrementAndGet();
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        Thread.sleep(20);
+        batcher.stop();
+        // Submissions after stop() are delivered inline
+        Thread.sleep(5);
+        done.set(true);
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        int delivered = 0;
+        for (List<List<Integer>> batches : batcher.batches.values()) {
+            synchronized (batches) {
+                for (List<Integer> batch : batches) {
+                    delivered += batch.size();
+                }
+            }
+        }
+        assertEquals(submitted.get(), delivered);
+        assertEquals(0, batcher.pending());
+        batcher.start();
+    }
+
+    private void submitRange(DeviceId deviceId, int count) {
+        for (int i = 0; i < count; i++) {
+            batcher.submit(deviceId, i);
+        }
+    }
+
+    private static final class TestBatcher extends DeviceBatcher<Integer> {
+        private final Map<DeviceId, List<List<Integer>>> batches = new ConcurrentHashMap<>();
+        private volatile CountDownLatch latch = new CountDownLatch(0);
+
+        private TestBatcher(int maxBatchSize, long maxDelayMillis) {
+            super("test", maxBatchSize, maxDelayMillis, 2);
+        }
+
+        private void expect(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        private boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+
+        @Override
+        protected void flush(DeviceId deviceId, List<Integer> batch) {
+            List<List<Integer>> batches = this.batches.computeIfAbsent(deviceId, d -> new ArrayList<>());
+            synchronized (batches) {
+                batches.add(new ArrayList<>(batch));
+            }
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the header view against the fully parsed frame.
+ */
+public class EthernetHeaderTest {
+
+    private static final MacAddress SRC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final MacAddress DST = MacAddress.valueOf("0a:00:00:00:00:02");
+
+    @Test
+    public void untaggedIpv4() {
+        ByteBuffer frame = ipv4Frame(Ethernet.VLAN_UNTAGGED);
+        assertEquals(SRC.toLong(), EthernetHeader.srcMac(frame));
+        assertEquals(DST.toLong(), EthernetHeader.dstMac(frame));
+        assertEquals(Ethernet.TYPE_IPV4, EthernetHeader.etherType(frame));
+        assertEquals(EthernetHeader.NO_VLAN, EthernetHeader.vlanId(frame));
+        assertEquals(Ip4Address.valueOf("10.0.0.1").toInt(), EthernetHeader.ipv4Src(frame));
+        assertEquals(Ip4Address.valueOf("10.0.0.2").toInt(), EthernetHeader.ipv4Dst(frame));
+        assertFalse(EthernetHeader.isMulticast(frame));
+        assertFalse(EthernetHeader.isControlPacket(frame));
+        assertEquals(0, frame.position());
+    }
+
+    @Test
+    public void taggedIpv4() {
+        ByteBuffer frame = ipv4Frame((short) 100);
+        assertEquals(Ethernet.TYPE_IPV4, EthernetHeader.etherType(frame));
+        assertEquals(100, EthernetHeader.vlanId(frame));
+        assertEquals(EthernetHeader.HEADER_LENGTH + 4, EthernetHeader.payloadOffset(frame));
+        assertEquals(Ip4Address.valueOf("10.0.0.2").toInt(), EthernetHeader.ipv4Dst(frame));
+    }
+
+    @Test
+    public void controlAndMulticast() {
+        Ethernet lldp = new Ethernet();
+        lldp.setSourceMACAddress(SRC).setDestinationMACAddress("01:80:c2:00:00:0e")
+                .setEtherType(Ethernet.TYPE_LLDP);
+        ByteBuffer frame = ByteBuffer.wrap(new byte[64]);
+        frame.put(lldp.serialize());
+        frame.flip();
+        assertTrue(EthernetHeader.isControlPacket(frame));
+        assertTrue(EthernetHeader.isMulticast(frame));
+        assertFalse(EthernetHeader.isBroadcast(frame));
+        assertFalse(EthernetHeader.isIpv6Multicast(frame));
+    }
+
+    @Test
+    public void truncatedFrame() {
+        ByteBuffer frame = ByteBuffer.wrap(new byte[4]);
+        assertEquals(0, EthernetHeader.etherType(frame));
+        assertEquals(0, EthernetHeader.srcMac(frame));
+        assertFalse(EthernetHeader.isControlPacket(frame));
+    }
+
+    private static ByteBuffer ipv4Frame(short vlan) {
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress("10.0.0.1").setDestinationAddress("10.0.0.2").setProtocol(IPv4.PROTOCOL_UDP);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(SRC).setDestinationMACAddress(DST)
+                .setEtherType(Ethernet.TYPE_IPV4).setVlanID(vlan).setPayload(ip);
+        return ByteBuffer.wrap(eth.serialize());
+    }
+}
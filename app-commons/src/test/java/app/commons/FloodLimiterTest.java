@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+import org.onosproject.TestApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.connectPoint;
+
+/**
+ * Tests of the per-port flood limiter.
+ */
+public class FloodLimiterTest {
+
+    private static final ConnectPoint P1 = connectPoint("d1", 1);
+    private static final ConnectPoint P2 = connectPoint("d1", 2);
+
+    @Test
+    public void unlimitedUntilConfigured() {
+        FloodLimiter limiter = new FloodLimiter(64);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(limiter.tryAcquire(P1));
+        }
+        assertEquals(0, limiter.dropped());
+    }
+
+    @Test
+    public void burstThenDropPerPort() {
+        FloodLimiter limiter = new FloodLimiter(1024);
+        // Uma ficha por segundo: so a rajada passa durante o teste
+        limiter.configure(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(P1));
+        }
+        assertFalse(limiter.tryAcquire(P1));
+        assertFalse(limiter.tryAcquire(P1));
+        assertEquals(2, limiter.dropped());
+
+        assertTrue(limiter.tryAcquire(P2));
+
+        limiter.reset();
+        assertTrue(limiter.tryAcquire(P1));
+        assertEquals(0, limiter.dropped());
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        FloodLimiter limiter = new FloodLimiter(64);
+        limiter.configure(100, 1);
+        assertTrue(limiter.tryAcquire(P1));
+        assertFalse(limiter.tryAcquire(P1));
+        Thread.sleep(30);
+        assertTrue(limiter.tryAcquire(P1));
+    }
+
+    @Test
+    public void stormReportedOncePerHold() {
+        FloodLimiter limiter = new FloodLimiter(64);
+        assertTrue(limiter.reportStorm(P1, 10000));
+        assertFalse(limiter.reportStorm(P1, 10000));
+        assertTrue(limiter.reportStorm(P2, 10000));
+        assertTrue(limiter.reportStorm(P1, 0));
+    }
+
+    @Test
+    public void stormRuleOnlyOnEdgePortsOncePerTimeout() {
+        TopologyServiceAdapter topology = new TopologyServiceAdapter() {
+            @Override
+            public boolean isInfrastructure(Topology topology, ConnectPoint connectPoint) {
+                return connectPoint.equals(P2);
+            }
+        };
+        FloodLimiter limiter = new FloodLimiter(64);
+        assertNull(limiter.stormRule(P1, topology));
+
+        limiter.configureStormRule(new TestApplicationId("storm"), true, 1000, 10);
+        FlowRule rule = limiter.stormRule(P1, topology);
+        assertNotNull(rule);
+        assertEquals(P1.deviceId(), rule.deviceId());
+        assertEquals(1000, rule.priority());
+        assertEquals(10, rule.timeout());
+        assertNull(limiter.stormRule(P1, topology));
+        assertNull(limiter.stormRule(P2, topology));
+    }
+}
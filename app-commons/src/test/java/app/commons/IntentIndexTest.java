@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.TestApplicationId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.IdGenerator;
+import org.onosproject.net.HostId;
+import org.onosproject.net.intent.HostToHostIntent;
+import org.onosproject.net.intent.Intent;
+import org.onosproject.net.intent.IntentServiceAdapter;
+import org.onosproject.net.intent.Key;
+import org.onosproject.net.intent.MockIdGenerator;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the indexed intent withdrawal.
+ */
+public class IntentIndexTest {
+
+    private static final ApplicationId APP = new TestApplicationId("index");
+    private static final ApplicationId OTHER_APP = new TestApplicationId("other");
+
+    private final IdGenerator idGenerator = new MockIdGenerator();
+    private final FakeIntentService intentService = new FakeIntentService();
+
+    @Before
+    public void setUp() {
+        Intent.bindIdGenerator(idGenerator);
+    }
+
+    @After
+    public void tearDown() {
+        Intent.unbindIdGenerator(idGenerator);
+    }
+
+    @Test
+    public void withdrawsIndexedIntentsInBatches() {
+        IntentIndex index = new IntentIndex(intentService);
+        for (int i = 1; i <= 25; i++) {
+            index.submit(intent(APP, i));
+        }
+        assertEquals(25, index.size());
+
+        assertEquals(25, index.withdrawAll(4, 3));
+        assertEquals(0, index.size());
+        assertEquals(25, intentService.withdrawn.size());
+        assertEquals(25, intentService.withdrawCalls.get());
+    }
+
+    @Test
+    public void orphanScanSkipsIndexedAndForeignIntents() {
+        IntentIndex index = new IntentIndex(intentService);
+        index.submit(intent(APP, 1));
+        Intent orphan = intent(APP, 2);
+        intentService.submit(orphan);
+        intentService.submit(intent(OTHER_APP, 3));
+
+        assertEquals(1, index.withdrawOrphans(APP));
+        assertEquals(1, intentService.withdrawn.size());
+        assertTrue(intentService.withdrawn.contains(orphan.key()));
+    }
+
+    @Test
+    public void withdrawEverythingWithdrawsEachIntentOnce() {
+        IntentIndex index = new IntentIndex(intentService);
+        index.submit(intent(APP, 1));
+        index.submit(intent(APP, 2));
+        intentService.submit(intent(APP, 3));
+        intentService.submit(intent(OTHER_APP, 4));
+
+        assertEquals(3, index.withdrawEverything(APP, 10, 2));
+        assertEquals(0, index.size());
+        assertEquals(3, intentService.withdrawn.size());
+        assertEquals(3, intentService.withdrawCalls.get());
+    }
+
+    private static Intent intent(ApplicationId appId, long host) {
+        HostId one = HostId.hostId(MacAddress.valueOf(host));
+        HostId two = HostId.hostId(MacAddress.valueOf(host + 1000));
+        return HostToHostIntent.builder()
+                .appId(appId)
+                .key(Key.of(host, appId))
+                .one(one)
+                .two(two)
+                .build();
+    }
+
+    private static class FakeIntentService extends IntentServiceAdapter {
+        final Map<Key, Intent> intents = new ConcurrentHashMap<>();
+        final Set<Key> withdrawn = ConcurrentHashMap.newKeySet();
+        final AtomicInteger withdrawCalls = new AtomicInteger();
+
+        @Override
+        public void submit(Intent intent) {
+            intents.put(intent.key(), intent);
+        }
+
+        @Override
+        public void withdraw(Intent intent) {
+            withdrawn.add(intent.key());
+            withdrawCalls.incrementAndGet();
+        }
+
+        @Override
+        public Intent getIntent(Key key) {
+            return intents.get(key);
+        }
+
+        @Override
+        public Iterable<Intent> getIntents() {
+            return intents.values();
+        }
+    }
+}
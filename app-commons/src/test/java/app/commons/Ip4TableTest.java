@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+
+import static app.commons.Ip4Table.NO_VALUE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the open-addressing IPv4 table.
+ */
+public class Ip4TableTest {
+
+    @Test
+    public void putGetRemove() {
+        Ip4Table table = new Ip4Table(4);
+        assertEquals(NO_VALUE, table.put(0x0a000001, 1L));
+        assertEquals(1L, table.put(0x0a000001, 2L));
+        assertEquals(2L, table.get(0x0a000001));
+        assertEquals(NO_VALUE, table.get(0x0a000002));
+
+        assertFalse(table.remove(0x0a000001, 1L));
+        assertTrue(table.remove(0x0a000001, 2L));
+        assertEquals(NO_VALUE, table.get(0x0a000001));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void growsAndKeepsEntriesAcrossRemovals() {
+        Ip4Table table = new Ip4Table(1);
+        for (int ip = 0; ip < 5000; ip++) {
+            table.put(ip, ip * 10L);
+        }
+        for (int ip = 0; ip < 5000; ip += 2) {
+            assertEquals(ip * 10L, table.remove(ip));
+        }
+        assertEquals(2500, table.size());
+        for (int ip = 0; ip < 5000; ip++) {
+            assertEquals(ip % 2 == 0 ? NO_VALUE : ip * 10L, table.get(ip));
+        }
+    }
+
+    @Test
+    public void removeIf() {
+        Ip4Table table = new Ip4Table(16);
+        for (int ip = 1; ip <= 10; ip++) {
+            table.put(ip, ip);
+        }
+        assertEquals(5, table.removeIf(value -> value > 5));
+        assertEquals(5, table.size());
+        assertEquals(3L, table.get(3));
+        assertEquals(NO_VALUE, table.get(7));
+    }
+}
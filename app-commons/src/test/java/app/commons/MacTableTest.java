@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the open-addressing MAC table.
+ */
+public class MacTableTest {
+
+    private static final long MAC = 0x00163e000001L;
+
+    @Test
+    public void putGetRemove() {
+        MacTable<String> table = new MacTable<>(4);
+        assertNull(table.put(MAC, "a"));
+        assertEquals("a", table.put(MAC, "b"));
+        assertEquals("b", table.get(MAC));
+        assertNull(table.get(MAC + 1));
+
+        assertFalse(table.remove(MAC, "a"));
+        assertTrue(table.remove(MAC, "b"));
+        assertNull(table.get(MAC));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void putIfAbsentKeepsTheCurrentValue() {
+        MacTable<String> table = new MacTable<>(4);
+        assertNull(table.putIfAbsent(MAC, "a"));
+        assertEquals("a", table.putIfAbsent(MAC, "b"));
+        assertEquals("a", table.get(MAC));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void growsAndKeepsEntriesAcrossRemovals() {
+        MacTable<Long> table = new MacTable<>(1);
+        for (long mac = 0; mac < 5000; mac++) {
+            table.put(MAC + mac, mac);
+        }
+        for (long mac = 0; mac < 5000; mac += 2) {
+            assertEquals(Long.valueOf(mac), table.remove(MAC + mac));
+        }
+        assertEquals(2500, table.size());
+        for (long mac = 0; mac < 5000; mac++) {
+            assertEquals(mac % 2 == 0 ? null : Long.valueOf(mac), table.get(MAC + mac));
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get(MAC + 1));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP6;
+import org.onlab.packet.IPv6;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.ndp.NeighborDiscoveryOptions;
+import org.onlab.packet.ndp.NeighborSolicitation;
+
+/**
+ * NDP frames built as a host would send them, shared by the apps' tests and the
+ * benchmarks through the app-commons test jar.
+ */
+public final class NdpFrames {
+
+    private static final Ip6Address UNSPECIFIED = Ip6Address.valueOf("::");
+
+    private NdpFrames() {
+    }
+
+    /**
+     * Neighbor Solicitation from srcMac/srcIp for targetIp, sent to the target's
+     * solicited-node multicast address (ff02::1:ffxx:xxxx, 33:33:ff:xx:xx:xx). With the
+     * unspecified source (::, duplicate address detection) the source link-layer
+     * address option is left out.
+     */
+    public static Ethernet neighborSolicitation(MacAddress srcMac, Ip6Address srcIp, Ip6Address targetIp) {
+        byte[] target = targetIp.toOctets();
+        NeighborSolicitation ns = new NeighborSolicitation();
+        ns.setTargetAddress(target);
+        if (!srcIp.equals(UNSPECIFIED)) {
+            ns.addOption(NeighborDiscoveryOptions.TYPE_SOURCE_LL_ADDRESS, srcMac.toBytes());
+        }
+        ICMP6 icmp6 = new ICMP6();
+        icmp6.setIcmpType(ICMP6.NEIGHBOR_SOLICITATION).setIcmpCode((byte) 0).setPayload(ns);
+
+        byte[] solicitedNode = Ip6Address.valueOf("ff02::1:ff00:0").toOctets();
+        System.arraycopy(target, 13, solicitedNode, 13, 3);
+        IPv6 ip = new IPv6();
+        ip.setSourceAddress(srcIp.toOctets()).setDestinationAddress(solicitedNode)
+                .setNextHeader(IPv6.PROTOCOL_ICMP6).setHopLimit((byte) 255).setPayload(icmp6);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(srcMac)
+                .setDestinationMACAddress(new byte[]{0x33, 0x33, (byte) 0xff, target[13], target[14], target[15]})
+                .setEtherType(Ethernet.TYPE_IPV6).setPayload(ip);
+        return eth;
+    }
+}
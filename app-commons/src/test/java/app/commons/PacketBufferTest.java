@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.connectPoint;
+
+/**
+ * Tests of the bounded per-key packet buffer.
+ */
+public class PacketBufferTest {
+
+    private static final ConnectPoint P1 = connectPoint("d1", 1);
+
+    @Test
+    public void drainsInArrivalOrder() {
+        PacketBuffer<String> buffer = new PacketBuffer<>(10, 1000, 10000);
+        assertFalse(buffer.add("a", P1, frame(1, 10)));
+        buffer.open("a");
+        buffer.open("b");
+        assertTrue(buffer.add("a", P1, frame(1, 10)));
+        assertTrue(buffer.add("a", P1, frame(2, 10)));
+        assertTrue(buffer.add("b", P1, frame(3, 10)));
+        assertEquals(30, buffer.bytes());
+
+        List<PacketBuffer.BufferedPacket> packets = buffer.drain("a");
+        assertEquals(2, packets.size());
+        assertEquals(1, packets.get(0).frame.get(0));
+        assertEquals(2, packets.get(1).frame.get(0));
+        assertEquals(P1, packets.get(0).destination);
+        assertEquals(10, buffer.bytes());
+        assertTrue(buffer.drain("a").isEmpty());
+        assertFalse(buffer.add("a", P1, frame(1, 10)));
+    }
+
+    @Test
+    public void keepsACopyOfTheFrame() {
+        PacketBuffer<String> buffer = new PacketBuffer<>(10, 1000, 10000);
+        buffer.open("a");
+        ByteBuffer received = frame(1, 10);
+        assertTrue(buffer.add("a", P1, received));
+        received.put(0, (byte) 9);
+        assertEquals(1, buffer.drain("a").get(0).frame.get(0));
+    }
+
+    @Test
+    public void capsPerKeyAndTotal() {
+        PacketBuffer<String> buffer = new PacketBuffer<>(2, 50, 10000);
+        buffer.open("a");
+        buffer.open("b");
+        buffer.open("c");
+        assertTrue(buffer.add("a", P1, frame(1, 10)));
+        assertTrue(buffer.add("a", P1, frame(2, 10)));
+        assertFalse(buffer.add("a", P1, frame(3, 10)));
+        assertTrue(buffer.add("b", P1, frame(4, 25)));
+        assertFalse(buffer.add("c", P1, frame(5, 10)));
+        assertEquals(45, buffer.bytes());
+    }
+
+    @Test
+    public void discardCountsDrops() {
+        PacketBuffer<String> buffer = new PacketBuffer<>(10, 1000, 10000);
+        buffer.open("a");
+        buffer.add("a", P1, frame(1, 10));
+        buffer.add("a", P1, frame(2, 10));
+        buffer.discard("a");
+        assertEquals(2, buffer.dropped());
+        assertEquals(0, buffer.bytes());
+        assertTrue(buffer.drain("a").isEmpty());
+    }
+
+    private static ByteBuffer frame(int first, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        frame.put(0, (byte) first);
+        return frame;
+    }
+}
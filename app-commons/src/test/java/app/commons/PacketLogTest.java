@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the sampled and rate-limited packet log.
+ */
+public class PacketLogTest {
+
+    private final List<String> lines = new ArrayList<>();
+
+    @Test
+    public void rateLimitedWithSummary() {
+        PacketLog packetLog = new PacketLog(logger(), "test", 1, 3);
+        AtomicInteger evaluated = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            int n = i;
+            packetLog.info("pacote {}", () -> new Object[]{evaluated.incrementAndGet(), n});
+        }
+        assertEquals(3, lines.size());
+        assertEquals(3, evaluated.get());
+
+        packetLog.stop();
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(3).startsWith("info {} mensagens suprimidas: {} [7, pacote {}]"));
+    }
+
+    @Test
+    public void sampling() {
+        PacketLog packetLog = new PacketLog(logger(), "test", 4, 100);
+        for (int i = 0; i < 20; i++) {
+            packetLog.warn("pacote {}", i);
+        }
+        assertEquals(5, lines.size());
+
+        packetLog.configure(0, 100);
+        packetLog.warn("desligado");
+        assertEquals(5, lines.size());
+    }
+
+    @Test
+    public void samplingIsPerMessage() {
+        PacketLog packetLog = new PacketLog(logger(), "test", 2, 100);
+        for (int i = 0; i < 4; i++) {
+            packetLog.info("origem {} destino {}", i, i + 1);
+            packetLog.info("outro {}", i);
+        }
+        // A shared counter would only ever admit one of the two interleaved messages
+        assertEquals(4, lines.size());
+        assertEquals("info origem {} destino {} [1, 2]", lines.get(0));
+        assertEquals("info outro {} [1]", lines.get(1));
+    }
+
+    @Test
+    public void asyncWriter() {
+        PacketLog packetLog = new PacketLog(logger(), "test", 1, 100);
+        packetLog.start();
+        packetLog.info("pacote {}", 1);
+        packetLog.stop();
+        assertEquals(1, lines.size());
+    }
+
+    private Logger logger() {
+        return (Logger) Proxy.newProxyInstance(
+                Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("is")) {
+                        return true;
+                    }
+                    // Varargs and fixed-arity calls are both printed as one argument list
+                    List<Object> params = new ArrayList<>();
+                    for (int i = 1; i < args.length; i++) {
+                        if (args[i] instanceof Object[]) {
+                            params.addAll(Arrays.asList((Object[]) args[i]));
+                        } else {
+                            params.add(args[i]);
+                        }
+                    }
+                    synchronized (lines) {
+                        lines.add(method.getName() + ' ' + args[0] + (params.isEmpty() ? "" : " " + params));
+                    }
+                    return null;
+                });
+    }
+}
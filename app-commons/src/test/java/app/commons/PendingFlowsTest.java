@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.commons;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.PortNumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Tests of the in-flight flow table.
+ */
+public class PendingFlowsTest {
+
+    private static final MacAddress A = MacAddress.valueOf("00:00:00:00:00:0a");
+    private static final MacAddress B = MacAddress.valueOf("00:00:00:00:00:0b");
+    private static final PortNumber P1 = PortNumber.portNumber(1);
+    private static final PortNumber P2 = PortNumber.portNumber(2);
+
+    @Test
+    public void registerAndClear() {
+        PendingFlows<PortNumber> flows = new PendingFlows<>(10000, 100);
+        assertTrue(flows.register(did("d1"), P1, A, B, P2));
+        assertFalse(flows.register(did("d1"), P1, A, B, P1));
+        assertEquals(P2, flows.lookup(did("d1"), P1, A, B));
+        assertNull(flows.lookup(did("d1"), P1, B, A));
+
+        flows.clear(did("d1"), P1, A, B);
+        assertNull(flows.lookup(did("d1"), P1, A, B));
+        assertTrue(flows.register(did("d1"), P1, A, B, P2));
+    }
+
+    @Test
+    public void clearFlowOnAllDevices() {
+        PendingFlows<PortNumber> flows = new PendingFlows<>(10000, 100);
+        flows.register(did("d1"), P1, A, B, P2);
+        flows.register(did("d2"), P2, A, B, P1);
+        flows.register(did("d1"), P2, B, A, P1);
+
+        flows.clearFlow(A, B);
+        assertNull(flows.lookup(did("d1"), P1, A, B));
+        assertNull(flows.lookup(did("d2"), P2, A, B));
+        assertEquals(P1, flows.lookup(did("d1"), P2, B, A));
+    }
+
+    @Test
+    public void clearMatchingDecisions() {
+        PendingFlows<PortNumber> flows = new PendingFlows<>(10000, 100);
+        flows.register(did("d1"), P1, A, B, P2);
+        flows.register(did("d2"), P1, B, A, P1);
+
+        flows.clearMatching(P2::equals);
+        assertNull(flows.lookup(did("d1"), P1, A, B));
+        assertEquals(P1, flows.lookup(did("d2"), P1, B, A));
+        assertTrue(flows.register(did("d1"), P1, A, B, P2));
+    }
+
+    @Test
+    public void expires() throws InterruptedException {
+        PendingFlows<PortNumber> flows = new PendingFlows<>(20, 100);
+        flows.register(did("d1"), P1, A, B, P2);
+        Thread.sleep(50);
+        assertNull(flows.lookup(did("d1"), P1, A, B));
+        assertTrue(flows.register(did("d1"), P1, A, B, P2));
+    }
+}
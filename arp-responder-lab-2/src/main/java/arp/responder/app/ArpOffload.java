@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import app.commons.FlowRuleBatcher;
+import app.commons.Ip4Table;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Descarrega nos switches as requisicoes ARP unicast (renovacao de cache) para
+ * enderecos bem conhecidos.
+ *
+ * Cada switch conta, por IP procurado, as requisicoes unicast que chegam ao
+ * controlador. Quando um IP passa de threshold requisicoes em um segundo, o switch
+ * recebe uma regra ETH_TYPE=ARP, ETH_DST=MAC do dono que encaminha a requisicao
+ * direto para a porta do dono, e o dono responde sozinho. A resposta unicast do dono
+ * ainda chega ao controlador, que a entrega ao host que perguntou. O numero de regras
+ * por switch e limitado por quota; as regras expiram por inatividade e saem quando o
+ * dono muda de lugar.
+ *
+ * So sao descarregados donos ligados ao proprio switch: a requisicao encaminhada para
+ * outro switch seria capturada de novo por ele, e respondida pelo proxy por uma porta
+ * de infraestrutura.
+ *
+ * O ONOS 1.2.2 nao tem criterio para o IP procurado (ARP_TPA); por isso as
+ * requisicoes em broadcast continuam chegando ao controlador e sao respondidas
+ * pelo proxy.
+ */
+final class ArpOffload {
+
+    private final FlowRuleBatcher flowRuleBatcher;
+    private final ApplicationId appId;
+
+    private final ConcurrentMap<DeviceId, DeviceOffloads> devices = new ConcurrentHashMap<>();
+
+    private volatile int threshold;
+    private volatile int quota;
+    private volatile int priority;
+    private volatile int timeout;
+
+    ArpOffload(FlowRuleBatcher flowRuleBatcher, ApplicationId appId) {
+        this.flowRuleBatcher = flowRuleBatcher;
+        this.appId = appId;
+    }
+
+    /**
+     * Requisicoes por segundo para descarregar um IP, regras por switch,
+     * prioridade e tempo de inatividade (s) das regras.
+     */
+    void configure(int threshold, int quota, int priority, int timeout) {
+        this.threshold = threshold;
+        this.quota = quota;
+        this.priority = priority;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Conta uma requisicao unicast para target, cujo dono e owner, recebida por deviceId.
+     * Retorna true se a requisicao levou a instalacao de uma regra; donos ligados a
+     * outros switches nao sao descarregados.
+     */
+    boolean hit(DeviceId deviceId, int target, MacAddress owner, ConnectPoint ownerLocation) {
+        if (!ownerLocation.deviceId().equals(deviceId)) {
+            return false;
+        }
+        DeviceOffloads offloads = devices.computeIfAbsent(deviceId, id -> new DeviceOffloads());
+        FlowRule rule;
+        synchronized (offloads) {
+            if (offloads.rules.containsKey(owner) || !offloads.count(target, threshold)
+                    || offloads.rules.size() >= quota) {
+                return false;
+            }
+            rule = DefaultFlowRule.builder()
+                    .fromApp(appId)
+                    .forDevice(deviceId)
+                    .withSelector(DefaultTrafficSelector.builder()
+                                          .matchEthType(Ethernet.TYPE_ARP)
+                                          .matchEthDst(owner)
+                                          .build())
+                    .withTreatment(DefaultTrafficTreatment.builder().setOutput(ownerLocation.port()).build())
+                    .withPriority(priority)
+                    .makeTemporary(timeout)
+                    .build();
+            offloads.rules.put(owner, rule);
+        }
+        flowRuleBatcher.add(rule);
+        return true;
+    }
+
+    /**
+     * Retira as regras que levam ao MAC informado (o dono mudou de lugar ou saiu da rede).
+     */
+    void withdraw(MacAddress owner) {
+        for (DeviceOffloads offloads : devices.values()) {
+            FlowRule rule;
+            synchronized (offloads) {
+                rule = offloads.rules.remove(owner);
+            }
+            if (rule != null) {
+                flowRuleBatcher.remove(rule);
+            }
+        }
+    }
+
+    /**
+     * Libera a quota de uma regra removida pelo switch (por exemplo, por inatividade).
+     */
+    void ruleRemoved(FlowRule rule) {
+        DeviceOffloads offloads = devices.get(rule.deviceId());
+        EthCriterion dst = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_DST);
+        if (offloads == null || dst == null) {
+            return;
+        }
+        synchronized (offloads) {
+            FlowRule current = offloads.rules.get(dst.mac());
+            if (current != null && current.id().equals(rule.id())) {
+                offloads.rules.remove(dst.mac());
+            }
+        }
+    }
+
+    /**
+     * Retira todas as regras de descarga pelo agrupador (o modo foi desligado). Como o agrupador
+     * preserva a ordem por switch, uma regra ainda na fila e instalada e logo depois removida.
+     */
+    void withdrawAll() {
+        for (DeviceOffloads offloads : devices.values()) {
+            List<FlowRule> rules;
+            synchronized (offloads) {
+                rules = new ArrayList<>(offloads.rules.values());
+                offloads.rules.clear();
+            }
+            rules.forEach(flowRuleBatcher::remove);
+        }
+    }
+
+    /**
+     * Numero de regras instaladas (ou pedidas) em todos os switches.
+     */
+    int size() {
+        int size = 0;
+        for (DeviceOffloads offloads : devices.values()) {
+            synchronized (offloads) {
+                size += offloads.rules.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Esquece todas as regras e contadores (as regras em si sao removidas pelo appId).
+     */
+    void clear() {
+        devices.clear();
+    }
+
+    private static final class DeviceOffloads {
+        // IP procurado -> (segundo << 32) | requisicoes naquele segundo
+        private final Ip4Table hits = new Ip4Table(64);
+        private final Map<MacAddress, FlowRule> rules = new HashMap<>();
+
+        // Conta a requisicao e diz se o IP atingiu o limite no segundo atual
+        private boolean count(int target, int threshold) {
+            long second = System.currentTimeMillis() / 1000;
+            long packed = hits.get(target);
+            long count = packed != Ip4Table.NO_VALUE && (packed >>> 32) == second ? (packed & 0xffffffffL) + 1 : 1;
+            if (count >= threshold) {
+                hits.remove(target);
+                return true;
+            }
+            hits.put(target, (second << 32) | count);
+            if (hits.size() > 1024) {
+                hits.removeIf(value -> (value >>> 32) != second);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import app.commons.EthernetHeader;
+import org.onlab.packet.ARP;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Leitura de requisicoes ARP e escrita das respostas diretamente nos bytes do quadro,
+ * sem decodificar a requisicao nem montar objetos Ethernet/ARP para a resposta.
+ *
+ * A resposta e o mesmo quadro que ARP.buildArpReply() produziria: os cabecalhos
+ * fixos vem de um modelo e apenas os enderecos sao escritos; as tags de VLAN da
+ * requisicao sao copiadas como estao.
+ */
+final class ArpReplyWriter {
+
+    /** Tamanho do payload ARP para Ethernet/IPv4. */
+    static final int ARP_LENGTH = 28;
+
+    private static final int OPCODE = 6;
+    private static final int SHA = 8;
+    private static final int SPA = 14;
+    private static final int THA = 18;
+    private static final int TPA = 24;
+
+    // Tipo de hardware, tipo de protocolo, tamanhos e opcode de uma resposta Ethernet/IPv4
+    private static final byte[] REPLY_HEADER = {0, 1, 0x08, 0x00, 6, 4, 0, (byte) ARP.OP_REPLY};
+
+    // Nao instanciavel
+    private ArpReplyWriter() {
+    }
+
+    /**
+     * Deslocamento do payload ARP se o quadro e uma requisicao Ethernet/IPv4 completa,
+     * ou -1 caso contrario.
+     */
+    static int requestOffset(ByteBuffer frame) {
+        int offset = EthernetHeader.payloadOffset(frame);
+        int base = frame.position() + offset;
+        if (base + ARP_LENGTH > frame.limit()) {
+            return -1;
+        }
+        for (int i = 0; i < OPCODE; i++) {
+            if (frame.get(base + i) != REPLY_HEADER[i]) {
+                return -1;
+            }
+        }
+        return frame.getShort(base + OPCODE) == ARP.OP_REQUEST ? offset : -1;
+    }
+
+    /**
+     * IP de quem perguntou.
+     */
+    static int senderIp(ByteBuffer frame, int offset) {
+        return frame.getInt(frame.position() + offset + SPA);
+    }
+
+    /**
+     * MAC de quem perguntou, nos 48 bits menos significativos.
+     */
+    static long senderMac(ByteBuffer frame, int offset) {
+        int base = frame.position() + offset + SHA;
+        return ((long) (frame.getShort(base) & 0xffff) << 32) | (frame.getInt(base + 2) & 0xffffffffL);
+    }
+
+    /**
+     * IP procurado.
+     */
+    static int targetIp(ByteBuffer frame, int offset) {
+        return frame.getInt(frame.position() + offset + TPA);
+    }
+
+    /**
+     * Escreve a resposta a requisicao informando que o IP procurado pertence a ownerMac.
+     * O buffer retornado pertence a quem o recebe (o PacketService guarda uma referencia
+     * ao array depois do emit), por isso e sempre um array novo.
+     */
+    static ByteBuffer reply(ByteBuffer request, int offset, long ownerMac) {
+        int in = request.position();
+        byte[] reply = new byte[offset + ARP_LENGTH];
+        ByteBuffer out = ByteBuffer.wrap(reply);
+
+        // Ethernet: destino = quem perguntou; origem = dono do IP; VLANs e EtherType da requisicao
+        copy(request, in + 6, reply, 0, 6);
+        putMac(out, 6, ownerMac);
+        copy(request, in + 12, reply, 12, offset - 12);
+
+        // ARP: o dono responde para quem perguntou
+        System.arraycopy(REPLY_HEADER, 0, reply, offset, REPLY_HEADER.length);
+        putMac(out, offset + SHA, ownerMac);
+        out.putInt(offset + SPA, request.getInt(in + offset + TPA));
+        copy(request, in + offset + SHA, reply, offset + THA, 6);
+        out.putInt(offset + TPA, request.getInt(in + offset + SPA));
+        return out;
+    }
+
+    private static void putMac(ByteBuffer out, int index, long mac) {
+        out.putShort(index, (short) (mac >>> 32));
+        out.putInt(index + 2, (int) mac);
+    }
+
+    private static void copy(ByteBuffer from, int fromIndex, byte[] to, int toIndex, int length) {
+        for (int i = 0; i < length; i++) {
+            to[toIndex + i] = from.get(fromIndex + i);
+        }
+    }
+}
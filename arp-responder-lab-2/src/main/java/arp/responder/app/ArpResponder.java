@@ -15,37 +15,64 @@
  */
 package arp.responder.app;
 
+import app.commons.BroadcastPoints;
+import app.commons.EthernetHeader;
+import app.commons.FlowRuleBatcher;
+import app.commons.Ip4Table;
+import app.commons.PacketOutQueue;
+import com.google.common.base.Strings;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.onlab.packet.ARP;
 import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP6;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.IPv6;
 import org.onlab.packet.Ip4Address;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.IpAddress;
 import org.onlab.packet.MacAddress;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
 import org.onosproject.net.Host;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
 import org.onosproject.net.packet.DefaultOutboundPacket;
 import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketPriority;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
 import org.onosproject.net.topology.TopologyService;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -59,6 +86,44 @@ public class ArpResponder {
     private static final String REQUEST_NULL = "Requisiçao ARP ou NDP nao pode ser nula";
     private static final String NOT_ARP_REQUEST = "Nao e uma requisicao ARP.";
 
+    // Tamanho inicial da tabela IPv4 -> MAC (ela cresce se necessario)
+    private static final int HOST_TABLE_SIZE = 4096;
+
+    // Intervalo minimo entre dois floods de requisicoes para o mesmo IP desconhecido
+    private static final long FLOOD_HOLD_MS = 1000;
+
+    // Acima deste numero de IPs no cache negativo, as entradas vencidas sao descartadas
+    private static final int FLOOD_TABLE_MAX = 4096;
+
+    // Requisicoes de hosts diferentes guardadas por IP desconhecido enquanto a resposta nao chega
+    private static final int PENDING_WAITERS_MAX = 64;
+
+    private static final boolean DEFAULT_ARP_LEARNING = true;
+    private static final boolean DEFAULT_GARP_ON_MOVE = true;
+    private static final boolean DEFAULT_ARP_OFFLOAD = false;
+    private static final int DEFAULT_OFFLOAD_THRESHOLD = 20;
+    private static final int DEFAULT_OFFLOAD_QUOTA = 128;
+    private static final int DEFAULT_OFFLOAD_PRIORITY = 100;
+    private static final int DEFAULT_OFFLOAD_TIMEOUT = 60;
+
+    // As regras de descarga sao enviadas a cada switch em lotes de ate RULE_BATCH_SIZE regras
+    // ou a cada RULE_BATCH_DELAY ms
+    private static final int RULE_BATCH_SIZE = 100;
+    private static final long RULE_BATCH_DELAY = 10;
+    private static final int RULE_BATCH_THREADS = 1;
+
+    private static final boolean DEFAULT_REPLY_QUEUE = false;
+    private static final boolean DEFAULT_NDP_PROXY = true;
+
+    // Com replyQueue, as respostas sao emitidas por outra thread: a fila de cada switch e esvaziada
+    // a cada REPLY_QUEUE_DELAY ms ou assim que REPLY_QUEUE_SIZE respostas se acumularem
+    private static final int REPLY_QUEUE_SIZE = 64;
+    private static final long REPLY_QUEUE_DELAY = 2;
+    private static final int REPLY_QUEUE_THREADS = 1;
+
+    // Bit de multicast do primeiro octeto de um MAC guardado em um long
+    private static final long MULTICAST_BIT = 1L << 40;
+
     // Servicos do CORE do ONOS (KARAF) que nossa aplicação espera utilizar
     // Prove um serie de funcionalidades para a aplicação
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
@@ -70,6 +135,12 @@ public class ArpResponder {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected FlowRuleService flowRuleService;
+
     /*
      * TODO Lab 2: Utilize o servico (primitiva) de HOSTS para obter as informacoes dos HOSTs da rede
      *
@@ -85,6 +156,82 @@ public class ArpResponder {
        os pacotes capturados pelo ONOS */
     private ArpPacketProcessor processor = new ArpPacketProcessor();
 
+    // Decide se o ARP ou a solicitacao NDP sem resposta local pode ser inundada a partir da porta de entrada
+    private BroadcastPoints broadcastPoints;
+
+    // Tabela IPv4 -> MAC usada para responder os ARPs, alimentada pelos eventos de HOST
+    // e pelas respostas ARP que passam pelo controlador
+    private final Ip4Table ipToMac = new Ip4Table(HOST_TABLE_SIZE);
+
+    // IPv4 desconhecido -> requisicoes que aguardam o dono responder ao flood; a entrada
+    // expira FLOOD_HOLD_MS depois do flood
+    private final PendingResolutions pendingResolutions =
+            new PendingResolutions(FLOOD_HOLD_MS, FLOOD_TABLE_MAX, PENDING_WAITERS_MAX);
+
+    // Tabela IPv6 -> MAC usada para responder as Neighbor Solicitations
+    private final NdpProxy ndpProxy = new NdpProxy();
+
+    // Cache negativo das solicitacoes NDP: IPv6 procurado -> instante do ultimo flood
+    private final Map<Ip6Address, Long> recentNdpFloods = new ConcurrentHashMap<>();
+
+    // Ultima localizacao conhecida de cada host, para entregar as respostas ARP e avisar a porta
+    // antiga quando ele muda de lugar
+    private final Map<MacAddress, ConnectPoint> hostLocations = new ConcurrentHashMap<>();
+
+    private final HostListener hostListener = new InternalHostListener();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    private FlowRuleBatcher flowRuleBatcher;
+
+    private PacketOutQueue packetOutQueue;
+
+    // Tratamento "saida pela porta N", criado uma vez por porta
+    private final Map<PortNumber, TrafficTreatment> outputTreatments = new ConcurrentHashMap<>();
+
+    // Regras que levam as requisicoes ARP unicast direto ao dono do endereco
+    private ArpOffload arpOffload;
+
+    @Property(name = "arpLearning", boolValue = DEFAULT_ARP_LEARNING,
+            label = "Aprende o IP e o MAC do emissor de todo ARP que chega ao controlador " +
+                    "(requisicoes, respostas e ARPs gratuitos); default true")
+    private boolean arpLearning = DEFAULT_ARP_LEARNING;
+
+    @Property(name = "garpOnMove", boolValue = DEFAULT_GARP_ON_MOVE,
+            label = "Envia um ARP gratuito para a porta de borda antiga quando um host muda de lugar " +
+                    "ou um IP passa para outro MAC; default true")
+    private boolean garpOnMove = DEFAULT_GARP_ON_MOVE;
+
+    @Property(name = "arpOffload", boolValue = DEFAULT_ARP_OFFLOAD,
+            label = "Instala nos switches regras que entregam as requisicoes ARP unicast para enderecos " +
+                    "muito consultados direto na porta do dono; default false")
+    private boolean offloadEnabled = DEFAULT_ARP_OFFLOAD;
+
+    @Property(name = "offloadThreshold", intValue = DEFAULT_OFFLOAD_THRESHOLD,
+            label = "Requisicoes por segundo em um switch para que um endereco seja descarregado nele; default 20")
+    private int offloadThreshold = DEFAULT_OFFLOAD_THRESHOLD;
+
+    @Property(name = "offloadQuota", intValue = DEFAULT_OFFLOAD_QUOTA,
+            label = "Numero maximo de regras de descarga por switch; default 128")
+    private int offloadQuota = DEFAULT_OFFLOAD_QUOTA;
+
+    @Property(name = "offloadPriority", intValue = DEFAULT_OFFLOAD_PRIORITY,
+            label = "Prioridade das regras de descarga; default 100")
+    private int offloadPriority = DEFAULT_OFFLOAD_PRIORITY;
+
+    @Property(name = "offloadTimeout", intValue = DEFAULT_OFFLOAD_TIMEOUT,
+            label = "Tempo (em segundos) de inatividade para uma regra de descarga expirar; default 60")
+    private int offloadTimeout = DEFAULT_OFFLOAD_TIMEOUT;
+
+    @Property(name = "replyQueue", boolValue = DEFAULT_REPLY_QUEUE,
+            label = "Emite as respostas ARP por uma fila, fora da thread dos packet-ins (ate 2 ms a mais " +
+                    "por resposta); default false")
+    private boolean replyQueue = DEFAULT_REPLY_QUEUE;
+
+    @Property(name = "ndpProxy", boolValue = DEFAULT_NDP_PROXY,
+            label = "Responde as Neighbor Solicitations (IPv6) com uma Neighbor Advertisement unicast " +
+                    "quando o endereco procurado e conhecido; default true")
+    private boolean ndpEnabled = DEFAULT_NDP_PROXY;
+
     /*
      * TODO Lab 2: Uma vez que iremos utilizar o servico de HOSTS, podemos comentar a nossa tabela de ip_macs
      *
@@ -93,8 +240,22 @@ public class ArpResponder {
     //HashMap<Ip4Address, MacAddress> ip_mac = new HashMap();
 
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
         appId = coreService.registerApplication("arp.responder.app");
+        broadcastPoints = new BroadcastPoints(topologyService);
+        broadcastPoints.start();
+        flowRuleBatcher = new FlowRuleBatcher(flowRuleService, "arp-offload",
+                                              RULE_BATCH_SIZE, RULE_BATCH_DELAY, RULE_BATCH_THREADS);
+        flowRuleBatcher.start();
+        arpOffload = new ArpOffload(flowRuleBatcher, appId);
+        packetOutQueue = new PacketOutQueue(packetService, "arp-replies",
+                                            REPLY_QUEUE_SIZE, REPLY_QUEUE_DELAY, REPLY_QUEUE_THREADS);
+        packetOutQueue.start();
+        readComponentConfiguration(context);
+        hostService.addListener(hostListener);
+        flowRuleService.addListener(flowRuleListener);
+        hostService.getHosts().forEach(this::learnHost);
         packetService.addProcessor(processor, PacketProcessor.ADVISOR_MAX + 1);
         requestIntercepts();
         log.info("Aplicacao ARP-RESPONDER iniciada com o ID {}", appId.id());
@@ -104,7 +265,21 @@ public class ArpResponder {
     protected void deactivate() {
         withdrawIntercepts();
         packetService.removeProcessor(processor);
+        broadcastPoints.stop();
         processor = null;
+        packetOutQueue.stop();
+        outputTreatments.clear();
+        hostService.removeListener(hostListener);
+        flowRuleService.removeListener(flowRuleListener);
+        flowRuleBatcher.stop();
+        flowRuleService.removeFlowRulesById(appId);
+        arpOffload.clear();
+        ipToMac.clear();
+        pendingResolutions.clear();
+        ndpProxy.clear();
+        recentNdpFloods.clear();
+        hostLocations.clear();
+        cfgService.unregisterProperties(getClass(), false);
        /*
         * TODO Lab 2: Uma vez que iremos utilizar o servico de HOSTS, podemos comentar a nossa tabela de ip_macs
         *
@@ -114,6 +289,62 @@ public class ArpResponder {
         log.info("Aplicacao de ARP-RESPONDER desativada");
     }
 
+    /**
+     * Rotina executada quando a configuracao do componente e alterada (cfg set arp.responder.app.ArpResponder ...)
+     */
+    @Modified
+    protected void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    /**
+     * Le as propriedades configuraveis do componente (modos de aprendizado, de descarga e de emissao)
+     */
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        arpLearning = getBooleanProperty(properties, "arpLearning", DEFAULT_ARP_LEARNING);
+        garpOnMove = getBooleanProperty(properties, "garpOnMove", DEFAULT_GARP_ON_MOVE);
+
+        boolean wasOffloading = offloadEnabled;
+        offloadEnabled = getBooleanProperty(properties, "arpOffload", DEFAULT_ARP_OFFLOAD);
+        offloadThreshold = Math.max(getIntegerProperty(properties, "offloadThreshold", DEFAULT_OFFLOAD_THRESHOLD), 1);
+        offloadQuota = Math.max(getIntegerProperty(properties, "offloadQuota", DEFAULT_OFFLOAD_QUOTA), 0);
+        offloadPriority = getIntegerProperty(properties, "offloadPriority", DEFAULT_OFFLOAD_PRIORITY);
+        offloadTimeout = Math.max(getIntegerProperty(properties, "offloadTimeout", DEFAULT_OFFLOAD_TIMEOUT), 1);
+        arpOffload.configure(offloadThreshold, offloadQuota, offloadPriority, offloadTimeout);
+        if (wasOffloading && !offloadEnabled) {
+            // Modo desligado: todas as requisicoes voltam a passar pelo controlador. So as regras
+            // de descarga saem; as demais regras da aplicacao continuam
+            arpOffload.withdrawAll();
+        }
+
+        replyQueue = getBooleanProperty(properties, "replyQueue", DEFAULT_REPLY_QUEUE);
+        ndpEnabled = getBooleanProperty(properties, "ndpProxy", DEFAULT_NDP_PROXY);
+
+        log.info("Configurado: arpLearning={}, garpOnMove={}, arpOffload={}, offloadThreshold={}, " +
+                         "offloadQuota={}, offloadPriority={}, offloadTimeout={}, replyQueue={}, ndpProxy={}",
+                 arpLearning, garpOnMove, offloadEnabled, offloadThreshold, offloadQuota, offloadPriority,
+                 offloadTimeout, replyQueue, ndpEnabled);
+    }
+
+    /**
+     * Le uma propriedade inteira, usando o valor padrao se ela nao existir ou for invalida
+     */
+    private int getIntegerProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+        String value = Tools.get(properties, name);
+        try {
+            return Strings.isNullOrEmpty(value) ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Valor invalido para {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+
+    private boolean getBooleanProperty(Dictionary<?, ?> properties, String name, boolean defaultValue) {
+        String value = Tools.get(properties, name);
+        return Strings.isNullOrEmpty(value) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
     /**
      * Request packet in via PacketService.
      */
@@ -123,6 +354,13 @@ public class ArpResponder {
         packetService.requestPackets(selector.build(), PacketPriority.REACTIVE, appId);
         selector.matchEthType(Ethernet.TYPE_ARP);
         packetService.requestPackets(selector.build(), PacketPriority.REACTIVE, appId);
+
+        // Neighbor Solicitations, para o proxy NDP
+        TrafficSelector.Builder ndp = DefaultTrafficSelector.builder();
+        ndp.matchEthType(Ethernet.TYPE_IPV6)
+                .matchIPProtocol(IPv6.PROTOCOL_ICMP6)
+                .matchIcmpv6Type(ICMP6.NEIGHBOR_SOLICITATION);
+        packetService.requestPackets(ndp.build(), PacketPriority.REACTIVE, appId);
     }
 
     private void withdrawIntercepts() {
@@ -142,18 +380,80 @@ public class ArpResponder {
                 return;
             }
 
+            // Check the ethertype straight from the received bytes; only ARP is decoded.
             InboundPacket pkt = context.inPacket();
-            Ethernet ethPkt = pkt.parsed();
+            ByteBuffer frame = pkt.unparsed();
+
+            if (frame == null) {
+                return;
+            }
+            // Neighbor Solicitation: unico IPv6 tratado pela aplicacao
+            if (NdpProxy.isNeighborSolicitation(frame)) {
+                if (ndpEnabled) {
+                    handleNdp(context, pkt.parsed());
+                }
+                return;
+            }
 
             // Bail if this is deemed to be a control packet.
-            if (isControlPacket(ethPkt)) {
+            if (isControlPacket(frame)) {
                 return;
             }
-            if (ethPkt.getEtherType() == Ethernet.TYPE_IPV6) {
+            if (EthernetHeader.etherType(frame) != Ethernet.TYPE_ARP) {
                 return;
             }
-            handlePacket(context, ethPkt);
+            // Caso comum (requisicao para um endereco conhecido) respondido direto dos bytes recebidos
+            if (replyFromFrame(context, frame)) {
+                return;
+            }
+            handlePacket(context, pkt.parsed());
+        }
+    }
+
+    /**
+     * Responde uma requisicao ARP para um endereco conhecido sem decodificar o pacote.
+     * Retorna false, sem ter feito nada, para os demais ARPs (respostas, ARPs gratuitos,
+     * enderecos desconhecidos), que seguem pelo caminho completo.
+     */
+    private boolean replyFromFrame(PacketContext context, ByteBuffer frame) {
+        int offset = ArpReplyWriter.requestOffset(frame);
+        if (offset < 0) {
+            return false;
         }
+        int sender = ArpReplyWriter.senderIp(frame, offset);
+        int target = ArpReplyWriter.targetIp(frame, offset);
+        long dstMac = ipToMac.get(target);
+        if (sender == target || dstMac == Ip4Table.NO_VALUE) {
+            return false;
+        }
+        if (arpLearning) {
+            learn(sender, ArpReplyWriter.senderMac(frame, offset));
+        }
+
+        ConnectPoint inPort = context.inPacket().receivedFrom();
+        emit(inPort.deviceId(), inPort.port(), ArpReplyWriter.reply(frame, offset, dstMac));
+
+        // Requisicao unicast (renovacao de cache): candidata a descarga no switch
+        if (offloadEnabled && EthernetHeader.dstMac(frame) == dstMac) {
+            offloadHit(inPort, target, MacAddress.valueOf(dstMac));
+        }
+        context.block();
+        return true;
+    }
+
+    // Responde a Neighbor Solicitation a partir da tabela IPv6 -> MAC ou, se o alvo e desconhecido,
+    // inunda a solicitacao (com o mesmo limite de floods do ARP)
+    private void handleNdp(PacketContext context, Ethernet ethPkt) {
+        if (arpLearning) {
+            ndpProxy.learnSender(ethPkt);
+        }
+        Ethernet advertisement = ndpProxy.reply(ethPkt);
+        if (advertisement != null) {
+            sendTo(advertisement, context.inPacket().receivedFrom());
+        } else {
+            floodUnknown(context, NdpProxy.target(ethPkt));
+        }
+        context.block();
     }
 
     public boolean handlePacket(PacketContext context, Ethernet ethPkt) {
@@ -179,7 +479,28 @@ public class ArpResponder {
         //MacAddress srcMac = MacAddress.valueOf(arp.getSenderHardwareAddress());
         //ip_mac.put(srcAddress, srcMac);
 
+        // Todo ARP informa o IP e o MAC do emissor: depois que um host fala uma vez,
+        // ninguem mais precisa inundar a rede para descobri-lo
+        if (arpLearning) {
+            learn(IPv4.toIPv4Address(arp.getSenderProtocolAddress()),
+                  MacAddress.valueOf(arp.getSenderHardwareAddress()).toLong());
+        }
+
         if (arp.getOpCode() == ARP.OP_REPLY) {
+            // A resposta (por exemplo, a do dono de uma requisicao descarregada) e entregue
+            // direto na porta do host que perguntou; se ele e desconhecido, inunda
+            ConnectPoint requester = hostLocations.get(ethPkt.getDestinationMAC());
+            if (requester != null) {
+                sendTo(ethPkt, requester);
+            } else {
+                flood(context);
+            }
+            context.block();
+            return true;
+        }   else if (isGratuitous(arp)) {
+            // ARP gratuito: os vizinhos precisam recebe-lo para atualizar seus caches
+            flood(context);
+            context.block();
             return true;
         }   else if (arp.getOpCode() == ARP.OP_REQUEST) {
             reply(ethPkt, context.inPacket().receivedFrom(), context);
@@ -191,7 +512,7 @@ public class ArpResponder {
 
     public void reply(Ethernet eth, ConnectPoint inPort, PacketContext context) {
         ARP arp = (ARP) eth.getPayload();
-        Ip4Address targetAddress = Ip4Address.valueOf(arp.getTargetProtocolAddress());
+        int target = IPv4.toIPv4Address(arp.getTargetProtocolAddress());
 
         /*
         * TODO Lab 2: "Descomente a linha do dstHost uma vez que utilizaremos as primitivas do ONOS
@@ -200,7 +521,8 @@ public class ArpResponder {
         * Descomente a linha abaixo
         * Comente a segunda linha (dstMac)
         */
-        Set<Host> dstHost = hostService.getHostsByIp(targetAddress);
+        // A consulta vai direto a tabela IPv4 -> MAC, espelho da base de HOSTS do ONOS
+        long dstMac = ipToMac.get(target);
         //MacAddress dstMac = ip_mac.get(targetAddress);
 
         /*
@@ -210,9 +532,9 @@ public class ArpResponder {
         * Descomente a linha abaixo
         * Comente a segunda linha (dstMac)
         */
-        if (dstHost.isEmpty()) {
+        if (dstMac == Ip4Table.NO_VALUE) {
         //if (dstMac == null) {
-            flood(context);
+            floodOrWait(context, target);
             return;
         }
        /*
@@ -220,17 +542,26 @@ public class ArpResponder {
         *
         * Descomente a linha abaixo
         */
-        MacAddress dstMac = dstHost.iterator().next().mac();
-
-        Ethernet arpReply = ARP.buildArpReply(targetAddress, dstMac, eth);
+        MacAddress owner = MacAddress.valueOf(dstMac);
+        Ethernet arpReply = ARP.buildArpReply(Ip4Address.valueOf(target), owner, eth);
         sendTo(arpReply, inPort);
+
+        // Requisicao unicast (renovacao de cache) para um endereco conhecido: candidata a descarga no switch
+        if (offloadEnabled && eth.getDestinationMAC().equals(owner)) {
+            offloadHit(inPort, target, owner);
+        }
         return;
     }
 
+    private void offloadHit(ConnectPoint inPort, int target, MacAddress owner) {
+        ConnectPoint ownerLocation = hostLocations.get(owner);
+        if (ownerLocation != null) {
+            arpOffload.hit(inPort.deviceId(), target, owner, ownerLocation);
+        }
+    }
+
     private void sendTo(Ethernet packet, ConnectPoint outPort) {
 
-        TrafficTreatment.Builder builder = DefaultTrafficTreatment.builder();
-        builder.setOutput(outPort.port());
        /*
         * TODO Lab 1: Corrija o erro da aplicação que não está respondendo os ARPS
         *
@@ -239,20 +570,90 @@ public class ArpResponder {
         * Apenas descomente as linhas abaixo (apaguei as linhas 236 e 239)
         */
 
-        packetService.emit(new DefaultOutboundPacket(outPort.deviceId(),
-                                                  builder.build(), ByteBuffer.wrap(packet.serialize())));
+        emit(outPort.deviceId(), outPort.port(), ByteBuffer.wrap(packet.serialize()));
+
+    }
+
+    // Emite o quadro pela porta indicada, diretamente ou pela fila de respostas se replyQueue
+    private void emit(DeviceId deviceId, PortNumber port, ByteBuffer data) {
+        TrafficTreatment treatment = outputTreatments.get(port);
+        if (treatment == null) {
+            treatment = outputTreatments.computeIfAbsent(
+                    port, p -> DefaultTrafficTreatment.builder().setOutput(p).build());
+        }
+        OutboundPacket packet = new DefaultOutboundPacket(deviceId, treatment, data);
+        if (replyQueue) {
+            packetOutQueue.emit(packet);
+        } else {
+            packetService.emit(packet);
+        }
+    }
+
+    private boolean isControlPacket(ByteBuffer frame) {
+        return EthernetHeader.isControlPacket(frame);
+    }
+
+    // ARP gratuito: o emissor anuncia o proprio endereco (IP de origem igual ao IP procurado)
+    private boolean isGratuitous(ARP arp) {
+        return Arrays.equals(arp.getSenderProtocolAddress(), arp.getTargetProtocolAddress());
+    }
+
+    // Anuncia ip -> mac com um ARP gratuito enviado apenas para a porta informada
+    private void sendGarp(int ip, MacAddress mac, ConnectPoint port) {
+        byte[] address = IPv4.toIPv4AddressBytes(ip);
+        ARP garp = new ARP();
+        garp.setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH)
+                .setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(mac.toBytes())
+                .setSenderProtocolAddress(address)
+                .setTargetHardwareAddress(MacAddress.ZERO.toBytes())
+                .setTargetProtocolAddress(address);
+        Ethernet eth = new Ethernet();
+        eth.setEtherType(Ethernet.TYPE_ARP)
+                .setSourceMACAddress(mac)
+                .setDestinationMACAddress(MacAddress.BROADCAST)
+                .setPayload(garp);
+        sendTo(eth, port);
+    }
 
+    // A primeira requisicao para um IP desconhecido e inundada; as seguintes esperam na fila
+    // do IP e sao respondidas quando o dono se revelar (ver learn)
+    private void floodOrWait(PacketContext context, int target) {
+        ByteBuffer frame = context.inPacket().unparsed();
+        int offset = frame == null ? -1 : ArpReplyWriter.requestOffset(frame);
+        if (offset < 0 || pendingResolutions.register(target, context.inPacket().receivedFrom(), frame, offset)) {
+            flood(context);
+        } else {
+            context.block();
+        }
     }
 
-    private boolean isControlPacket(Ethernet eth) {
-        short type = eth.getEtherType();
-        return type == Ethernet.TYPE_LLDP || type == Ethernet.TYPE_BSN || type == -30398 || type == -31011;
+    // Inunda a solicitacao para um IPv6 desconhecido, no maximo uma vez a cada FLOOD_HOLD_MS por
+    // IP; as repeticoes dentro do intervalo sao descartadas
+    private void floodUnknown(PacketContext context, Ip6Address target) {
+        if (target == null) {
+            flood(context);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long last = recentNdpFloods.get(target);
+        if (last != null && now - last < FLOOD_HOLD_MS) {
+            context.block();
+            return;
+        }
+        recentNdpFloods.put(target, now);
+        if (recentNdpFloods.size() > FLOOD_TABLE_MAX) {
+            recentNdpFloods.values().removeIf(flooded -> now - flooded >= FLOOD_HOLD_MS);
+        }
+        flood(context);
     }
 
     // Floods the specified packet if permissible.
     private void flood(PacketContext context) {
-        if (topologyService.isBroadcastPoint(topologyService.currentTopology(),
-                                             context.inPacket().receivedFrom())) {
+        if (broadcastPoints.isBroadcastPoint(context.inPacket().receivedFrom())) {
             packetOut(context, PortNumber.FLOOD);
         } else {
             context.block();
@@ -264,4 +665,98 @@ public class ArpResponder {
         context.treatmentBuilder().setOutput(portNumber);
         context.send();
     }
-}
\ No newline at end of file
+
+    private void learnHost(Host host) {
+        ConnectPoint location = host.location();
+        ConnectPoint previous = hostLocations.put(host.mac(), location);
+        if (previous != null && !previous.equals(location)) {
+            // O host mudou de porta: as regras de descarga ainda apontam para a porta antiga
+            arpOffload.withdraw(host.mac());
+            // e a porta antiga e avisada em vez de esperar os caches expirarem
+            if (garpOnMove) {
+                for (IpAddress ip : host.ipAddresses()) {
+                    if (ip.isIp4()) {
+                        sendGarp(ip.getIp4Address().toInt(), host.mac(), previous);
+                    }
+                }
+            }
+        }
+        for (IpAddress ip : host.ipAddresses()) {
+            if (ip.isIp4()) {
+                learn(ip.getIp4Address().toInt(), host.mac().toLong());
+            } else if (ndpProxy.learn(ip.getIp6Address(), host.mac()) == null) {
+                recentNdpFloods.remove(ip.getIp6Address());
+            }
+        }
+    }
+
+    private void forgetHost(Host host) {
+        hostLocations.remove(host.mac(), host.location());
+        arpOffload.withdraw(host.mac());
+        long mac = host.mac().toLong();
+        for (IpAddress ip : host.ipAddresses()) {
+            if (ip.isIp4()) {
+                ipToMac.remove(ip.getIp4Address().toInt(), mac);
+            } else {
+                ndpProxy.forget(ip.getIp6Address(), host.mac());
+            }
+        }
+    }
+
+    private void learn(int ip, long mac) {
+        if (ip == 0 || (mac & MULTICAST_BIT) != 0 || mac == 0) {
+            return;
+        }
+        // Caso comum: o endereco ja e conhecido; a consulta evita o bloqueio de escrita
+        if (ipToMac.get(ip) == mac) {
+            return;
+        }
+        long previous = ipToMac.put(ip, mac);
+        // Responde quem ficou esperando pelo endereco
+        for (PendingResolutions.Waiter waiter : pendingResolutions.resolve(ip)) {
+            emit(waiter.inPort.deviceId(), waiter.inPort.port(),
+                 ArpReplyWriter.reply(waiter.request, waiter.offset, mac));
+        }
+        if (garpOnMove && previous != Ip4Table.NO_VALUE && previous != mac) {
+            // O IP passou para outro MAC (por exemplo, migracao de VM): avisa a porta do MAC antigo
+            ConnectPoint oldLocation = hostLocations.get(MacAddress.valueOf(previous));
+            if (oldLocation != null) {
+                sendGarp(ip, MacAddress.valueOf(mac), oldLocation);
+            }
+        }
+    }
+
+    /**
+     * Mantem a tabela IPv4 -> MAC em dia com a base de HOSTS do ONOS.
+     */
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            switch (event.type()) {
+                case HOST_ADDED:
+                case HOST_UPDATED:
+                case HOST_MOVED:
+                    learnHost(event.subject());
+                    break;
+                case HOST_REMOVED:
+                    forgetHost(event.subject());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Libera a quota das regras de descarga que expiraram ou foram removidas nos switches.
+     */
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (event.type() == FlowRuleEvent.Type.RULE_REMOVED && rule.appId() == appId.id()) {
+                arpOffload.ruleRemoved(rule);
+            }
+        }
+    }
+}
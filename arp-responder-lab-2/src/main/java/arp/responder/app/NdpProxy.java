@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import app.commons.EthernetHeader;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP6;
+import org.onlab.packet.IPv6;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.ndp.NeighborAdvertisement;
+import org.onlab.packet.ndp.NeighborDiscoveryOptions;
+import org.onlab.packet.ndp.NeighborSolicitation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Proxy de Neighbor Discovery (IPv6): responde as Neighbor Solicitations com uma
+ * Neighbor Advertisement unicast, a partir de uma tabela IPv6 -> MAC alimentada
+ * como a tabela IPv4 -> MAC do ARP (eventos de HOST e mensagens NDP recebidas).
+ *
+ * As solicitacoes para o endereco multicast solicited-node deixam de ser
+ * inundadas quando o alvo e conhecido. Solicitacoes de deteccao de endereco
+ * duplicado (origem ::) nao sao respondidas: o dono do endereco precisa recebe-las.
+ */
+final class NdpProxy {
+
+    private static final int IPV6_NEXT_HEADER = 6;
+    private static final byte HOP_LIMIT = (byte) 255;
+    private static final byte[] UNSPECIFIED = new byte[Ip6Address.BYTE_LENGTH];
+
+    private final ConcurrentMap<Ip6Address, MacAddress> ipToMac = new ConcurrentHashMap<>();
+
+    /**
+     * Indica, olhando apenas os bytes recebidos, se o quadro e uma Neighbor Solicitation
+     * (IPv6 sem cabecalhos de extensao seguido de ICMPv6 tipo 135).
+     */
+    static boolean isNeighborSolicitation(ByteBuffer frame) {
+        if (EthernetHeader.etherType(frame) != Ethernet.TYPE_IPV6) {
+            return false;
+        }
+        int base = frame.position() + EthernetHeader.payloadOffset(frame);
+        int icmp = base + IPv6.FIXED_HEADER_LENGTH;
+        return icmp < frame.limit()
+                && frame.get(base + IPV6_NEXT_HEADER) == IPv6.PROTOCOL_ICMP6
+                && frame.get(icmp) == ICMP6.NEIGHBOR_SOLICITATION;
+    }
+
+    /**
+     * Associa o endereco IPv6 ao MAC. Retorna o MAC anterior ou null.
+     */
+    MacAddress learn(Ip6Address ip, MacAddress mac) {
+        if (ip.toOctets()[0] == (byte) 0xff || mac.isMulticast()) {
+            return null;
+        }
+        return ipToMac.put(ip, mac);
+    }
+
+    /**
+     * Retira o endereco se ele ainda estiver associado ao MAC.
+     */
+    void forget(Ip6Address ip, MacAddress mac) {
+        ipToMac.remove(ip, mac);
+    }
+
+    /**
+     * MAC do dono do endereco ou null.
+     */
+    MacAddress lookup(Ip6Address ip) {
+        return ipToMac.get(ip);
+    }
+
+    /**
+     * Numero de enderecos conhecidos.
+     */
+    int size() {
+        return ipToMac.size();
+    }
+
+    void clear() {
+        ipToMac.clear();
+    }
+
+    /**
+     * Aprende o emissor da solicitacao a partir da opcao Source Link-Layer Address.
+     */
+    void learnSender(Ethernet request) {
+        NeighborSolicitation ns = solicitation(request);
+        if (ns == null) {
+            return;
+        }
+        IPv6 ipv6 = (IPv6) request.getPayload();
+        if (Arrays.equals(ipv6.getSourceAddress(), UNSPECIFIED)) {
+            return;
+        }
+        for (NeighborDiscoveryOptions.Option option : ns.getOptions()) {
+            if (option.type() == NeighborDiscoveryOptions.TYPE_SOURCE_LL_ADDRESS
+                    && option.dataLength() == Ethernet.DATALAYER_ADDRESS_LENGTH) {
+                learn(Ip6Address.valueOf(ipv6.getSourceAddress()), MacAddress.valueOf(option.data()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Endereco procurado pela solicitacao, ou null se o pacote nao e uma Neighbor Solicitation.
+     */
+    static Ip6Address target(Ethernet request) {
+        NeighborSolicitation ns = solicitation(request);
+        return ns == null ? null : Ip6Address.valueOf(ns.getTargetAddress());
+    }
+
+    /**
+     * Neighbor Advertisement unicast para quem perguntou, ou null se o pacote nao e uma
+     * Neighbor Solicitation respondivel (alvo desconhecido ou deteccao de endereco duplicado).
+     */
+    Ethernet reply(Ethernet request) {
+        NeighborSolicitation ns = solicitation(request);
+        if (ns == null) {
+            return null;
+        }
+        IPv6 ipv6 = (IPv6) request.getPayload();
+        if (Arrays.equals(ipv6.getSourceAddress(), UNSPECIFIED)) {
+            return null;
+        }
+        MacAddress owner = ipToMac.get(Ip6Address.valueOf(ns.getTargetAddress()));
+        if (owner == null) {
+            return null;
+        }
+
+        NeighborAdvertisement na = new NeighborAdvertisement();
+        na.setSolicitedFlag((byte) 1)
+                .setOverrideFlag((byte) 1)
+                .setTargetAddress(ns.getTargetAddress())
+                .addOption(NeighborDiscoveryOptions.TYPE_TARGET_LL_ADDRESS, owner.toBytes());
+
+        ICMP6 icmp6 = new ICMP6();
+        icmp6.setIcmpType(ICMP6.NEIGHBOR_ADVERTISEMENT).setIcmpCode((byte) 0).setPayload(na);
+
+        IPv6 reply = new IPv6();
+        reply.setSourceAddress(ns.getTargetAddress())
+                .setDestinationAddress(ipv6.getSourceAddress())
+                .setNextHeader(IPv6.PROTOCOL_ICMP6)
+                .setHopLimit(HOP_LIMIT)
+                .setPayload(icmp6);
+
+        Ethernet eth = new Ethernet();
+        eth.setEtherType(Ethernet.TYPE_IPV6)
+                .setSourceMACAddress(owner)
+                .setDestinationMACAddress(request.getSourceMAC())
+                .setVlanID(request.getVlanID())
+                .setPayload(reply);
+        return eth;
+    }
+
+    private static NeighborSolicitation solicitation(Ethernet eth) {
+        if (eth.getEtherType() != Ethernet.TYPE_IPV6 || !(eth.getPayload() instanceof IPv6)) {
+            return null;
+        }
+        IPv6 ipv6 = (IPv6) eth.getPayload();
+        if (ipv6.getNextHeader() != IPv6.PROTOCOL_ICMP6 || !(ipv6.getPayload() instanceof ICMP6)) {
+            return null;
+        }
+        ICMP6 icmp6 = (ICMP6) ipv6.getPayload();
+        if (icmp6.getIcmpType() != ICMP6.NEIGHBOR_SOLICITATION
+                || !(icmp6.getPayload() instanceof NeighborSolicitation)) {
+            return null;
+        }
+        return (NeighborSolicitation) icmp6.getPayload();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.onosproject.net.ConnectPoint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tabela das requisicoes ARP para IPs desconhecidos que aguardam resposta.
+ *
+ * A primeira requisicao para um IP e inundada; as seguintes, de outros hosts,
+ * entram na fila do IP em vez de inundar de novo. Quando o IP e aprendido, todos
+ * os que esperavam recebem a resposta unicast. A entrada expira timeoutMillis
+ * depois da primeira requisicao, descartando a fila; a proxima requisicao para
+ * o IP volta a ser inundada.
+ */
+final class PendingResolutions {
+
+    private final Cache<Integer, Pending> entries;
+    private final int maxWaiters;
+
+    /**
+     * Cria uma tabela com ate maxTargets IPs, cada um com ate maxWaiters requisicoes na fila.
+     */
+    PendingResolutions(long timeoutMillis, long maxTargets, int maxWaiters) {
+        this.entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeoutMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxTargets)
+                .build();
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * Registra a requisicao recebida em inPort (quadro completo, com o ARP em offset).
+     * Retorna true se ela e a primeira para o IP e deve ser inundada; false se entrou
+     * na fila (ou foi descartada por a fila estar cheia ou por repetir um host ja na fila).
+     */
+    boolean register(int target, ConnectPoint inPort, ByteBuffer request, int offset) {
+        long sender = ArpReplyWriter.senderMac(request, offset);
+        Pending pending = entries.asMap().putIfAbsent(target, new Pending(sender));
+        if (pending == null) {
+            return true;
+        }
+        synchronized (pending) {
+            // Quem provocou o flood recebe a resposta do proprio dono; suas retransmissoes sao ignoradas
+            if (pending.firstSender == sender || pending.waiters.size() >= maxWaiters) {
+                return false;
+            }
+            for (Waiter waiter : pending.waiters) {
+                if (waiter.senderMac == sender) {
+                    return false;
+                }
+            }
+            pending.waiters.add(new Waiter(inPort, copy(request), offset, sender));
+        }
+        return false;
+    }
+
+    /**
+     * Retira o IP da tabela e retorna as requisicoes que esperavam por ele.
+     */
+    List<Waiter> resolve(int target) {
+        Pending pending = entries.asMap().remove(target);
+        if (pending == null) {
+            return Collections.emptyList();
+        }
+        synchronized (pending) {
+            return new ArrayList<>(pending.waiters);
+        }
+    }
+
+    /**
+     * Numero aproximado de IPs aguardando resposta.
+     */
+    long size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.invalidateAll();
+    }
+
+    // O buffer do packet-in pode ser reaproveitado depois do processamento
+    private static ByteBuffer copy(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static final class Pending {
+        private final long firstSender;
+        private final List<Waiter> waiters = new ArrayList<>();
+
+        private Pending(long firstSender) {
+            this.firstSender = firstSender;
+        }
+    }
+
+    /**
+     * Requisicao na fila: porta onde chegou e o quadro original, para montar a resposta.
+     */
+    static final class Waiter {
+        final ConnectPoint inPort;
+        final ByteBuffer request;
+        final int offset;
+        private final long senderMac;
+
+        private Waiter(ConnectPoint inPort, ByteBuffer request, int offset, long senderMac) {
+            this.inPort = inPort;
+            this.request = request;
+            this.offset = offset;
+            this.senderMac = senderMac;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import org.junit.Test;
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the byte-level ARP reply writer against ARP.buildArpReply().
+ */
+public class ArpReplyWriterTest {
+
+    private static final MacAddress REQUESTER_MAC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final Ip4Address REQUESTER_IP = Ip4Address.valueOf("10.0.0.1");
+    private static final MacAddress OWNER_MAC = MacAddress.valueOf("00:16:3e:00:00:09");
+    private static final Ip4Address OWNER_IP = Ip4Address.valueOf("10.0.0.9");
+
+    @Test
+    public void untaggedReplyMatchesBuildArpReply() {
+        assertSameReply(request(ARP.OP_REQUEST, Ethernet.VLAN_UNTAGGED));
+    }
+
+    @Test
+    public void taggedReplyMatchesBuildArpReply() {
+        assertSameReply(request(ARP.OP_REQUEST, (short) 100));
+    }
+
+    @Test
+    public void onlyCompleteRequestsAreAccepted() {
+        byte[] frame = request(ARP.OP_REQUEST, Ethernet.VLAN_UNTAGGED).serialize();
+        assertEquals(Ethernet.DATALAYER_ADDRESS_LENGTH * 2 + 2,
+                     ArpReplyWriter.requestOffset(ByteBuffer.wrap(frame)));
+        assertEquals(-1, ArpReplyWriter.requestOffset(ByteBuffer.wrap(Arrays.copyOf(frame, frame.length - 1))));
+        assertEquals(-1, ArpReplyWriter.requestOffset(ByteBuffer.wrap(Arrays.copyOf(frame, 10))));
+
+        byte[] reply = request(ARP.OP_REPLY, Ethernet.VLAN_UNTAGGED).serialize();
+        assertEquals(-1, ArpReplyWriter.requestOffset(ByteBuffer.wrap(reply)));
+    }
+
+    private static void assertSameReply(Ethernet request) {
+        ByteBuffer frame = ByteBuffer.wrap(request.serialize());
+        int offset = ArpReplyWriter.requestOffset(frame);
+        ByteBuffer reply = ArpReplyWriter.reply(frame, offset, OWNER_MAC.toLong());
+        assertArrayEquals(ARP.buildArpReply(OWNER_IP, OWNER_MAC, request).serialize(), reply.array());
+    }
+
+    // Request (or reply) from REQUESTER for OWNER_IP, optionally tagged with vlan
+    private static Ethernet request(short opCode, short vlan) {
+        ARP arp = new ARP();
+        arp.setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH)
+                .setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH)
+                .setOpCode(opCode)
+                .setSenderHardwareAddress(REQUESTER_MAC.toBytes())
+                .setSenderProtocolAddress(REQUESTER_IP.toOctets())
+                .setTargetHardwareAddress(MacAddress.ZERO.toBytes())
+                .setTargetProtocolAddress(OWNER_IP.toOctets());
+        Ethernet eth = new Ethernet();
+        eth.setEtherType(Ethernet.TYPE_ARP)
+                .setVlanID(vlan)
+                .setSourceMACAddress(REQUESTER_MAC)
+                .setDestinationMACAddress(MacAddress.BROADCAST)
+                .setPayload(arp);
+        return eth;
+    }
+}
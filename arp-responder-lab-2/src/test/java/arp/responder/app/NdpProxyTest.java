@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import app.commons.NdpFrames;
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP6;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.IPv6;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.ndp.NeighborAdvertisement;
+import org.onlab.packet.ndp.NeighborDiscoveryOptions;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the NDP proxy against synthetic neighbor solicitations.
+ */
+public class NdpProxyTest {
+
+    private static final MacAddress REQUESTER_MAC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final Ip6Address REQUESTER_IP = Ip6Address.valueOf("2001:db8::1");
+    private static final MacAddress OWNER_MAC = MacAddress.valueOf("00:00:00:00:00:02");
+    private static final Ip6Address OWNER_IP = Ip6Address.valueOf("2001:db8::2");
+    private static final Ip6Address UNSPECIFIED = Ip6Address.valueOf("::");
+
+    @Test
+    public void knownTargetGetsUnicastAdvertisement() {
+        NdpProxy proxy = new NdpProxy();
+        proxy.learn(OWNER_IP, OWNER_MAC);
+
+        Ethernet reply = roundTrip(proxy.reply(solicitation(REQUESTER_IP, OWNER_IP)));
+        assertEquals(REQUESTER_MAC, reply.getDestinationMAC());
+        assertEquals(OWNER_MAC, reply.getSourceMAC());
+
+        IPv6 ipv6 = (IPv6) reply.getPayload();
+        assertArrayEquals(OWNER_IP.toOctets(), ipv6.getSourceAddress());
+        assertArrayEquals(REQUESTER_IP.toOctets(), ipv6.getDestinationAddress());
+        assertEquals((byte) 255, ipv6.getHopLimit());
+
+        ICMP6 icmp6 = (ICMP6) ipv6.getPayload();
+        assertEquals(ICMP6.NEIGHBOR_ADVERTISEMENT, icmp6.getIcmpType());
+        NeighborAdvertisement na = (NeighborAdvertisement) icmp6.getPayload();
+        assertArrayEquals(OWNER_IP.toOctets(), na.getTargetAddress());
+        assertEquals(1, na.getSolicitedFlag());
+        assertEquals(NeighborDiscoveryOptions.TYPE_TARGET_LL_ADDRESS, na.getOptions().get(0).type());
+        assertArrayEquals(OWNER_MAC.toBytes(), na.getOptions().get(0).data());
+    }
+
+    @Test
+    public void unknownTargetAndDuplicateDetectionAreNotAnswered() {
+        NdpProxy proxy = new NdpProxy();
+        assertNull(proxy.reply(solicitation(REQUESTER_IP, OWNER_IP)));
+
+        proxy.learn(OWNER_IP, OWNER_MAC);
+        assertNull(proxy.reply(solicitation(UNSPECIFIED, OWNER_IP)));
+        assertEquals(OWNER_IP, NdpProxy.target(solicitation(UNSPECIFIED, OWNER_IP)));
+    }
+
+    @Test
+    public void learnsSenderFromSourceLinkLayerOption() {
+        NdpProxy proxy = new NdpProxy();
+        proxy.learnSender(solicitation(REQUESTER_IP, OWNER_IP));
+        assertEquals(REQUESTER_MAC, proxy.lookup(REQUESTER_IP));
+
+        proxy.learnSender(solicitation(UNSPECIFIED, OWNER_IP));
+        assertEquals(1, proxy.size());
+    }
+
+    @Test
+    public void recognizesSolicitationsFromRawFrame() {
+        assertTrue(NdpProxy.isNeighborSolicitation(ByteBuffer.wrap(
+                solicitation(REQUESTER_IP, OWNER_IP).serialize())));
+
+        IPv4 ipv4 = new IPv4();
+        ipv4.setSourceAddress("10.0.0.1").setDestinationAddress("10.0.0.2").setProtocol(IPv4.PROTOCOL_UDP);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(REQUESTER_MAC).setDestinationMACAddress(OWNER_MAC)
+                .setEtherType(Ethernet.TYPE_IPV4).setPayload(ipv4);
+        assertFalse(NdpProxy.isNeighborSolicitation(ByteBuffer.wrap(eth.serialize())));
+    }
+
+    // Solicitation from the requester, decoded from its bytes as the provider does
+    private static Ethernet solicitation(Ip6Address source, Ip6Address target) {
+        return roundTrip(NdpFrames.neighborSolicitation(REQUESTER_MAC, source, target));
+    }
+
+    private static Ethernet roundTrip(Ethernet eth) {
+        byte[] bytes = eth.serialize();
+        return (Ethernet) new Ethernet().deserialize(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import org.junit.Test;
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the coalescing of ARP requests for unknown addresses.
+ */
+public class PendingResolutionsTest {
+
+    private static final int TARGET = IPv4.toIPv4Address("10.0.0.9");
+    private static final ConnectPoint PORT_1 = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+    private static final ConnectPoint PORT_2 = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private static final ConnectPoint PORT_3 = ConnectPoint.deviceConnectPoint("of:0000000000000003/1");
+
+    @Test
+    public void firstRequestFloodsAndOthersWait() {
+        PendingResolutions pending = new PendingResolutions(1000, 16, 8);
+        assertTrue(register(pending, PORT_1, 1));
+        assertFalse(register(pending, PORT_2, 2));
+        assertFalse(register(pending, PORT_3, 3));
+        assertEquals(1, pending.size());
+
+        List<PendingResolutions.Waiter> waiters = pending.resolve(TARGET);
+        assertEquals(2, waiters.size());
+        assertEquals(PORT_2, waiters.get(0).inPort);
+        assertEquals(PORT_3, waiters.get(1).inPort);
+        assertEquals(IPv4.toIPv4Address("10.0.0.2"),
+                     ArpReplyWriter.senderIp(waiters.get(0).request, waiters.get(0).offset));
+
+        // Resolvido: a proxima requisicao volta a inundar
+        assertTrue(pending.resolve(TARGET).isEmpty());
+        assertTrue(register(pending, PORT_1, 1));
+    }
+
+    @Test
+    public void retransmissionsAndOverflowAreDropped() {
+        PendingResolutions pending = new PendingResolutions(1000, 16, 1);
+        assertTrue(register(pending, PORT_1, 1));
+        assertFalse(register(pending, PORT_1, 1));
+        assertFalse(register(pending, PORT_2, 2));
+        assertFalse(register(pending, PORT_2, 2));
+        assertFalse(register(pending, PORT_3, 3));
+        assertEquals(1, pending.resolve(TARGET).size());
+    }
+
+    @Test
+    public void staleEntriesExpire() throws InterruptedException {
+        PendingResolutions pending = new PendingResolutions(20, 16, 8);
+        assertTrue(register(pending, PORT_1, 1));
+        assertFalse(register(pending, PORT_2, 2));
+        Thread.sleep(50);
+        assertTrue(pending.resolve(TARGET).isEmpty());
+        assertTrue(register(pending, PORT_2, 2));
+    }
+
+    // Requisicao do host 10.0.0.<host> (MAC 00:00:00:00:00:<host>) para TARGET
+    private static boolean register(PendingResolutions pending, ConnectPoint inPort, int host) {
+        MacAddress mac = MacAddress.valueOf((long) host);
+        ARP arp = new ARP();
+        arp.setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH)
+                .setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(mac.toBytes())
+                .setSenderProtocolAddress(IPv4.toIPv4AddressBytes("10.0.0." + host))
+                .setTargetHardwareAddress(MacAddress.ZERO.toBytes())
+                .setTargetProtocolAddress(IPv4.toIPv4AddressBytes(TARGET));
+        Ethernet eth = new Ethernet();
+        eth.setEtherType(Ethernet.TYPE_ARP)
+                .setSourceMACAddress(mac)
+                .setDestinationMACAddress(MacAddress.BROADCAST)
+                .setPayload(arp);
+        ByteBuffer frame = ByteBuffer.wrap(eth.serialize());
+        return pending.register(TARGET, inPort, frame, ArpReplyWriter.requestOffset(frame));
+    }
+}
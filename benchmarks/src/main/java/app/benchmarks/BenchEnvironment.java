@@ -0,0 +1,451 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.ChassisId;
+import org.onlab.packet.MacAddress;
+import org.onosproject.TestApplicationId;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flowobjective.FilteringObjective;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.NextObjective;
+import org.onosproject.net.host.HostServiceAdapter;
+import org.onosproject.net.intent.Intent;
+import org.onosproject.net.intent.IntentEvent;
+import org.onosproject.net.intent.IntentListener;
+import org.onosproject.net.intent.IntentServiceAdapter;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketPriority;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.DefaultTopologyEdge;
+import org.onosproject.net.topology.DefaultTopologyVertex;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyGraph;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+import org.onosproject.net.topology.TopologyVertex;
+import org.osgi.service.component.ComponentContext;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static app.benchmarks.BenchNetwork.*;
+
+/**
+ * Servicos falsos do ONOS para rodar os processors fora do controlador. Eles
+ * respondem a partir da rede sintetica de BenchNetwork, nao fazem nada alem de
+ * contar as chamadas de saida e custam pouco, para que o tempo medido seja o
+ * do processor.
+ */
+public final class BenchEnvironment {
+
+    public final CountingPacketService packetService = new CountingPacketService();
+    public final CountingFlowObjectiveService flowObjectiveService = new CountingFlowObjectiveService();
+    public final CountingFlowRuleService flowRuleService = new CountingFlowRuleService();
+    public final CountingIntentService intentService = new CountingIntentService();
+    public final BenchHostService hostService;
+    public final BenchTopologyService topologyService = new BenchTopologyService();
+    public final BenchCoreService coreService = new BenchCoreService();
+    public final ComponentConfigAdapter cfgService = new ComponentConfigAdapter();
+    public final BenchDeviceService deviceService = new BenchDeviceService();
+
+    /**
+     * Ambiente com o host de destino conhecido e sourceHosts hosts de origem.
+     */
+    public BenchEnvironment(int sourceHosts) {
+        hostService = new BenchHostService(ImmutableList.<Host>builder()
+                                                   .add(KNOWN_HOST)
+                                                   .addAll(BenchNetwork.sourceHosts(sourceHosts))
+                                                   .build());
+    }
+
+    /**
+     * Contexto de componente com as propriedades informadas.
+     */
+    public static ComponentContext componentContext(Map<String, String> properties) {
+        Dictionary<String, String> dictionary = new Hashtable<>(properties);
+        return (ComponentContext) Proxy.newProxyInstance(
+                ComponentContext.class.getClassLoader(), new Class<?>[]{ComponentContext.class},
+                (proxy, method, args) -> "getProperties".equals(method.getName()) ? dictionary : null);
+    }
+
+    /**
+     * Contexto de componente sem propriedades (valores padrao do componente).
+     */
+    public static ComponentContext componentContext() {
+        return componentContext(Collections.emptyMap());
+    }
+
+    /**
+     * Numero total de chamadas de saida (packet-outs, objectives, regras e intents).
+     */
+    public long outputs() {
+        return packetService.emitted.get() + flowObjectiveService.objectives.get()
+                + flowRuleService.rules.get() + intentService.submitted.get();
+    }
+
+    /**
+     * Guarda o processor registrado pela aplicacao e conta os packet-outs.
+     */
+    public static final class CountingPacketService implements PacketService {
+        public final AtomicLong emitted = new AtomicLong();
+        private volatile PacketProcessor processor;
+
+        /**
+         * Ultimo processor registrado ou null se ele foi removido.
+         */
+        public PacketProcessor processor() {
+            return processor;
+        }
+
+        @Override
+        public void addProcessor(PacketProcessor processor, int priority) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void removeProcessor(PacketProcessor processor) {
+            if (this.processor == processor) {
+                this.processor = null;
+            }
+        }
+
+        @Override
+        public void requestPackets(TrafficSelector selector, PacketPriority priority, ApplicationId appId) {
+        }
+
+        @Override
+        public void requestPackets(TrafficSelector selector, PacketPriority priority,
+                                   ApplicationId appId, FlowRule.Type deviceType) {
+        }
+
+        @Override
+        public void emit(OutboundPacket packet) {
+            emitted.incrementAndGet();
+        }
+    }
+
+    public static final class CountingFlowObjectiveService implements FlowObjectiveService {
+        public final AtomicLong objectives = new AtomicLong();
+        private final AtomicLong nextId = new AtomicLong();
+
+        @Override
+        public void filter(DeviceId deviceId, FilteringObjective filteringObjective) {
+            objectives.incrementAndGet();
+        }
+
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective forwardingObjective) {
+            objectives.incrementAndGet();
+        }
+
+        @Override
+        public void next(DeviceId deviceId, NextObjective nextObjective) {
+            objectives.incrementAndGet();
+        }
+
+        @Override
+        public int allocateNextId() {
+            return (int) nextId.incrementAndGet();
+        }
+    }
+
+    public static final class CountingFlowRuleService extends FlowRuleServiceAdapter {
+        public final AtomicLong rules = new AtomicLong();
+
+        @Override
+        public void applyFlowRules(FlowRule... flowRules) {
+            rules.addAndGet(flowRules.length);
+        }
+
+        @Override
+        public void apply(FlowRuleOperations ops) {
+            ops.stages().forEach(stage -> rules.addAndGet(stage.size()));
+        }
+    }
+
+    /**
+     * Conta as intents submetidas. Com installOnSubmit, cada intent submetida e
+     * anunciada aos listeners como INSTALLED INSTALL_DELAY_MILLIS depois, em outra
+     * thread (como faz o framework de intents).
+     */
+    public static final class CountingIntentService extends IntentServiceAdapter {
+        // Tempo simulado entre a submissao e a instalacao de uma intent
+        private static final long INSTALL_DELAY_MILLIS = 1;
+
+        public final AtomicLong submitted = new AtomicLong();
+        public volatile boolean installOnSubmit;
+        private final Set<IntentListener> listeners = new CopyOnWriteArraySet<>();
+        private final ScheduledExecutorService events = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bench-intent-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        @Override
+        public void submit(Intent intent) {
+            submitted.incrementAndGet();
+            if (installOnSubmit) {
+                IntentEvent event = new IntentEvent(IntentEvent.Type.INSTALLED, intent);
+                events.schedule(() -> listeners.forEach(listener -> listener.event(event)),
+                                INSTALL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void addListener(IntentListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(IntentListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public Iterable<Intent> getIntents() {
+            return Collections.emptyList();
+        }
+    }
+
+    public static final class BenchHostService extends HostServiceAdapter {
+        private final Map<HostId, Host> byId = new HashMap<>();
+        private final Map<MacAddress, Set<Host>> byMac = new HashMap<>();
+        private final Map<IpAddress, Set<Host>> byIp = new HashMap<>();
+
+        BenchHostService(Iterable<Host> hosts) {
+            for (Host host : hosts) {
+                byId.put(host.id(), host);
+                byMac.put(host.mac(), ImmutableSet.of(host));
+                host.ipAddresses().forEach(ip -> byIp.put(ip, ImmutableSet.of(host)));
+            }
+        }
+
+        @Override
+        public int getHostCount() {
+            return byId.size();
+        }
+
+        @Override
+        public Iterable<Host> getHosts() {
+            return byId.values();
+        }
+
+        @Override
+        public Host getHost(HostId hostId) {
+            return byId.get(hostId);
+        }
+
+        @Override
+        public Set<Host> getHostsByMac(MacAddress mac) {
+            return byMac.getOrDefault(mac, Collections.emptySet());
+        }
+
+        @Override
+        public Set<Host> getHostsByIp(IpAddress ip) {
+            return byIp.getOrDefault(ip, Collections.emptySet());
+        }
+    }
+
+    /**
+     * Os dois switches de BenchNetwork, cada um com a porta de borda (1) e a porta do
+     * enlace entre eles (2), ambas habilitadas.
+     */
+    public static final class BenchDeviceService extends DeviceServiceAdapter {
+        private final Map<DeviceId, List<Port>> ports = new HashMap<>();
+
+        BenchDeviceService() {
+            for (DeviceId deviceId : ImmutableList.of(S1, S2)) {
+                Device device = new DefaultDevice(PID, deviceId, Device.Type.SWITCH, "bench", "1", "1", "0",
+                                                  new ChassisId());
+                ports.put(deviceId, ImmutableList.of(new DefaultPort(device, PortNumber.portNumber(1), true),
+                                                     new DefaultPort(device, PortNumber.portNumber(2), true)));
+            }
+        }
+
+        @Override
+        public List<Port> getPorts(DeviceId deviceId) {
+            return ports.getOrDefault(deviceId, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Topologia fixa com os dois switches de BenchNetwork; todas as portas de borda
+     * aceitam flood.
+     */
+    public static final class BenchTopologyService extends TopologyServiceAdapter {
+        private final Topology topology = new BenchTopology();
+        private final TopologyGraph graph = new BenchGraph(LINKS);
+
+        @Override
+        public Topology currentTopology() {
+            return topology;
+        }
+
+        @Override
+        public boolean isLatest(Topology topology) {
+            return topology == this.topology;
+        }
+
+        @Override
+        public TopologyGraph getGraph(Topology topology) {
+            return graph;
+        }
+
+        @Override
+        public Set<Path> getPaths(Topology topology, DeviceId src, DeviceId dst) {
+            Set<Link> links = LINKS.stream()
+                    .filter(l -> l.src().deviceId().equals(src) && l.dst().deviceId().equals(dst))
+                    .collect(Collectors.toSet());
+            return links.stream()
+                    .map(l -> (Path) new DefaultPath(PID, ImmutableList.of(l), 1))
+                    .collect(Collectors.toSet());
+        }
+
+        @Override
+        public boolean isInfrastructure(Topology topology, ConnectPoint connectPoint) {
+            return LINKS.stream().anyMatch(l -> l.src().equals(connectPoint));
+        }
+
+        @Override
+        public boolean isBroadcastPoint(Topology topology, ConnectPoint connectPoint) {
+            return true;
+        }
+    }
+
+    public static final class BenchCoreService extends CoreServiceAdapter {
+        private final ApplicationId appId = new TestApplicationId("app.benchmarks");
+
+        @Override
+        public ApplicationId registerApplication(String identifier) {
+            return appId;
+        }
+
+        @Override
+        public ApplicationId getAppId(String name) {
+            return appId;
+        }
+    }
+
+    private static final class BenchTopology implements Topology {
+        private final ProviderId providerId = PID;
+
+        @Override
+        public long time() {
+            return 1;
+        }
+
+        @Override
+        public long creationTime() {
+            return 1;
+        }
+
+        @Override
+        public long computeCost() {
+            return 0;
+        }
+
+        @Override
+        public int clusterCount() {
+            return 1;
+        }
+
+        @Override
+        public int deviceCount() {
+            return 2;
+        }
+
+        @Override
+        public int linkCount() {
+            return LINKS.size();
+        }
+
+        @Override
+        public ProviderId providerId() {
+            return providerId;
+        }
+    }
+
+    private static final class BenchGraph implements TopologyGraph {
+        private final Set<TopologyVertex> vertexes;
+        private final Set<TopologyEdge> edges;
+
+        BenchGraph(Set<Link> links) {
+            vertexes = ImmutableSet.of(new DefaultTopologyVertex(S1), new DefaultTopologyVertex(S2));
+            edges = links.stream()
+                    .map(l -> new DefaultTopologyEdge(new DefaultTopologyVertex(l.src().deviceId()),
+                                                      new DefaultTopologyVertex(l.dst().deviceId()), l))
+                    .collect(Collectors.toSet());
+        }
+
+        @Override
+        public Set<TopologyVertex> getVertexes() {
+            return vertexes;
+        }
+
+        @Override
+        public Set<TopologyEdge> getEdges() {
+            return edges;
+        }
+
+        @Override
+        public Set<TopologyEdge> getEdgesFrom(TopologyVertex src) {
+            return edges.stream().filter(e -> e.src().equals(src)).collect(Collectors.toSet());
+        }
+
+        @Override
+        public Set<TopologyEdge> getEdgesTo(TopologyVertex dst) {
+            return edges.stream().filter(e -> e.dst().equals(dst)).collect(Collectors.toSet());
+        }
+    }
+}
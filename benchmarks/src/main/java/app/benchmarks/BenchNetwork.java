@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.benchmarks;
+
+import app.commons.NdpFrames;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.ARP;
+import org.onlab.packet.ChassisId;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.ONOSLLDP;
+import org.onlab.packet.UDP;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.provider.ProviderId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rede sintetica dos benchmarks: dois switches ligados pelas portas 2, os hosts de
+ * origem na porta 1 de S1 e o host de destino conhecido na porta 1 de S2.
+ */
+public final class BenchNetwork {
+
+    public static final ProviderId PID = new ProviderId("of", "app.benchmarks");
+
+    public static final DeviceId S1 = DeviceId.deviceId("of:0000000000000001");
+    public static final DeviceId S2 = DeviceId.deviceId("of:0000000000000002");
+
+    public static final ConnectPoint INGRESS = new ConnectPoint(S1, PortNumber.portNumber(1));
+    public static final ConnectPoint EGRESS = new ConnectPoint(S2, PortNumber.portNumber(1));
+
+    public static final Set<Link> LINKS = ImmutableSet.of(
+            link(new ConnectPoint(S1, PortNumber.portNumber(2)), new ConnectPoint(S2, PortNumber.portNumber(2))),
+            link(new ConnectPoint(S2, PortNumber.portNumber(2)), new ConnectPoint(S1, PortNumber.portNumber(2))));
+
+    public static final MacAddress KNOWN_MAC = MacAddress.valueOf("00:00:00:00:00:02");
+    public static final Ip4Address KNOWN_IP = Ip4Address.valueOf("10.0.0.2");
+    public static final IpPrefix KNOWN_PREFIX = IpPrefix.valueOf("10.0.0.0/24");
+    public static final Ip6Address KNOWN_IP6 = Ip6Address.valueOf("2001:db8::2");
+    public static final Host KNOWN_HOST = host(KNOWN_MAC, EGRESS, KNOWN_IP, KNOWN_IP6);
+
+    public static final MacAddress UNKNOWN_MAC = MacAddress.valueOf("00:00:00:00:00:99");
+    public static final Ip4Address UNKNOWN_IP = Ip4Address.valueOf("192.168.0.99");
+
+    public static final MacAddress MULTICAST_MAC = MacAddress.valueOf("01:00:5e:00:00:fb");
+    public static final Ip4Address MULTICAST_IP = Ip4Address.valueOf("224.0.0.251");
+    public static final MacAddress LLDP_MAC = MacAddress.valueOf("01:80:c2:00:00:0e");
+
+    // Hosts de origem: 00:00:00:01:xx:xx / 10.0.1.x, todos na porta de entrada de S1
+    private static final long SOURCE_MAC_BASE = 0x000000010000L;
+    private static final int SOURCE_IP_BASE = Ip4Address.valueOf("10.0.1.0").toInt();
+    private static final byte[] SOURCE_IP6_BASE = Ip6Address.valueOf("2001:db8:1::").toOctets();
+
+    // Nao instanciavel
+    private BenchNetwork() {
+    }
+
+    /**
+     * MAC do i-esimo host de origem.
+     */
+    public static MacAddress sourceMac(int i) {
+        return MacAddress.valueOf(SOURCE_MAC_BASE + i);
+    }
+
+    /**
+     * IP do i-esimo host de origem.
+     */
+    public static Ip4Address sourceIp(int i) {
+        return Ip4Address.valueOf(SOURCE_IP_BASE + i);
+    }
+
+    /**
+     * IPv6 do i-esimo host de origem.
+     */
+    public static Ip6Address sourceIp6(int i) {
+        byte[] address = Arrays.copyOf(SOURCE_IP6_BASE, SOURCE_IP6_BASE.length);
+        address[14] = (byte) (i >>> 8);
+        address[15] = (byte) i;
+        return Ip6Address.valueOf(address);
+    }
+
+    /**
+     * Os primeiros count hosts de origem.
+     */
+    public static List<Host> sourceHosts(int count) {
+        List<Host> hosts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hosts.add(host(sourceMac(i), INGRESS, sourceIp(i)));
+        }
+        return hosts;
+    }
+
+    /**
+     * Cria os packet-ins do tipo informado, um para cada um dos count hosts de origem,
+     * ja decodificados como faz o provider OpenFlow.
+     */
+    public static InboundPacket[] packetIns(PacketType type, int count) {
+        InboundPacket[] packets = new InboundPacket[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = frame(type, i).serialize();
+            Ethernet parsed = (Ethernet) new Ethernet().deserialize(bytes, 0, bytes.length);
+            packets[i] = new DefaultInboundPacket(INGRESS, parsed, ByteBuffer.wrap(bytes));
+        }
+        return packets;
+    }
+
+    private static Ethernet frame(PacketType type, int i) {
+        switch (type) {
+            case ARP:
+                return arpRequest(sourceMac(i), sourceIp(i), KNOWN_IP);
+            case IPV4_KNOWN:
+                return ipv4(sourceMac(i), KNOWN_MAC, sourceIp(i), KNOWN_IP);
+            case IPV4_UNKNOWN:
+                return ipv4(sourceMac(i), UNKNOWN_MAC, sourceIp(i), UNKNOWN_IP);
+            case MULTICAST:
+                return ipv4(sourceMac(i), MULTICAST_MAC, sourceIp(i), MULTICAST_IP);
+            case NDP_NS:
+                return NdpFrames.neighborSolicitation(sourceMac(i), sourceIp6(i), KNOWN_IP6);
+            case LLDP:
+            default:
+                ONOSLLDP probe = new ONOSLLDP();
+                probe.setChassisId(new ChassisId(1));
+                probe.setDevice(S1.toString());
+                probe.setPortId(2);
+                Ethernet lldp = new Ethernet();
+                lldp.setSourceMACAddress(sourceMac(i)).setDestinationMACAddress(LLDP_MAC)
+                        .setEtherType(Ethernet.TYPE_LLDP).setPayload(probe);
+                return lldp;
+        }
+    }
+
+    private static Ethernet ipv4(MacAddress srcMac, MacAddress dstMac, Ip4Address srcIp, Ip4Address dstIp) {
+        UDP udp = new UDP();
+        udp.setSourcePort((short) 5000).setDestinationPort((short) 5001);
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress(srcIp.toInt()).setDestinationAddress(dstIp.toInt())
+                .setProtocol(IPv4.PROTOCOL_UDP).setTtl((byte) 64).setPayload(udp);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(srcMac).setDestinationMACAddress(dstMac)
+                .setEtherType(Ethernet.TYPE_IPV4).setPayload(ip);
+        return eth;
+    }
+
+    private static Ethernet arpRequest(MacAddress srcMac, Ip4Address srcIp, Ip4Address targetIp) {
+        ARP arp = new ARP();
+        arp.setHardwareType(ARP.HW_TYPE_ETHERNET).setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH)
+                .setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(srcMac.toBytes())
+                .setSenderProtocolAddress(srcIp.toOctets())
+                .setTargetHardwareAddress(MacAddress.ZERO.toBytes())
+                .setTargetProtocolAddress(targetIp.toOctets());
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(srcMac).setDestinationMACAddress(MacAddress.BROADCAST)
+                .setEtherType(Ethernet.TYPE_ARP).setPayload(arp);
+        return eth;
+    }
+
+    private static Host host(MacAddress mac, ConnectPoint location, IpAddress... ips) {
+        return new DefaultHost(PID, HostId.hostId(mac), mac, VlanId.NONE,
+                               new HostLocation(location, 0), ImmutableSet.copyOf(ips));
+    }
+
+    private static Link link(ConnectPoint src, ConnectPoint dst) {
+        return new DefaultLink(PID, src, dst, Link.Type.DIRECT);
+    }
+}
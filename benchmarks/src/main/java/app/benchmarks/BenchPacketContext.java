@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.benchmarks;
+
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.InboundPacket;
+
+/**
+ * Contexto de packet-in cujo send() nao envia nada.
+ */
+public final class BenchPacketContext extends DefaultPacketContext {
+
+    private boolean sent;
+
+    public BenchPacketContext(InboundPacket inPkt) {
+        super(0, inPkt, null, false);
+    }
+
+    @Override
+    public void send() {
+        if (!block()) {
+            sent = true;
+        }
+    }
+
+    /**
+     * Indica se send() foi chamado com o contexto ainda nao tratado.
+     */
+    public boolean sent() {
+        return sent;
+    }
+}
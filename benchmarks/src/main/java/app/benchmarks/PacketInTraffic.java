@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.benchmarks;
+
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+
+/**
+ * Sequencia ciclica de packet-ins pre-construidos de um tipo, um por host de origem.
+ * Cada chamada a next() cria um novo contexto, pois um contexto so pode ser tratado uma vez.
+ */
+public final class PacketInTraffic {
+
+    /** Numero de hosts de origem (e de fluxos distintos) por tipo de pacote. */
+    public static final int FLOWS = 4096;
+
+    private final InboundPacket[] packets;
+    private int next;
+
+    public PacketInTraffic(PacketType type) {
+        packets = BenchNetwork.packetIns(type, FLOWS);
+    }
+
+    /**
+     * Proximo packet-in da sequencia.
+     */
+    public PacketContext next() {
+        InboundPacket packet = packets[next];
+        next = (next + 1) & (FLOWS - 1);
+        return new BenchPacketContext(packet);
+    }
+}
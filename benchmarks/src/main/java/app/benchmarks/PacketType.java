@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.benchmarks;
+
+/**
+ * Tipos de packet-in usados nos benchmarks.
+ */
+public enum PacketType {
+    /** Requisicao ARP (broadcast) pelo IP do host conhecido. */
+    ARP,
+    /** IPv4 unicast para um host conhecido pelo HostService. */
+    IPV4_KNOWN,
+    /** IPv4 unicast para um MAC/IP desconhecido. */
+    IPV4_UNKNOWN,
+    /** IPv4 multicast. */
+    MULTICAST,
+    /** LLDP, que os processors devem ignorar. */
+    LLDP,
+    /** Neighbor Solicitation (IPv6, multicast solicited-node) pelo IPv6 do host conhecido. */
+    NDP_NS
+}
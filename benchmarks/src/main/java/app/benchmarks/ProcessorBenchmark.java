@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package app.benchmarks;
+
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base dos benchmarks de packet processors: ativa a aplicacao sobre os servicos
+ * falsos de BenchEnvironment e mede o tempo de process() para cada tipo de pacote.
+ *
+ * Mede vazao (packet-ins por microssegundo) e a distribuicao da latencia por
+ * packet-in (SampleTime, com os percentis p50/p99/p99.9). A taxa de alocacao
+ * sai com o profiler de GC do JMH:
+ *
+ *   java -jar target/benchmarks.jar SimpleSwitch -prof gc
+ *
+ * Os packet-ins de um tipo vem de PacketInTraffic.FLOWS hosts de origem, de modo
+ * que caches por fluxo das aplicacoes trabalham como com varios hosts ativos.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class ProcessorBenchmark {
+
+    @Param
+    public PacketType type;
+
+    private BenchEnvironment env;
+    private PacketInTraffic traffic;
+    private PacketProcessor processor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        env = new BenchEnvironment(PacketInTraffic.FLOWS);
+        activate(env);
+        processor = env.packetService.processor();
+        if (processor == null) {
+            throw new IllegalStateException("A aplicacao nao registrou um packet processor");
+        }
+        traffic = new PacketInTraffic(type);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deactivate();
+    }
+
+    @Benchmark
+    public boolean process() {
+        PacketContext context = traffic.next();
+        processor.process(context);
+        return context.isHandled();
+    }
+
+    /**
+     * Injeta os servicos de env na aplicacao e a ativa.
+     */
+    protected abstract void activate(BenchEnvironment env);
+
+    /**
+     * Desativa a aplicacao.
+     */
+    protected abstract void deactivate();
+}
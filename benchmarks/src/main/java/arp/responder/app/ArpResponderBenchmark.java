@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package arp.responder.app;
+
+import app.benchmarks.BenchEnvironment;
+import app.benchmarks.ProcessorBenchmark;
+
+/**
+ * Benchmark do processor do ArpResponder (lab 2, respostas a partir do HostService).
+ */
+public class ArpResponderBenchmark extends ProcessorBenchmark {
+
+    private ArpResponder app;
+
+    @Override
+    protected void activate(BenchEnvironment env) {
+        app = new ArpResponder();
+        app.topologyService = env.topologyService;
+        app.packetService = env.packetService;
+        app.coreService = env.coreService;
+        app.hostService = env.hostService;
+        app.cfgService = env.cfgService;
+        app.flowRuleService = env.flowRuleService;
+        app.activate(BenchEnvironment.componentContext());
+    }
+
+    @Override
+    protected void deactivate() {
+        app.deactivate();
+    }
+}
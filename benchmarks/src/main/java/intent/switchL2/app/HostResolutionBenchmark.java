@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import app.benchmarks.BenchNetwork;
+import app.commons.MacTable;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.Host;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Vazao da resolucao MAC -> host feita a cada packet-in pelo IntentReactiveForwarding:
+ * o cache MacTable (chave long, sem alocacao) contra getHostsByMac de um store indexado
+ * por MacAddress e de um store que filtra todos os hosts, como o store de hosts do ONOS.
+ * Os MACs consultados percorrem os hosts conhecidos:
+ *
+ *   java -jar target/benchmarks.jar HostResolution -p hosts=10000
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HostResolutionBenchmark {
+
+    @Param({"100", "10000"})
+    public int hosts;
+
+    private long[] macs;
+    private List<Host> hostList;
+    private Map<MacAddress, Set<Host>> byMac;
+    private MacTable<Host> table;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        hostList = BenchNetwork.sourceHosts(hosts);
+        byMac = new HashMap<>();
+        table = new MacTable<>(hosts);
+        for (Host host : hostList) {
+            byMac.put(host.mac(), ImmutableSet.of(host));
+            table.put(host.mac().toLong(), host);
+        }
+        macs = hostList.stream().mapToLong(host -> host.mac().toLong()).toArray();
+    }
+
+    @Benchmark
+    public Host macTable() {
+        return table.get(nextMac());
+    }
+
+    @Benchmark
+    public Host indexedStore() {
+        Set<Host> found = byMac.getOrDefault(MacAddress.valueOf(nextMac()), Collections.emptySet());
+        return found.isEmpty() ? null : found.iterator().next();
+    }
+
+    @Benchmark
+    public Host filteringStore() {
+        MacAddress mac = MacAddress.valueOf(nextMac());
+        Set<Host> found = hostList.stream().filter(host -> host.mac().equals(mac)).collect(Collectors.toSet());
+        return found.isEmpty() ? null : found.iterator().next();
+    }
+
+    private long nextMac() {
+        long mac = macs[next];
+        next = next + 1 == macs.length ? 0 : next + 1;
+        return mac;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import app.benchmarks.BenchEnvironment;
+import app.benchmarks.ProcessorBenchmark;
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.core.IdGenerator;
+import org.onosproject.net.intent.Intent;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark do processor do IntentReactiveForwarding. O servico de intents falso
+ * anuncia cada intent como instalada logo depois de submetida; o benchmark
+ * submissions informa, alem dos packet-ins, quantas intents foram submetidas por
+ * microssegundo. O parametro hybridInstall compara o modo so com intents e o hibrido:
+ *
+ *   java -jar target/benchmarks.jar IntentReactiveForwarding.submissions -p type=IPV4_KNOWN
+ */
+public class IntentReactiveForwardingBenchmark extends ProcessorBenchmark {
+
+    private final AtomicLong intentIds = new AtomicLong();
+    private final IdGenerator idGenerator = intentIds::incrementAndGet;
+
+    @Param({"false", "true"})
+    public boolean hybridInstall;
+
+    private BenchEnvironment env;
+    private IntentReactiveForwarding app;
+
+    /**
+     * Intents submetidas durante a medicao (o JMH as reporta como taxa).
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Submissions {
+        public long intents;
+    }
+
+    @Override
+    protected void activate(BenchEnvironment env) {
+        this.env = env;
+        env.intentService.installOnSubmit = true;
+        // Fora do ONOS ninguem fornece os ids das intents
+        Intent.bindIdGenerator(idGenerator);
+        app = new IntentReactiveForwarding();
+        app.coreService = env.coreService;
+        app.topologyService = env.topologyService;
+        app.packetService = env.packetService;
+        app.intentService = env.intentService;
+        app.hostService = env.hostService;
+        app.flowRuleService = env.flowRuleService;
+        app.flowObjectiveService = env.flowObjectiveService;
+        app.cfgService = env.cfgService;
+        app.activate(BenchEnvironment.componentContext(
+                ImmutableMap.of("hybridInstall", String.valueOf(hybridInstall))));
+    }
+
+    @Override
+    protected void deactivate() {
+        app.deactivate();
+        Intent.unbindIdGenerator(idGenerator);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public boolean submissions(Submissions submissions) {
+        long before = env.intentService.submitted.get();
+        boolean handled = process();
+        submissions.intents += env.intentService.submitted.get() - before;
+        return handled;
+    }
+}
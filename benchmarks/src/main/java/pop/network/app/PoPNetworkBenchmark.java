@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package pop.network.app;
+
+import app.benchmarks.BenchEnvironment;
+import app.benchmarks.BenchNetwork;
+import app.benchmarks.ProcessorBenchmark;
+import com.google.common.collect.Sets;
+import org.onlab.packet.IpAddress;
+import org.onosproject.core.IdGenerator;
+import org.onosproject.net.intent.Intent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark do processor do PoPNetwork, com a rede do host conhecido configurada
+ * como bloco de um cliente cujo roteador e o proprio host.
+ */
+public class PoPNetworkBenchmark extends ProcessorBenchmark {
+
+    private final AtomicLong intentIds = new AtomicLong();
+    private final IdGenerator idGenerator = intentIds::incrementAndGet;
+
+    private PoPNetwork app;
+
+    @Override
+    protected void activate(BenchEnvironment env) {
+        RoutingConfigReader.clientesPoP.clear();
+        RoutingConfigReader.clientesPoP.put(BenchNetwork.KNOWN_PREFIX,
+                                            Sets.<IpAddress>newHashSet(BenchNetwork.KNOWN_IP));
+        // Fora do ONOS ninguem fornece os ids das intents
+        Intent.bindIdGenerator(idGenerator);
+        app = new PoPNetwork();
+        app.coreService = env.coreService;
+        app.packetService = env.packetService;
+        app.flowRuleService = env.flowRuleService;
+        app.intentService = env.intentService;
+        app.hostService = env.hostService;
+        app.topologyService = env.topologyService;
+        app.activate();
+    }
+
+    @Override
+    protected void deactivate() {
+        app.deactivate();
+        Intent.unbindIdGenerator(idGenerator);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.hub.app;
+
+import app.benchmarks.BenchEnvironment;
+import app.benchmarks.ProcessorBenchmark;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Benchmark do processor do SimpleHub.
+ */
+public class SimpleHubBenchmark extends ProcessorBenchmark {
+
+    private SimpleHub app;
+
+    @Override
+    protected void activate(BenchEnvironment env) {
+        app = new SimpleHub();
+        app.topologyService = env.topologyService;
+        app.coreService = env.coreService;
+        app.flowRuleService = env.flowRuleService;
+        app.packetService = env.packetService;
+        app.deviceService = env.deviceService;
+        app.cfgService = env.cfgService;
+        // Limite de floods alto o bastante para nunca descartar: mede o custo do limitador, nao o descarte
+        app.activate(BenchEnvironment.componentContext(
+                ImmutableMap.of("floodRate", String.valueOf(Integer.MAX_VALUE))));
+    }
+
+    @Override
+    protected void deactivate() {
+        app.deactivate();
+    }
+}
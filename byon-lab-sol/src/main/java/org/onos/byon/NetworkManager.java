@@ -36,9 +36,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -92,6 +95,10 @@ public class NetworkManager implements NetworkService {
 
     protected ApplicationId appId;
 
+    // Keys of the intents submitted by this instance, per network; removing the
+    // intents of a network withdraws these keys first and then scans for the rest
+    private final ConcurrentMap<String, Set<Key>> networkKeys = new ConcurrentHashMap<>();
+
     @Activate
     protected void activate() {
         appId = coreService.registerApplication("org.onos.byon");
@@ -180,7 +187,7 @@ public class NetworkManager implements NetworkService {
                         .one(h)
                         .two(hostId)
                         .build();
-                intentService.submit(intent);
+                submit(network, intent);
             }
         }
     }
@@ -239,10 +246,21 @@ public class NetworkManager implements NetworkService {
                     .two(src)
                     .build();
 
-            intentService.submit(intent);
+            submit(network, intent);
         }
     }
 
+    /**
+     * Submits an intent and records its key in the network's index.
+     *
+     * @param network network name
+     * @param intent intent to submit
+     */
+    private void submit(String network, Intent intent) {
+        networkKeys.computeIfAbsent(network, n -> ConcurrentHashMap.newKeySet()).add(intent.key());
+        intentService.submit(intent);
+    }
+
     /**
      * Removes intents that involve the specified host in a network.
      *
@@ -257,10 +275,28 @@ public class NetworkManager implements NetworkService {
          * 2. Using matches() to filter intents for this network and hostId
          * 3. Withdrawn intentService.withdraw()
          */
+        Set<Key> keys = hostId.isPresent() ? networkKeys.get(network) : networkKeys.remove(network);
+        Set<Key> withdrawn = new HashSet<>();
+        if (keys != null) {
+            for (Key key : keys) {
+                if (hostId.isPresent() && !matchesHost(key, hostId.get())) {
+                    continue;
+                }
+                keys.remove(key);
+                withdrawn.add(key);
+                Intent intent = intentService.getIntent(key);
+                if (intent != null) {
+                    intentService.withdraw(intent);
+                }
+            }
+        }
+
+        // Intents of the network submitted by another instance (or a previous activation)
+        // are not in the key index
         Iterable<Intent> intentsList = intentService.getIntents();
         for ( Intent intent : intentsList) {
-            boolean toRemove = matches(network, hostId, intent);
-                if (toRemove) {
+            boolean toRemove = !withdrawn.contains(intent.key()) && matches(network, hostId, intent);
+            if (toRemove) {
                 intentService.withdraw(intent);
             }
         }
@@ -305,8 +341,18 @@ public class NetworkManager implements NetworkService {
             return true;
         }
 
-        HostId hostId = id.get();
-        String[] fields = key.split(",");
+        return matchesHost(intent.key(), id.get());
+    }
+
+    /**
+     * Matches an intent key to a host.
+     *
+     * @param key intent key
+     * @param hostId host id
+     * @return true if the host is one of the key's hosts, false otherwise
+     */
+    private boolean matchesHost(Key key, HostId hostId) {
+        String[] fields = key.toString().split(",");
         // return result of id match in host portion of key
         return fields.length > 1 && fields[1].contains(hostId.toString());
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intents adiadas porque o MAC de origem ainda nao e um host conhecido.
+ *
+ * Cada origem guarda ate maxPerSource destinos, um registro por destino. Quando a
+ * origem e descoberta as intents sao liberadas de uma vez; a origem que nao aparece
+ * em timeoutMillis depois do primeiro adiamento e esquecida com seus destinos.
+ */
+final class DeferredIntents {
+
+    private final Cache<MacAddress, Map<HostId, Deferred>> sources;
+    private final int maxPerSource;
+
+    /**
+     * Cria uma tabela com ate maxSources origens, cada uma com ate maxPerSource destinos.
+     */
+    DeferredIntents(long timeoutMillis, long maxSources, int maxPerSource) {
+        this.sources = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeoutMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSources)
+                .build();
+        this.maxPerSource = maxPerSource;
+    }
+
+    /**
+     * Adia a intent srcMac -> dst, cujo primeiro packet-in chegou no instante nanos. Retorna
+     * false se o destino ja estava adiado para a origem ou se a fila da origem esta cheia.
+     */
+    boolean defer(MacAddress srcMac, Host dst, long nanos) {
+        Map<HostId, Deferred> deferred = sources.asMap().computeIfAbsent(srcMac, mac -> new LinkedHashMap<>());
+        synchronized (deferred) {
+            if (deferred.size() >= maxPerSource || deferred.containsKey(dst.id())) {
+                return false;
+            }
+            deferred.put(dst.id(), new Deferred(dst, nanos));
+            return true;
+        }
+    }
+
+    /**
+     * Retira a origem da tabela e retorna, na ordem de chegada, as intents adiadas para ela.
+     */
+    List<Deferred> release(MacAddress srcMac) {
+        Map<HostId, Deferred> deferred = sources.asMap().remove(srcMac);
+        if (deferred == null) {
+            return Collections.emptyList();
+        }
+        synchronized (deferred) {
+            return new ArrayList<>(deferred.values());
+        }
+    }
+
+    /**
+     * Numero aproximado de origens com intents adiadas.
+     */
+    long size() {
+        return sources.size();
+    }
+
+    void clear() {
+        sources.invalidateAll();
+    }
+
+    /**
+     * Intent adiada: host de destino e instante (ns) do primeiro packet-in do fluxo.
+     */
+    static final class Deferred {
+        final Host dst;
+        final long nanos;
+
+        private Deferred(Host dst, long nanos) {
+            this.dst = dst;
+            this.nanos = nanos;
+        }
+    }
+}
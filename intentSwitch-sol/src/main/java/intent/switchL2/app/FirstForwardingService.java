@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import app.commons.LatencyHistogram;
+
+/**
+ * Servico que expoe o tempo ate o primeiro encaminhamento pela rede de cada par de
+ * hosts do IntentReactiveForwarding: do primeiro packet-in do par ate a confirmacao
+ * das regras (diretas, no modo hibrido, ou da intent).
+ */
+public interface FirstForwardingService {
+
+    /**
+     * Como o encaminhamento de um novo par de hosts foi instalado.
+     */
+    enum InstallMode {
+        /** Apenas pela intent HostToHost. */
+        INTENT,
+        /** Regras diretas no caminho, seguidas pela intent. */
+        HYBRID
+    }
+
+    /**
+     * Latencias (ns) dos pares instalados no modo informado desde a ativacao (ou desde
+     * o ultimo resetLatency()).
+     */
+    LatencyHistogram firstForwardingLatency(InstallMode mode);
+
+    /**
+     * Zera as latencias.
+     */
+    void resetLatency();
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import app.commons.IntentIndex;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.intent.Intent;
+import org.onosproject.net.intent.IntentService;
+import org.onosproject.net.intent.Key;
+import org.onosproject.net.intent.MultiPointToSinglePointIntent;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Agregacao das intents por destino do IntentReactiveForwarding.
+ *
+ * Cada par de hosts tem normalmente uma intent HostToHost. Quando um host passa a ter
+ * mais de threshold pares (um destino popular), as intents HostToHost desses pares sao
+ * trocadas por arvores: uma MultiPointToSinglePointIntent por host, com match no MAC
+ * (e VLAN) do host, vindo das portas dos seus pares. O destino popular recebe por uma
+ * unica arvore o trafego de todos os seus pares; cada par recebe o trafego de volta pela
+ * sua propria arvore, compartilhada com os demais destinos agregados com que ele fala.
+ *
+ * O numero de intents so cai quando varios destinos populares compartilham os pares: K
+ * destinos com os mesmos N pares passam de K*N intents HostToHost para K+N arvores. Com um
+ * unico destino popular as N intents viram N+1 arvores; o ganho e nas intents compiladas
+ * (uma LinkCollectionIntent por arvore contra duas PathIntents por par) e nas regras: a
+ * arvore do destino tem uma regra por switch da uniao dos caminhos, em vez de uma por switch
+ * de cada caminho. A economia de regras depende da topologia e nao e medida aqui.
+ *
+ * A agregacao tem histerese: um host agregado so volta as intents HostToHost quando
+ * fica com menos de release pares. A intent HostToHost de um par que passa para as arvores
+ * so e retirada quando as arvores dos dois hosts, ja cobrindo o par, estao instaladas; um par
+ * cujos hosts estao na mesma porta nunca e coberto e fica com a intent. Na volta, as intents
+ * HostToHost sao submetidas antes do recalculo das arvores, mas sem esperar a instalacao:
+ * ate la o trafego do par sobe ao controlador.
+ *
+ * Cada arvore cobre todos os pares do host, e a intent precisa ser submetida inteira a
+ * cada novo par. Por isso as arvores alteradas sao apenas marcadas e recalculadas juntas,
+ * no maximo uma vez a cada treeDelay ms, fora da thread do packet-in; com treeDelay = 0
+ * (ou antes de start) sao recalculadas na hora. Uma arvore que falha e esquecida, e o
+ * proximo par que precisar dela a submete de novo.
+ *
+ * Os pares so sao esquecidos quando um dos hosts sai da rede. As decisoes sao serializadas
+ * pelo monitor do agregador; a submissao e a retirada das intents HostToHost sao feitas fora
+ * dele, na ordem em que foram decididas, sem bloquear os packet-ins. As intents sao
+ * submetidas pelo IntentIndex da aplicacao.
+ */
+final class IntentAggregator {
+
+    private final Logger log = getLogger(getClass());
+
+    /**
+     * Submissao e retirada das intents HostToHost dos pares, feitas pela aplicacao.
+     */
+    interface PairIntents {
+        /** Submete a intent HostToHost do par (host voltou a ter poucos pares). */
+        void submit(Host one, Host two);
+
+        /** Retira a intent HostToHost do par, se existir (o par passou para as arvores). */
+        void withdraw(HostId one, HostId two);
+    }
+
+    private final ApplicationId appId;
+    private final IntentService intentService;
+    private final IntentIndex intentIndex;
+    private final Function<HostId, Host> hosts;
+    private final PairIntents pairIntents;
+
+    private final long treeDelay;
+
+    private int threshold;
+    private int release;
+
+    // Pares de cada host (nos dois sentidos)
+    private final Map<HostId, Set<HostId>> peers = new HashMap<>();
+    // Hosts agregados (destinos populares)
+    private final Set<HostId> aggregated = new HashSet<>();
+    // Arvore submetida de cada host, e o host de cada chave de arvore
+    private final Map<HostId, MultiPointToSinglePointIntent> trees = new HashMap<>();
+    private final Map<Key, HostId> treeHosts = new HashMap<>();
+    // Hosts cuja arvore submetida ja foi instalada
+    private final Set<HostId> installed = new HashSet<>();
+
+    // Arvores a recalcular no proximo flushTrees, e pares a retirar das intents HostToHost
+    // quando suas arvores estiverem instaladas
+    private final Set<HostId> dirty = new HashSet<>();
+    private final List<HostId[]> withdrawals = new ArrayList<>();
+
+    // Operacoes nas intents HostToHost decididas com o monitor e executadas fora dele, em
+    // ordem, por runPending (que as serializa com pairLock)
+    private final List<Runnable> pairOps = new ArrayList<>();
+    private final Object pairLock = new Object();
+
+    private ScheduledExecutorService scheduler;
+    private boolean flushScheduled;
+
+    IntentAggregator(ApplicationId appId, IntentService intentService, IntentIndex intentIndex,
+                     Function<HostId, Host> hosts, PairIntents pairIntents,
+                     int threshold, int release, long treeDelay) {
+        this.appId = appId;
+        this.intentService = intentService;
+        this.intentIndex = intentIndex;
+        this.hosts = hosts;
+        this.pairIntents = pairIntents;
+        this.threshold = threshold;
+        this.release = release;
+        this.treeDelay = treeDelay;
+    }
+
+    /**
+     * Inicia a thread que recalcula as arvores (se treeDelay > 0).
+     */
+    synchronized void start() {
+        if (treeDelay > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(groupedThreads("intentSwitch", "trees"));
+        }
+    }
+
+    /**
+     * Para a thread das arvores; as alteracoes seguintes sao aplicadas na hora.
+     */
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        flushScheduled = false;
+    }
+
+    /**
+     * Altera os limites de agregacao e reavalia os hosts ja conhecidos.
+     */
+    void configure(int threshold, int release) {
+        synchronized (this) {
+            this.threshold = threshold;
+            this.release = release;
+            for (HostId host : new ArrayList<>(peers.keySet())) {
+                if (!aggregated.contains(host) && peersOf(host).size() > threshold) {
+                    aggregate(host);
+                } else {
+                    checkRelease(host);
+                }
+            }
+            scheduleFlush();
+        }
+        runPending();
+    }
+
+    /**
+     * Registra o par src -> dst. Se o par e (ou passa a ser) encaminhado pelas arvores,
+     * ajusta as arvores e retorna true; senao retorna false, e a aplicacao submete a intent
+     * HostToHost do par (fora do monitor do agregador).
+     */
+    boolean addPair(Host src, Host dst) {
+        synchronized (this) {
+            HostId one = src.id();
+            HostId two = dst.id();
+            peers.computeIfAbsent(one, id -> new HashSet<>()).add(two);
+            peers.computeIfAbsent(two, id -> new HashSet<>()).add(one);
+
+            if (aggregated.contains(one) || aggregated.contains(two)) {
+                extendTree(two, src);
+                extendTree(one, dst);
+            } else if (peersOf(two).size() > threshold) {
+                aggregate(two);
+            } else if (peersOf(one).size() > threshold) {
+                aggregate(one);
+            } else {
+                return false;
+            }
+            scheduleFlush();
+        }
+        runPending();
+        return true;
+    }
+
+    /**
+     * Esquece o host que saiu da rede: retira sua arvore e o retira das arvores dos seus pares,
+     * que podem deixar de ser agregados.
+     */
+    void hostRemoved(HostId host) {
+        synchronized (this) {
+            Set<HostId> former = peers.remove(host);
+            aggregated.remove(host);
+            markTree(host);
+            if (former != null) {
+                for (HostId peer : former) {
+                    Set<HostId> remaining = peersOf(peer);
+                    remaining.remove(host);
+                    if (remaining.isEmpty()) {
+                        peers.remove(peer);
+                    }
+                    markTree(peer);
+                    checkRelease(peer);
+                }
+            }
+            scheduleFlush();
+        }
+        runPending();
+    }
+
+    /**
+     * Atualiza as arvores que usam a porta do host, que mudou de lugar.
+     */
+    void hostMoved(HostId host) {
+        synchronized (this) {
+            markTree(host);
+            peersOf(host).forEach(this::markTree);
+            scheduleFlush();
+        }
+        runPending();
+    }
+
+    /**
+     * Volta todos os hosts agregados para as intents HostToHost e esquece os pares
+     * (agregacao desativada).
+     */
+    void releaseAll() {
+        synchronized (this) {
+            for (HostId host : new ArrayList<>(aggregated)) {
+                deaggregate(host);
+            }
+            peers.clear();
+            scheduleFlush();
+        }
+        runPending();
+    }
+
+    /**
+     * Recalcula as arvores marcadas e retira as intents HostToHost dos pares cujas arvores
+     * ja estao instaladas.
+     */
+    void flushTrees() {
+        synchronized (this) {
+            flushScheduled = false;
+            for (HostId host : dirty) {
+                refreshTree(host);
+            }
+            dirty.clear();
+            releaseWithdrawals();
+        }
+        runPending();
+    }
+
+    /**
+     * Instalacao de uma arvore; os pares que ela completa deixam as intents HostToHost.
+     * Retorna o host da arvore, ou null se a intent nao e a ultima submetida para ele
+     * (uma versao anterior ou ja substituida).
+     */
+    HostId treeInstalled(Intent tree) {
+        HostId host;
+        synchronized (this) {
+            host = current(tree);
+            if (host != null) {
+                installed.add(host);
+                releaseWithdrawals();
+            }
+        }
+        runPending();
+        return host;
+    }
+
+    /**
+     * Falha de uma arvore: ela e esquecida, para ser submetida de novo pelo proximo par
+     * que precisar dela. Retorna false se a intent nao e a ultima submetida para o host.
+     */
+    synchronized boolean treeFailed(Intent tree) {
+        HostId host = current(tree);
+        if (host == null) {
+            return false;
+        }
+        trees.remove(host);
+        treeHosts.remove(tree.key());
+        installed.remove(host);
+        return true;
+    }
+
+    /**
+     * Indica se a arvore do host esta para ser recalculada ou foi submetida e ainda nao
+     * foi instalada.
+     */
+    synchronized boolean treePending(HostId host) {
+        return dirty.contains(host) || (trees.containsKey(host) && !installed.contains(host));
+    }
+
+    /**
+     * Pares cujo trafego para o host segue pela arvore do host.
+     */
+    synchronized List<HostId> treePeers(HostId host) {
+        boolean hostAggregated = aggregated.contains(host);
+        List<HostId> covered = new ArrayList<>();
+        for (HostId peer : peersOf(host)) {
+            if (hostAggregated || aggregated.contains(peer)) {
+                covered.add(peer);
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Esquece o estado, sem retirar intents (a aplicacao retira todas na desativacao).
+     */
+    synchronized void clear() {
+        pairOps.clear();
+        peers.clear();
+        aggregated.clear();
+        trees.clear();
+        treeHosts.clear();
+        installed.clear();
+        dirty.clear();
+        withdrawals.clear();
+    }
+
+    /**
+     * Numero de hosts agregados.
+     */
+    synchronized int aggregatedCount() {
+        return aggregated.size();
+    }
+
+    /**
+     * Numero de arvores submetidas.
+     */
+    synchronized int treeCount() {
+        return trees.size();
+    }
+
+    /**
+     * Chave da arvore do host.
+     */
+    Key treeKey(HostId host) {
+        return Key.of("tree-" + host, appId);
+    }
+
+    private Set<HostId> peersOf(HostId host) {
+        return peers.getOrDefault(host, Collections.emptySet());
+    }
+
+    // Host da arvore, se ela e a ultima submetida para ele
+    private HostId current(Intent tree) {
+        HostId host = treeHosts.get(tree.key());
+        MultiPointToSinglePointIntent current = host == null ? null : trees.get(host);
+        return current != null && current.id().equals(tree.id()) ? host : null;
+    }
+
+    // Agenda o recalculo das arvores marcadas; sem a thread, runPending as recalcula na hora
+    private void scheduleFlush() {
+        if (scheduler != null && !flushScheduled && !dirty.isEmpty()) {
+            flushScheduled = true;
+            scheduler.schedule(this::flushTrees, treeDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Fora do monitor: executa as operacoes nas intents HostToHost decididas com ele e, sem a
+    // thread das arvores, recalcula as arvores marcadas (depois das operacoes, que submetem as
+    // intents dos pares desagregados antes de as arvores encolherem)
+    private void runPending() {
+        synchronized (pairLock) {
+            List<Runnable> ops;
+            boolean flush;
+            synchronized (this) {
+                ops = new ArrayList<>(pairOps);
+                pairOps.clear();
+                flush = scheduler == null && !dirty.isEmpty();
+            }
+            ops.forEach(Runnable::run);
+            if (flush) {
+                flushTrees();
+            }
+        }
+    }
+
+    // Retira as intents HostToHost dos pares ja cobertos, nos dois sentidos, por arvores
+    // instaladas; esquece os pares que voltaram as intents HostToHost (ou sumiram)
+    private void releaseWithdrawals() {
+        Iterator<HostId[]> pending = withdrawals.iterator();
+        while (pending.hasNext()) {
+            HostId[] pair = pending.next();
+            if (!peersOf(pair[0]).contains(pair[1])
+                    || !(aggregated.contains(pair[0]) || aggregated.contains(pair[1]))) {
+                pending.remove();
+            } else if (covered(pair[0], pair[1]) && covered(pair[1], pair[0])) {
+                pending.remove();
+                pairOps.add(() -> pairIntents.withdraw(pair[0], pair[1]));
+            }
+        }
+    }
+
+    // Indica se a arvore instalada do host ja recebe o trafego vindo da porta do par
+    private boolean covered(HostId host, HostId peer) {
+        MultiPointToSinglePointIntent tree = trees.get(host);
+        Host other = hosts.apply(peer);
+        return tree != null && installed.contains(host) && other != null
+                && tree.ingressPoints().contains(other.location());
+    }
+
+    private void markTree(HostId host) {
+        dirty.add(host);
+    }
+
+    // O host passa para as arvores: as intents HostToHost saem quando as arvores forem instaladas
+    private void aggregate(HostId host) {
+        aggregated.add(host);
+        List<HostId> hostPeers = new ArrayList<>(peersOf(host));
+        markTree(host);
+        hostPeers.forEach(this::markTree);
+        for (HostId peer : hostPeers) {
+            if (!aggregated.contains(peer)) {
+                withdrawals.add(new HostId[] {host, peer});
+            }
+        }
+        log.info("Host {} agregado: {} pares", host, hostPeers.size());
+    }
+
+    private void checkRelease(HostId host) {
+        if (aggregated.contains(host) && peersOf(host).size() < release) {
+            deaggregate(host);
+        }
+    }
+
+    // O host volta as intents HostToHost: as intents sao submetidas antes do ajuste das arvores
+    private void deaggregate(HostId host) {
+        aggregated.remove(host);
+        List<HostId> hostPeers = new ArrayList<>(peersOf(host));
+        Host self = hosts.apply(host);
+        for (HostId peer : hostPeers) {
+            Host other = hosts.apply(peer);
+            if (!aggregated.contains(peer) && self != null && other != null) {
+                pairOps.add(() -> pairIntents.submit(self, other));
+            }
+        }
+        markTree(host);
+        hostPeers.forEach(this::markTree);
+        log.info("Host {} desagregado: {} pares", host, hostPeers.size());
+    }
+
+    // Novo par de um host com arvore: so e preciso recalcula-la se a porta do par ainda nao esta nela
+    private void extendTree(HostId hostId, Host peer) {
+        MultiPointToSinglePointIntent current = trees.get(hostId);
+        if (current == null || !current.ingressPoints().contains(peer.location())) {
+            markTree(hostId);
+        }
+    }
+
+    /**
+     * Submete de novo a arvore do host se suas portas de entrada (os pares cobertos por
+     * arvores) ou sua porta mudaram, ou a retira se ela nao cobre mais nenhum par.
+     */
+    private void refreshTree(HostId hostId) {
+        Host host = hosts.apply(hostId);
+        Set<ConnectPoint> ingress = new HashSet<>();
+        if (host != null) {
+            boolean hostAggregated = aggregated.contains(hostId);
+            for (HostId peerId : peersOf(hostId)) {
+                Host peer = hosts.apply(peerId);
+                if ((hostAggregated || aggregated.contains(peerId)) && peer != null
+                        && !peer.location().equals(host.location())) {
+                    ingress.add(peer.location());
+                }
+            }
+        }
+
+        MultiPointToSinglePointIntent current = trees.get(hostId);
+        if (ingress.isEmpty()) {
+            if (current != null) {
+                trees.remove(hostId);
+                treeHosts.remove(current.key());
+                installed.remove(hostId);
+                intentService.withdraw(current);
+                intentIndex.remove(current.key());
+            }
+            return;
+        }
+        if (current != null && current.ingressPoints().equals(ingress)
+                && current.egressPoint().equals(host.location())) {
+            return;
+        }
+
+        TrafficSelector.Builder selector = DefaultTrafficSelector.builder().matchEthDst(host.mac());
+        if (!host.vlan().equals(VlanId.NONE)) {
+            selector.matchVlanId(host.vlan());
+        }
+        MultiPointToSinglePointIntent tree = MultiPointToSinglePointIntent.builder()
+                .appId(appId)
+                .key(treeKey(hostId))
+                .selector(selector.build())
+                .treatment(DefaultTrafficTreatment.emptyTreatment())
+                .ingressPoints(ingress)
+                .egressPoint(host.location())
+                .build();
+        trees.put(hostId, tree);
+        treeHosts.put(tree.key(), hostId);
+        installed.remove(hostId);
+        intentIndex.submit(tree);
+    }
+}
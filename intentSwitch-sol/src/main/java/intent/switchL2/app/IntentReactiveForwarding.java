@@ -17,27 +17,60 @@ package intent.switchL2.app;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
+import app.commons.BroadcastPoints;
+import app.commons.EthernetHeader;
+import app.commons.IntentIndex;
+import app.commons.LatencyHistogram;
+import app.commons.MacTable;
+import app.commons.PacketBuffer;
+import app.commons.PacketLog;
+import app.commons.PendingFlows;
+import com.google.common.base.Strings;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.Service;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.MacAddress;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
 import org.onosproject.net.Host;
 import org.onosproject.net.HostId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flowobjective.DefaultForwardingObjective;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+import org.onosproject.net.flowobjective.ObjectiveContext;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
 import org.onosproject.net.intent.HostToHostIntent;
 import org.onosproject.net.intent.Intent;
+import org.onosproject.net.intent.IntentEvent;
+import org.onosproject.net.intent.IntentListener;
 import org.onosproject.net.intent.IntentService;
+import org.onosproject.net.intent.IntentState;
+import org.onosproject.net.intent.Key;
+import org.onosproject.net.intent.MultiPointToSinglePointIntent;
 import org.onosproject.net.packet.DefaultOutboundPacket;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
@@ -46,20 +79,75 @@ import org.onosproject.net.packet.PacketPriority;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
 import org.onosproject.net.topology.TopologyService;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * WORK-IN-PROGRESS: Sample reactive forwarding application using intent framework.
  */
 @Component(immediate = true)
-public class IntentReactiveForwarding {
+@Service
+public class IntentReactiveForwarding implements FirstForwardingService {
 
     // Objeto para registrar os eventos no LOG no ONOS
     private final Logger log = getLogger(getClass());
 
+    // Tempo maximo (ms) que um fluxo fica marcado como "intent submetida, ainda nao instalada"
+    // e numero maximo de fluxos marcados
+    private static final long PENDING_FLOW_TIMEOUT = 5000;
+    private static final int PENDING_FLOW_MAX = 50000;
+
+    // Log por pacote: todas as mensagens, ate 10 por segundo de cada uma
+    private static final int PACKET_LOG_SAMPLING = 1;
+    private static final int PACKET_LOG_RATE = 10;
+
+    // Modo hibrido: regras diretas no caminho enquanto a intent e compilada e instalada.
+    // A prioridade das regras diretas deve ser diferente da prioridade das intents (100),
+    // senao as duas regras de um switch teriam o mesmo id e a remocao de uma apagaria a outra
+    private static final boolean DEFAULT_HYBRID_INSTALL = false;
+    private static final int DEFAULT_DIRECT_RULE_PRIORITY = 110;
+    private static final int DEFAULT_DIRECT_RULE_TIMEOUT = 10;
+
+    // Pacotes guardados ate a instalacao da intent: no maximo BUFFER_PACKETS_PER_INTENT por intent
+    // e BUFFER_MAX_BYTES no total; os de intents nao instaladas em PENDING_FLOW_TIMEOUT sao descartados
+    private static final boolean DEFAULT_BUFFER_UNTIL_INSTALLED = false;
+    private static final int BUFFER_PACKETS_PER_INTENT = 32;
+    private static final long BUFFER_MAX_BYTES = 16 * 1024 * 1024;
+
+    // Retirada das intents na desativacao: lotes de chaves processados em paralelo
+    private static final int WITHDRAW_BATCH_SIZE = 500;
+    private static final int WITHDRAW_THREADS = 4;
+
+    // Cache MAC -> host, dimensionado inicialmente para HOST_CACHE_SIZE hosts
+    private static final int HOST_CACHE_SIZE = 1024;
+
+    // Intents adiadas porque a origem ainda nao e um host conhecido: no maximo DEFERRED_SOURCES_MAX
+    // origens com DEFERRED_PER_SOURCE destinos cada; as nao resolvidas em PENDING_FLOW_TIMEOUT sao esquecidas
+    private static final int DEFERRED_SOURCES_MAX = 1024;
+    private static final int DEFERRED_PER_SOURCE = 32;
+
+    // Agregacao por destino: um host com mais de aggregationThreshold pares passa a receber o trafego
+    // por uma arvore MultiPointToSinglePoint, e volta as intents HostToHost com menos de aggregationRelease
+    private static final boolean DEFAULT_AGGREGATE_INTENTS = false;
+    private static final int DEFAULT_AGGREGATION_THRESHOLD = 32;
+    private static final int DEFAULT_AGGREGATION_RELEASE = 16;
+    // As arvores alteradas sao submetidas juntas, no maximo uma vez a cada TREE_DELAY ms
+    private static final long TREE_DELAY = 50;
+
+    // Registros feitos a cada pacote, escritos fora da thread do pacote e limitados por segundo
+    private final PacketLog packetLog = new PacketLog(log, "intent-switch", PACKET_LOG_SAMPLING, PACKET_LOG_RATE);
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
@@ -78,6 +166,46 @@ public class IntentReactiveForwarding {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowRuleService flowRuleService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected FlowObjectiveService flowObjectiveService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Property(name = "hybridInstall", boolValue = DEFAULT_HYBRID_INSTALL,
+            label = "Instala regras diretas no caminho no primeiro packet-in de um par de hosts e as remove " +
+                    "quando a intent do par e instalada; default false")
+    private boolean hybridInstall = DEFAULT_HYBRID_INSTALL;
+
+    @Property(name = "directRulePriority", intValue = DEFAULT_DIRECT_RULE_PRIORITY,
+            label = "Prioridade das regras diretas do modo hibrido (diferente da prioridade das intents); " +
+                    "default 110")
+    private int directRulePriority = DEFAULT_DIRECT_RULE_PRIORITY;
+
+    @Property(name = "directRuleTimeout", intValue = DEFAULT_DIRECT_RULE_TIMEOUT,
+            label = "Tempo (em segundos) sem trafego para uma regra direta expirar, caso a intent nao seja " +
+                    "instalada; default 10")
+    private int directRuleTimeout = DEFAULT_DIRECT_RULE_TIMEOUT;
+
+    @Property(name = "bufferUntilInstalled", boolValue = DEFAULT_BUFFER_UNTIL_INSTALLED,
+            label = "Guarda os pacotes de um par de hosts ate a intent (ou as regras diretas) do par ser " +
+                    "instalada, em vez de envia-los um a um ao destino; default false")
+    private boolean bufferUntilInstalled = DEFAULT_BUFFER_UNTIL_INSTALLED;
+
+    @Property(name = "aggregateIntents", boolValue = DEFAULT_AGGREGATE_INTENTS,
+            label = "Troca as intents HostToHost de um host com muitos pares por arvores " +
+                    "MultiPointToSinglePoint por destino; default false")
+    private boolean aggregateIntents = DEFAULT_AGGREGATE_INTENTS;
+
+    @Property(name = "aggregationThreshold", intValue = DEFAULT_AGGREGATION_THRESHOLD,
+            label = "Numero de pares acima do qual um host e agregado; default 32")
+    private int aggregationThreshold = DEFAULT_AGGREGATION_THRESHOLD;
+
+    @Property(name = "aggregationRelease", intValue = DEFAULT_AGGREGATION_RELEASE,
+            label = "Numero de pares abaixo do qual um host agregado volta as intents HostToHost " +
+                    "(menor que aggregationThreshold); default 16")
+    private int aggregationRelease = DEFAULT_AGGREGATION_RELEASE;
+
     // ID da Aplicacao. Para fins de logs e para atrelar variaveis à aplicacao
     private ApplicationId appId;
 
@@ -89,13 +217,76 @@ public class IntentReactiveForwarding {
     // encaminhe para ele os pacotes capturados pelo controlador
     private ReactivePacketProcessor processor = new ReactivePacketProcessor();
 
+    // Decide se o multicast ou o pacote para destino desconhecido pode ser inundado a partir da porta de entrada
+    private BroadcastPoints broadcastPoints;
+
+    // Chaves das intents submetidas pela aplicacao, retiradas na desativacao
+    private IntentIndex intentIndex;
+
+    // Pares de hosts e arvores por destino (aggregateIntents)
+    private IntentAggregator aggregator;
+
+    // Fluxos cuja intent ja foi submetida: os packet-ins seguintes do fluxo sao apenas
+    // encaminhados ao host de destino ate a intent ser instalada ou o tempo expirar
+    private final PendingFlows<PendingIntent> pendingFlows =
+            new PendingFlows<>(PENDING_FLOW_TIMEOUT, PENDING_FLOW_MAX);
+    private final IntentListener intentListener = new InternalIntentListener();
+
+    // Chaves das intents ja submetidas (uma por par de hosts): um novo packet-in do par
+    // apenas encaminha o pacote, sem submeter a intent de novo
+    private final Set<Key> submittedKeys = ConcurrentHashMap.newKeySet();
+
+    // Pacotes de cada intent submetida, enviados quando ela e instalada (bufferUntilInstalled)
+    private final PacketBuffer<Key> packetBuffer =
+            new PacketBuffer<>(BUFFER_PACKETS_PER_INTENT, BUFFER_MAX_BYTES, PENDING_FLOW_TIMEOUT);
+
+    // Hosts conhecidos por MAC, atualizados pelos eventos de host; consultados a cada packet-in
+    // no lugar de hostService.getHostsByMac
+    private final MacTable<Host> hostsByMac = new MacTable<>(HOST_CACHE_SIZE);
+    private final HostListener hostListener = new InternalHostListener();
+
+    // Intents adiadas por MAC de origem desconhecida, submetidas quando o host de origem e descoberto
+    private final DeferredIntents deferredIntents =
+            new DeferredIntents(PENDING_FLOW_TIMEOUT, DEFERRED_SOURCES_MAX, DEFERRED_PER_SOURCE);
+
+    // Regras diretas (modo hibrido) de cada intent ainda nao instalada, removidas no INSTALLED
+    private final Map<Key, List<DirectRule>> directRules = new ConcurrentHashMap<>();
+    // Regras diretas de intents que falharam: seguem encaminhando o par ate uma delas expirar,
+    // quando todas sao removidas e o proximo packet-in submete a intent de novo
+    private final Map<Key, List<DirectRule>> failedRules = new ConcurrentHashMap<>();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    // Pares cujo encaminhamento ainda nao foi confirmado: instante (ns) do primeiro packet-in e modo
+    private final Map<Key, FirstPacketIn> firstPacketIns = new ConcurrentHashMap<>();
+
+    // Tempo ate o primeiro encaminhamento pela rede, por modo (cli intentSwitch:first-forwarding)
+    private final Map<InstallMode, LatencyHistogram> firstForwarding = new EnumMap<>(InstallMode.class);
+
     /**
      * Rotina que dita o que será executado na ativação da aplicação
      * (app activate <app>)
      */
     @Activate
-    public void activate() {
+    public void activate(ComponentContext context) {
+        for (InstallMode mode : InstallMode.values()) {
+            firstForwarding.put(mode, new LatencyHistogram());
+        }
+        cfgService.registerProperties(getClass());
         appId = coreService.registerApplication("intent.switch.app");
+        intentIndex = new IntentIndex(intentService);
+        aggregator = new IntentAggregator(appId, intentService, intentIndex, this::host, new InternalPairIntents(),
+                                          aggregationThreshold, aggregationRelease, TREE_DELAY);
+        aggregator.start();
+        readComponentConfiguration(context);
+        broadcastPoints = new BroadcastPoints(topologyService);
+        broadcastPoints.start();
+        packetLog.start();
+        // O listener e registrado antes da carga inicial para nao perder hosts descobertos entre as duas;
+        // a carga nao sobrescreve as entradas mais recentes ja gravadas pelo listener
+        hostService.addListener(hostListener);
+        hostService.getHosts().forEach(host -> hostsByMac.putIfAbsent(host.mac().toLong(), host));
+        intentService.addListener(intentListener);
+        flowRuleService.addListener(flowRuleListener);
         packetService.addProcessor(processor, PacketProcessor.ADVISOR_MAX + 2);
         packetService.requestPackets(intercept, PacketPriority.REACTIVE, appId);
         log.info("Aplicacao de Switch com Intents iniciada com ID {}", appId.id());
@@ -109,13 +300,104 @@ public class IntentReactiveForwarding {
     @Deactivate
     public void deactivate() {
         packetService.removeProcessor(processor);
+        broadcastPoints.stop();
         //packetService.cancelPackets(intercept, PacketPriority.REACTIVE, appId);
         processor = null;
+        intentService.removeListener(intentListener);
+        flowRuleService.removeListener(flowRuleListener);
+        hostService.removeListener(hostListener);
+        hostsByMac.clear();
+        deferredIntents.clear();
+        pendingFlows.clearAll();
         flowRuleService.removeFlowRulesById(appId);
+        log.info("Hosts agregados: {}, arvores de destino: {}", aggregator.aggregatedCount(), aggregator.treeCount());
+        aggregator.stop();
         removeIntents();
+        aggregator.clear();
+        submittedKeys.clear();
+        directRules.clear();
+        failedRules.clear();
+        firstPacketIns.clear();
+        packetBuffer.clear();
+        log.info("Pacotes guardados e descartados sem instalacao da intent: {}", packetBuffer.dropped());
+        cfgService.unregisterProperties(getClass(), false);
+        packetLog.stop();
         log.info("Aplicacao finalizada com sucesso");
     }
 
+    /**
+     * Rotina executada quando a configuracao do componente e alterada
+     * (cfg set intent.switchL2.app.IntentReactiveForwarding ...)
+     */
+    @Modified
+    public void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    @Override
+    public LatencyHistogram firstForwardingLatency(InstallMode mode) {
+        return firstForwarding.get(mode);
+    }
+
+    @Override
+    public void resetLatency() {
+        firstForwarding.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Le as propriedades configuraveis do componente (modo hibrido e regras diretas)
+     */
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        hybridInstall = getBooleanProperty(properties, "hybridInstall", DEFAULT_HYBRID_INSTALL);
+        directRulePriority = getIntegerProperty(properties, "directRulePriority", DEFAULT_DIRECT_RULE_PRIORITY);
+        directRuleTimeout = Math.max(getIntegerProperty(properties, "directRuleTimeout",
+                                                        DEFAULT_DIRECT_RULE_TIMEOUT), 1);
+        bufferUntilInstalled = getBooleanProperty(properties, "bufferUntilInstalled",
+                                                  DEFAULT_BUFFER_UNTIL_INSTALLED);
+
+        boolean aggregate = getBooleanProperty(properties, "aggregateIntents", DEFAULT_AGGREGATE_INTENTS);
+        aggregationThreshold = Math.max(getIntegerProperty(properties, "aggregationThreshold",
+                                                           DEFAULT_AGGREGATION_THRESHOLD), 1);
+        aggregationRelease = getIntegerProperty(properties, "aggregationRelease", DEFAULT_AGGREGATION_RELEASE);
+        // Sem uma faixa entre os dois limites a agregacao de um host poderia oscilar a cada novo par
+        if (aggregationRelease >= aggregationThreshold) {
+            log.warn("aggregationRelease ({}) deve ser menor que aggregationThreshold ({}); usando {}",
+                     aggregationRelease, aggregationThreshold, aggregationThreshold / 2);
+            aggregationRelease = aggregationThreshold / 2;
+        }
+        if (aggregate) {
+            aggregator.configure(aggregationThreshold, aggregationRelease);
+        } else if (aggregateIntents) {
+            aggregator.releaseAll();
+        }
+        aggregateIntents = aggregate;
+
+        log.info("Configurado: hybridInstall={}, directRulePriority={}, directRuleTimeout={}, " +
+                         "bufferUntilInstalled={}, aggregateIntents={}, aggregationThreshold={}, " +
+                         "aggregationRelease={}",
+                 hybridInstall, directRulePriority, directRuleTimeout, bufferUntilInstalled,
+                 aggregateIntents, aggregationThreshold, aggregationRelease);
+    }
+
+    /**
+     * Le uma propriedade inteira, usando o valor padrao se ela nao existir ou for invalida
+     */
+    private int getIntegerProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+        String value = Tools.get(properties, name);
+        try {
+            return Strings.isNullOrEmpty(value) ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Valor invalido para {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+
+    private boolean getBooleanProperty(Dictionary<?, ?> properties, String name, boolean defaultValue) {
+        String value = Tools.get(properties, name);
+        return Strings.isNullOrEmpty(value) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
     /**
      * Classe responsável por processar o pacote e encaminha-lo pelo caminho para o destino
      * criando as Intents para os proximos pacotes do fluxo
@@ -129,50 +411,68 @@ public class IntentReactiveForwarding {
                 return;
             }
 
-            // Obtem o pacote de entrada a partir do contexto recebido pela aplicação,
-            // Processa o pacote de entrada (parsed retorna os campos do pacote Ethernet, como src_mac, src_ip, dst_ip, payload, ...
+            // Obtem o pacote de entrada a partir do contexto recebido pela aplicação.
+            // Apenas o cabecalho Ethernet e necessario; ele e lido direto dos bytes recebidos
+            // (sem decodificar o pacote inteiro com parsed())
             InboundPacket pkt = context.inPacket();
-            Ethernet ethPkt = pkt.parsed();
+            ByteBuffer frame = pkt.unparsed();
 
-            if (ethPkt == null) {
+            if (frame == null) {
                 return;
             }
 
             // Nao tratar pacotes de controle (LLDP, BBDP, ...)
-            if (isControlPacket(ethPkt)) {
+            if (isControlPacket(frame)) {
                 return;
             }
 
             // Nao tratar pacote de IPv6 multicast
-            if (isIpv6Multicast(ethPkt) ) {
+            if (isIpv6Multicast(frame) ) {
                 return;
             }
 
             // Realizar flood de pacotes de Multicast que capturarmos
-            if (ethPkt.isMulticast()) {
+            if (EthernetHeader.isMulticast(frame)) {
                 flood(context);
                 return;
             }
 
             // Obtem o host de origem e destino a partir dos respectivos enderecos MACs
-            MacAddress srcMac = ethPkt.getSourceMAC();
-            MacAddress dstMac = ethPkt.getDestinationMAC();
+            long srcAddress = EthernetHeader.srcMac(frame);
+            long dstAddress = EthernetHeader.dstMac(frame);
+            MacAddress srcMac = MacAddress.valueOf(srcAddress);
+            MacAddress dstMac = MacAddress.valueOf(dstAddress);
 
-            Set<Host> srcSet = hostService.getHostsByMac(srcMac);
-            Set<Host> dstSet = hostService.getHostsByMac(dstMac);
+            // A intent deste fluxo ja foi submetida e ainda nao foi instalada: apenas encaminhe
+            // (ou guarde) o pacote
+            PendingIntent pending = pendingFlows.lookup(pkt.receivedFrom().deviceId(), pkt.receivedFrom().port(),
+                                                        srcMac, dstMac);
+            if (pending != null) {
+                bufferOrForward(context, pending.key, pending.dst);
+                return;
+            }
+
+            long start = System.nanoTime();
 
             // Sabemos quem e o destino? Se nao, flood e saia
-            if (!dstSet.iterator().hasNext()) {
+            Host dst = resolveHost(dstAddress);
+            if (dst == null) {
                 flood(context);
                 return;
             }
 
-            Host dst = dstSet.iterator().next();
-            Host src = srcSet.iterator().next();
+            // Origem ainda desconhecida: o pacote vai para o destino e a intent fica adiada ate o
+            // host de origem ser descoberto
+            Host src = resolveHost(srcAddress);
+            if (src == null) {
+                deferIntent(srcMac, dst, start);
+                forwardPacketToDst(context, dst);
+                return;
+            }
 
             // Encaminhe o pacote e finalize
             // Verifique o codigo da funcao installIntent para aprender um pouco sobre como o ONOS lida com a criacao de Intents
-            installIntent(context, src.id(), dst.id());
+            Key key = installPair(pkt.receivedFrom(), src, dst, start);
 
             /*
              * TODO Lab 1: Encaminhando o primeiro pacote para o destino
@@ -185,7 +485,121 @@ public class IntentReactiveForwarding {
              * Voce devera utilizar a funcao forwardPacketToDst, responsavel por encaminhar um pacote (context) para o destino informado (dst).
              * Verifique o código da função para entender o seu funcionamento (linha 188 a 197)
              */
-            forwardPacketToDst(context, dst);
+            bufferOrForward(context, key, dst);
+        }
+    }
+
+    /**
+     * Host com o MAC informado: primeiro no cache, depois no hostService (o host e entao guardado
+     * no cache). Retorna null se o host nao e conhecido
+     */
+    private Host resolveHost(long mac) {
+        Host host = hostsByMac.get(mac);
+        if (host != null) {
+            return host;
+        }
+        Set<Host> hosts = hostService.getHostsByMac(MacAddress.valueOf(mac));
+        if (hosts.isEmpty()) {
+            return null;
+        }
+        // Um evento de host tratado nesse meio tempo prevalece sobre a consulta
+        host = hosts.iterator().next();
+        Host cached = hostsByMac.putIfAbsent(mac, host);
+        return cached != null ? cached : host;
+    }
+
+    /**
+     * Host com o id informado, pelo cache MAC -> host ou pelo hostService
+     */
+    private Host host(HostId hostId) {
+        Host host = hostsByMac.get(hostId.mac().toLong());
+        return host != null && host.id().equals(hostId) ? host : hostService.getHost(hostId);
+    }
+
+    /**
+     * Submete a intent do par src <-> dst (ou, com aggregateIntents, ajusta as arvores de destino
+     * que cobrem o par) e marca como pendentes os dois sentidos do fluxo, o de src entrando por
+     * ingress e o de volta entrando pela porta de dst. Retorna a chave da intent do sentido src -> dst
+     */
+    private Key installPair(ConnectPoint ingress, Host src, Host dst, long start) {
+        Key key = intentKey(src.id(), dst.id());
+        Key forward = key;
+        Key backward = key;
+        boolean forwardPending = true;
+        boolean backwardPending = true;
+        if (!aggregateIntents || !aggregator.addPair(src, dst)) {
+            installIntent(key, src, dst, start);
+        } else {
+            // Cada sentido e coberto pela arvore do seu destino; um sentido cuja arvore ja
+            // esta instalada nao fica pendente, pois nenhum evento o confirmaria
+            forward = aggregator.treeKey(dst.id());
+            backward = aggregator.treeKey(src.id());
+            forwardPending = aggregator.treePending(dst.id());
+            backwardPending = aggregator.treePending(src.id());
+            if (forwardPending) {
+                firstPacketIns.putIfAbsent(forward, new FirstPacketIn(start, InstallMode.INTENT));
+            }
+        }
+
+        // Os sentidos ainda nao instalados ficam pendentes ate a instalacao
+        if (forwardPending) {
+            pendingFlows.register(ingress.deviceId(), ingress.port(), src.mac(), dst.mac(),
+                                  new PendingIntent(forward, dst));
+        }
+        if (backwardPending) {
+            pendingFlows.register(dst.location().deviceId(), dst.location().port(), dst.mac(), src.mac(),
+                                  new PendingIntent(backward, src));
+        }
+        return forward;
+    }
+
+    /**
+     * Adia a intent do fluxo srcMac -> dst ate o host de origem ser descoberto. Um destino ja
+     * adiado para a mesma origem nao e registrado de novo
+     */
+    private void deferIntent(MacAddress srcMac, Host dst, long start) {
+        deferredIntents.defer(srcMac, dst, start);
+        packetLog.info("Origem {} desconhecida: intent para {} adiada", srcMac, dst.id());
+    }
+
+    /**
+     * Submete as intents adiadas do host de origem recem-descoberto
+     */
+    private void retryDeferred(Host src) {
+        List<DeferredIntents.Deferred> deferred = deferredIntents.release(src.mac());
+        if (deferred.isEmpty()) {
+            return;
+        }
+        for (DeferredIntents.Deferred intent : deferred) {
+            // O destino pode ter mudado de lugar enquanto a intent esperava
+            Host dst = hostsByMac.get(intent.dst.mac().toLong());
+            installPair(src.location(), src, dst != null ? dst : intent.dst, intent.nanos);
+        }
+        log.info("Host {} descoberto: {} intents adiadas submetidas", src.id(), deferred.size());
+    }
+
+    /**
+     * Com bufferUntilInstalled, guarda o pacote ate a intent do par ser instalada; sem a opcao,
+     * ou se o buffer da intent esta cheio (ou ja foi drenado), encaminha o pacote ao destino
+     */
+    private void bufferOrForward(PacketContext context, Key key, Host dst) {
+        if (bufferUntilInstalled && packetBuffer.add(key, dst.location(), context.inPacket().unparsed())) {
+            context.block();
+            return;
+        }
+        forwardPacketToDst(context, dst);
+    }
+
+    /**
+     * Envia, na ordem de chegada, os pacotes guardados da intent. O destino e resolvido de novo,
+     * pois o host pode ter mudado de lugar enquanto a intent era instalada
+     */
+    private void drainPackets(Key key) {
+        for (PacketBuffer.BufferedPacket buffered : packetBuffer.drain(key)) {
+            Host dst = hostsByMac.get(EthernetHeader.dstMac(buffered.frame));
+            ConnectPoint destination = dst != null ? dst.location() : buffered.destination;
+            TrafficTreatment treatment = DefaultTrafficTreatment.builder().setOutput(destination.port()).build();
+            packetService.emit(new DefaultOutboundPacket(destination.deviceId(), treatment, buffered.frame));
         }
     }
 
@@ -200,13 +614,43 @@ public class IntentReactiveForwarding {
                                                           treatment, context.inPacket().unparsed());
         // Envia o pacote criado
         packetService.emit(packet);
-        log.info("Enviando o pacote: {}", packet);
+        packetLog.info("Enviando o pacote: {}", packet);
+    }
+
+    /**
+     * Instala uma Intent para o novo fluxo recebido, se a intent do par de hosts ainda nao foi submetida.
+     * No modo hibrido, instala antes as regras diretas no caminho entre os hosts
+     */
+    private void installIntent(Key key, Host src, Host dst, long start) {
+        if (!submittedKeys.add(key)) {
+            return;
+        }
+        if (bufferUntilInstalled) {
+            packetBuffer.open(key);
+        }
+        // As regras diretas de uma tentativa anterior que falhou voltam a ser removidas no INSTALLED
+        List<DirectRule> failed = failedRules.remove(key);
+        if (failed != null) {
+            directRules.put(key, failed);
+        }
+        boolean srcFirst = compare(src.id(), dst.id()) <= 0;
+        HostId one = srcFirst ? src.id() : dst.id();
+        HostId two = srcFirst ? dst.id() : src.id();
+
+        // O par e registrado antes das regras diretas, cuja confirmacao pode chegar a qualquer momento
+        boolean hybrid = hybridInstall;
+        firstPacketIns.put(key, new FirstPacketIn(start, hybrid ? InstallMode.HYBRID : InstallMode.INTENT));
+        if (hybrid && !installDirectRules(key, src, dst)) {
+            firstPacketIns.put(key, new FirstPacketIn(start, InstallMode.INTENT));
+        }
+
+        submitHostToHost(key, one, two);
     }
 
     /**
-     * Instala uma Intent para o novo fluxo recebido
+     * Cria e submete a intent HostToHost do par de hosts (one, two em ordem fixa)
      */
-    private void installIntent(PacketContext context, HostId srcId, HostId dstId) {
+    private void submitHostToHost(Key key, HostId one, HostId two) {
         TrafficSelector selector = DefaultTrafficSelector.emptySelector();
         //TrafficSelector selector = DefaultTrafficSelector.builder().build();
         //TrafficSelector selector = DefaultTrafficSelector.builder().matchEthType(Ethernet.TYPE_IPV4).build();
@@ -217,23 +661,141 @@ public class IntentReactiveForwarding {
         HostToHostIntent intent = HostToHostIntent.builder()
                 //.priority(5)
                 .appId(appId)
-                .one(srcId)
-                .two(dstId)
+                .key(key)
+                .one(one)
+                .two(two)
                 .selector(selector)
                 .treatment(treatment)
                 .build();
 
         // Envia a Intent criada para o framework de intents. O framework ira compilar a intent
         // instala-la e monitorar os eventos da rede que possam afetar a intent.
-        intentService.submit(intent);
+        intentIndex.submit(intent);
+    }
+
+    /**
+     * Pede, nos dois sentidos, as regras do par src <-> dst em todos os switches de um caminho
+     * entre eles, do switch de saida de cada sentido para o de entrada. A confirmacao da regra do
+     * switch de entrada (src -> dst) marca o primeiro encaminhamento do par. Retorna false se nao
+     * ha caminho. O FlowObjectiveService instala cada regra de forma assincrona, por switch, entao
+     * a ordem dos pedidos nao garante a ordem de instalacao: um pacote que chega a um switch ainda
+     * sem regra sobe ao controlador, acha a chave em submittedKeys e e entregue (ou guardado)
+     * direto para o destino, sem instalar o caminho de novo.
+     */
+    private boolean installDirectRules(Key key, Host src, Host dst) {
+        List<Link> links;
+        if (src.location().deviceId().equals(dst.location().deviceId())) {
+            links = Collections.emptyList();
+        } else {
+            Set<Path> paths = topologyService.getPaths(topologyService.currentTopology(),
+                                                       src.location().deviceId(), dst.location().deviceId());
+            if (paths.isEmpty()) {
+                return false;
+            }
+            links = paths.iterator().next().links();
+        }
+
+        // Salto i do sentido src -> dst: switch, porta por onde o fluxo chega e porta por onde sai
+        int hops = links.size() + 1;
+        DeviceId[] devices = new DeviceId[hops];
+        PortNumber[] inPorts = new PortNumber[hops];
+        PortNumber[] outPorts = new PortNumber[hops];
+        for (int i = 0; i < hops; i++) {
+            devices[i] = i == 0 ? src.location().deviceId() : links.get(i - 1).dst().deviceId();
+            inPorts[i] = i == 0 ? src.location().port() : links.get(i - 1).dst().port();
+            outPorts[i] = i == links.size() ? dst.location().port() : links.get(i).src().port();
+        }
+
+        List<DirectRule> rules = new ArrayList<>(2 * hops);
+        // Sentido dst -> src: a saida e o switch de src
+        for (int i = 0; i < hops; i++) {
+            rules.add(new DirectRule(devices[i], directRule(dst.mac(), src.mac(), outPorts[i], inPorts[i]),
+                                    directRulePriority));
+        }
+        // Sentido src -> dst: a saida e o switch de dst, e o switch de entrada fica por ultimo
+        for (int i = hops - 1; i >= 0; i--) {
+            rules.add(new DirectRule(devices[i], directRule(src.mac(), dst.mac(), inPorts[i], outPorts[i]),
+                                    directRulePriority));
+        }
+        directRules.put(key, rules);
+
+        int last = rules.size() - 1;
+        for (int i = 0; i < last; i++) {
+            flowObjectiveService.forward(rules.get(i).deviceId, rules.get(i).objective.add());
+        }
+        flowObjectiveService.forward(rules.get(last).deviceId, rules.get(last).objective.add(new ObjectiveContext() {
+            @Override
+            public void onSuccess(Objective objective) {
+                recordFirstForwarding(key);
+                drainPackets(key);
+            }
+        }));
+        packetLog.info("Instalando regras diretas em {} switches para {}", hops, key);
+        return true;
+    }
+
+    /**
+     * Cria a regra direta (temporaria) do fluxo srcMac -> dstMac que chega pela porta inPort
+     * e sai pela porta outPort; o mesmo builder gera a remocao da regra
+     */
+    private ForwardingObjective.Builder directRule(MacAddress srcMac, MacAddress dstMac,
+                                                   PortNumber inPort, PortNumber outPort) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchInPort(inPort)
+                .matchEthSrc(srcMac)
+                .matchEthDst(dstMac)
+                .build();
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
+                .setOutput(outPort)
+                .build();
+        return DefaultForwardingObjective.builder()
+                .fromApp(appId)
+                .withSelector(selector)
+                .withTreatment(treatment)
+                .withPriority(directRulePriority)
+                .withFlag(ForwardingObjective.Flag.VERSATILE)
+                .makeTemporary(directRuleTimeout);
+    }
+
+    /**
+     * Remove as regras diretas do par (a intent ja encaminha o trafego ou foi retirada)
+     */
+    private void removeDirectRules(Key key) {
+        List<DirectRule> rules = directRules.remove(key);
+        if (rules != null) {
+            rules.forEach(rule -> flowObjectiveService.forward(rule.deviceId, rule.objective.remove()));
+        }
+    }
+
+    /**
+     * Registra o tempo desde o primeiro packet-in do par, na primeira confirmacao de encaminhamento
+     */
+    private void recordFirstForwarding(Key key) {
+        FirstPacketIn first = firstPacketIns.remove(key);
+        if (first != null) {
+            firstForwarding.get(first.mode).record(System.nanoTime() - first.nanos);
+        }
+    }
+
+    /**
+     * Chave da intent do par de hosts. A intent HostToHost cobre os dois sentidos: os dois hosts
+     * vao em ordem fixa, e a chave e a mesma qualquer que seja o host que enviou o pacote
+     */
+    private Key intentKey(HostId a, HostId b) {
+        return compare(a, b) <= 0 ? Key.of(a + "-" + b, appId) : Key.of(b + "-" + a, appId);
+    }
+
+    // Ordena os hosts por MAC e, em seguida, por VLAN
+    private static int compare(HostId a, HostId b) {
+        int byMac = Long.compare(a.mac().toLong(), b.mac().toLong());
+        return byMac != 0 ? byMac : Short.compare(a.vlanId().toShort(), b.vlanId().toShort());
     }
 
     /**
      * Realiza o flood do pacote (portNumber.FLOOD) se for permitido
      */
     private void flood(PacketContext context) {
-        if (topologyService.isBroadcastPoint(topologyService.currentTopology(),
-                                             context.inPacket().receivedFrom())) {
+        if (broadcastPoints.isBroadcastPoint(context.inPacket().receivedFrom())) {
             packetOut(context, PortNumber.FLOOD);
         } else {
             context.block();
@@ -251,28 +813,249 @@ public class IntentReactiveForwarding {
     /**
      * Verifica se o pacote passado como argumento e um pacote de controle
      */
-    private boolean isControlPacket(Ethernet eth) {
-        short type = eth.getEtherType();
-        return type == Ethernet.TYPE_LLDP || type == Ethernet.TYPE_BSN || type == -30398 || type == -31011;
+    private boolean isControlPacket(ByteBuffer frame) {
+        return EthernetHeader.isControlPacket(frame);
     }
 
     /**
      * Verifica se o pacote passado como argumento e um pacote de IPv6 multicast
      */
-    private boolean isIpv6Multicast(Ethernet eth) {
-        return eth.getEtherType() == Ethernet.TYPE_IPV6 && eth.isMulticast();
+    private boolean isIpv6Multicast(ByteBuffer frame) {
+        return EthernetHeader.isIpv6Multicast(frame);
     }
 
     /**
-     * Remove as intents criadas pela nossa aplicação.
+     * Retira da tabela de fluxos pendentes os fluxos cuja intent acabou de ser instalada (junto com
+     * as regras diretas do par), enviando os pacotes guardados, e do indice de chaves as intents que
+     * falharam ou foram retiradas, descartando seus pacotes (o proximo packet-in do par as submete de novo).
+     * As arvores de destino sao tratadas em treeEvent
      */
-    private void removeIntents() {
-        Iterable<Intent> intentsList = intentService.getIntents();
-        for ( Intent intent : intentsList) {
-            boolean toRemove = Objects.equals(appId, intent.appId());
-            if (toRemove) {
+    private class InternalIntentListener implements IntentListener {
+        @Override
+        public void event(IntentEvent event) {
+            if (!Objects.equals(appId, event.subject().appId())) {
+                return;
+            }
+            if (event.subject() instanceof MultiPointToSinglePointIntent) {
+                treeEvent(event);
+                return;
+            }
+            if (!(event.subject() instanceof HostToHostIntent)) {
+                return;
+            }
+            Key key = event.subject().key();
+            // Retirada por agregacao de um par que ja foi submetido de novo: o estado e o da nova intent
+            if (event.type() == IntentEvent.Type.WITHDRAWN && resubmitted(key)) {
+                return;
+            }
+            if (event.type() == IntentEvent.Type.FAILED || event.type() == IntentEvent.Type.WITHDRAWN) {
+                // Numa falha as regras diretas ficam ate expirar, pois so elas encaminham o par; o
+                // InternalFlowRuleListener as esquece entao, e o proximo packet-in submete a intent
+                if (event.type() == IntentEvent.Type.WITHDRAWN) {
+                    removeDirectRules(key);
+                    intentIndex.remove(key);
+                } else {
+                    List<DirectRule> rules = directRules.remove(key);
+                    if (rules != null) {
+                        failedRules.put(key, rules);
+                    }
+                }
+                firstPacketIns.remove(key);
+                packetBuffer.discard(key);
+                submittedKeys.remove(key);
+                return;
+            }
+            if (event.type() != IntentEvent.Type.INSTALLED) {
+                return;
+            }
+            recordFirstForwarding(key);
+            drainPackets(key);
+            removeDirectRules(key);
+            HostToHostIntent intent = (HostToHostIntent) event.subject();
+            pendingFlows.clearFlow(intent.one().mac(), intent.two().mac());
+            pendingFlows.clearFlow(intent.two().mac(), intent.one().mac());
+        }
+    }
+
+    /**
+     * Instalacao de uma arvore de destino: confirma os fluxos dos pares cobertos por ela. Na falha
+     * (ou retirada) os fluxos pendentes da arvore sao esquecidos e, numa falha, a arvore tambem:
+     * o proximo packet-in de um par a submete de novo
+     */
+    private void treeEvent(IntentEvent event) {
+        Intent tree = event.subject();
+        Key key = tree.key();
+        switch (event.type()) {
+            case INSTALLED:
+                HostId host = aggregator.treeInstalled(tree);
+                if (host != null) {
+                    recordFirstForwarding(key);
+                    for (HostId peer : aggregator.treePeers(host)) {
+                        pendingFlows.clearFlow(peer.mac(), host.mac());
+                    }
+                }
+                break;
+            case FAILED:
+                if (aggregator.treeFailed(tree)) {
+                    discardTree(key);
+                }
+                break;
+            case WITHDRAWN:
+                if (!resubmitted(key)) {
+                    discardTree(key);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Esquece o primeiro packet-in e os fluxos pendentes da arvore
+    private void discardTree(Key key) {
+        firstPacketIns.remove(key);
+        pendingFlows.clearMatching(pending -> pending.key.equals(key));
+    }
+
+    /**
+     * Quando expira uma regra direta de uma intent que falhou, remove as demais regras do par: o
+     * caminho deixa de ser usado pela metade e o proximo packet-in do par submete a intent de novo
+     */
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (event.type() != FlowRuleEvent.Type.RULE_REMOVED || rule.appId() != appId.id()
+                    || failedRules.isEmpty()) {
+                return;
+            }
+            for (Map.Entry<Key, List<DirectRule>> entry : failedRules.entrySet()) {
+                if (entry.getValue().stream().anyMatch(direct -> direct.matches(rule))
+                        && failedRules.remove(entry.getKey(), entry.getValue())) {
+                    entry.getValue().forEach(direct -> flowObjectiveService.forward(direct.deviceId,
+                                                                                    direct.objective.remove()));
+                    packetLog.info("Regras diretas de {} expiraram depois da falha da intent", entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Mantem o cache MAC -> host com os eventos de host e submete as intents adiadas da origem
+     * quando ela e descoberta
+     */
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            Host host = event.subject();
+            long mac = host.mac().toLong();
+            switch (event.type()) {
+                case HOST_ADDED:
+                case HOST_UPDATED:
+                    hostsByMac.put(mac, host);
+                    retryDeferred(host);
+                    break;
+                case HOST_MOVED:
+                    hostsByMac.put(mac, host);
+                    aggregator.hostMoved(host.id());
+                    retryDeferred(host);
+                    break;
+                case HOST_REMOVED:
+                    // So retira a entrada se ela ainda e deste host (o MAC pode estar em outra VLAN)
+                    Host cached = hostsByMac.get(mac);
+                    if (cached != null && cached.id().equals(host.id())) {
+                        hostsByMac.remove(mac, cached);
+                    }
+                    aggregator.hostRemoved(host.id());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Intents HostToHost dos pares que entram ou saem das arvores de destino
+     */
+    private class InternalPairIntents implements IntentAggregator.PairIntents {
+        @Override
+        public void submit(Host one, Host two) {
+            Key key = intentKey(one.id(), two.id());
+            if (submittedKeys.add(key)) {
+                boolean oneFirst = compare(one.id(), two.id()) <= 0;
+                submitHostToHost(key, oneFirst ? one.id() : two.id(), oneFirst ? two.id() : one.id());
+            }
+        }
+
+        @Override
+        public void withdraw(HostId one, HostId two) {
+            Key key = intentKey(one, two);
+            // Liberada ja, para o par poder ser submetido de novo antes do evento WITHDRAWN
+            submittedKeys.remove(key);
+            intentIndex.remove(key);
+            Intent intent = intentService.getIntent(key);
+            if (intent != null) {
                 intentService.withdraw(intent);
             }
         }
     }
+
+    /**
+     * Verifica se a intent da chave, cujo WITHDRAWN acabou de chegar, ja foi submetida de novo
+     */
+    private boolean resubmitted(Key key) {
+        IntentState state = intentService.getIntentState(key);
+        return state != null && state != IntentState.WITHDRAWN;
+    }
+
+    // Regra direta instalada em um switch
+    private static final class DirectRule {
+        private final DeviceId deviceId;
+        private final ForwardingObjective.Builder objective;
+        private final TrafficSelector selector;
+        private final int priority;
+
+        private DirectRule(DeviceId deviceId, ForwardingObjective.Builder objective, int priority) {
+            this.deviceId = deviceId;
+            this.objective = objective;
+            this.selector = objective.add().selector();
+            this.priority = priority;
+        }
+
+        // Indica se a regra de fluxo e a desta regra direta
+        private boolean matches(FlowRule rule) {
+            return rule.deviceId().equals(deviceId) && rule.priority() == priority
+                    && rule.selector().equals(selector);
+        }
+    }
+
+    // Fluxo com intent pendente: chave da intent e host de destino do fluxo
+    private static final class PendingIntent {
+        private final Key key;
+        private final Host dst;
+
+        private PendingIntent(Key key, Host dst) {
+            this.key = key;
+            this.dst = dst;
+        }
+    }
+
+    // Primeiro packet-in de um par de hosts ainda sem encaminhamento confirmado
+    private static final class FirstPacketIn {
+        private final long nanos;
+        private final InstallMode mode;
+
+        private FirstPacketIn(long nanos, InstallMode mode) {
+            this.nanos = nanos;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Remove as intents criadas pela nossa aplicação, pelo indice de chaves, e depois as da aplicacao
+     * fora do indice (deixadas por uma ativacao anterior)
+     */
+    private void removeIntents() {
+        long withdrawn = intentIndex.withdrawEverything(appId, WITHDRAW_BATCH_SIZE, WITHDRAW_THREADS);
+        log.info("Intents retiradas: {}", withdrawn);
+    }
 }
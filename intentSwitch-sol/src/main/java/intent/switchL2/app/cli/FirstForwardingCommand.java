@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app.cli;
+
+import app.commons.LatencyHistogram;
+import intent.switchL2.app.FirstForwardingService;
+import intent.switchL2.app.FirstForwardingService.InstallMode;
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * CLI para listar o tempo ate o primeiro encaminhamento pela rede de cada novo par
+ * de hosts, separado pelo modo de instalacao (intent ou hibrido).
+ */
+@Command(scope = "intentSwitch", name = "first-forwarding",
+        description = "Lista o tempo entre o primeiro packet-in de um par de hosts e a instalacao do encaminhamento")
+public class FirstForwardingCommand extends AbstractShellCommand {
+
+    private static final String FORMAT = "%-10s %10s %10s %10s %10s %10s %10s";
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    @Option(name = "-r", aliases = "--reset", description = "Zera as latencias depois de lista-las",
+            required = false, multiValued = false)
+    boolean reset = false;
+
+    @Override
+    protected void execute() {
+        FirstForwardingService service = get(FirstForwardingService.class);
+
+        print(FORMAT, "modo", "pares", "media(ms)", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)");
+        for (InstallMode mode : InstallMode.values()) {
+            LatencyHistogram latency = service.firstForwardingLatency(mode);
+            print(FORMAT, mode, latency.count(),
+                  millis(latency.mean()), millis(latency.percentile(50)), millis(latency.percentile(99)),
+                  millis(latency.percentile(99.9)), millis(latency.max()));
+        }
+
+        if (reset) {
+            service.resetLatency();
+            print("Latencias zeradas");
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / NANOS_PER_MILLI);
+    }
+}
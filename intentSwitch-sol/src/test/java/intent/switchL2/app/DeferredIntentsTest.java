@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Tests of the intents deferred until their source host is discovered.
+ */
+public class DeferredIntentsTest {
+
+    private static final ProviderId PID = new ProviderId("of", "deferred");
+    private static final MacAddress SOURCE = MacAddress.valueOf(100L);
+
+    @Test
+    public void releasesEachDestinationOnceInArrivalOrder() {
+        DeferredIntents deferred = new DeferredIntents(1000, 16, 8);
+        assertTrue(deferred.defer(SOURCE, host(2), 20));
+        assertTrue(deferred.defer(SOURCE, host(1), 10));
+        assertFalse(deferred.defer(SOURCE, host(2), 30));
+        assertEquals(1, deferred.size());
+
+        List<DeferredIntents.Deferred> released = deferred.release(SOURCE);
+        assertEquals(2, released.size());
+        assertEquals(host(2), released.get(0).dst);
+        assertEquals(20, released.get(0).nanos);
+        assertEquals(host(1), released.get(1).dst);
+
+        // Liberada: nada mais a submeter para a origem
+        assertTrue(deferred.release(SOURCE).isEmpty());
+    }
+
+    @Test
+    public void overflowIsDropped() {
+        DeferredIntents deferred = new DeferredIntents(1000, 16, 2);
+        assertTrue(deferred.defer(SOURCE, host(1), 0));
+        assertTrue(deferred.defer(SOURCE, host(2), 0));
+        assertFalse(deferred.defer(SOURCE, host(3), 0));
+        assertEquals(2, deferred.release(SOURCE).size());
+    }
+
+    @Test
+    public void undiscoveredSourcesExpire() throws InterruptedException {
+        DeferredIntents deferred = new DeferredIntents(20, 16, 8);
+        assertTrue(deferred.defer(SOURCE, host(1), 0));
+        Thread.sleep(50);
+        assertTrue(deferred.release(SOURCE).isEmpty());
+        assertTrue(deferred.defer(SOURCE, host(1), 0));
+    }
+
+    // Host 00:00:00:00:00:<index> on its own switch
+    private static Host host(int index) {
+        HostId id = HostId.hostId(MacAddress.valueOf((long) index), VlanId.NONE);
+        return new DefaultHost(PID, id, id.mac(), VlanId.NONE,
+                               new HostLocation(did("s" + index), PortNumber.portNumber(1), 0),
+                               ImmutableSet.of());
+    }
+}
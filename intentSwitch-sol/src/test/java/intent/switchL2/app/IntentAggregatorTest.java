@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package intent.switchL2.app;
+
+import app.commons.IntentIndex;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.TestApplicationId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.IdGenerator;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.intent.Intent;
+import org.onosproject.net.intent.IntentServiceAdapter;
+import org.onosproject.net.intent.Key;
+import org.onosproject.net.intent.MockIdGenerator;
+import org.onosproject.net.intent.MultiPointToSinglePointIntent;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Tests of the per-destination intent aggregation.
+ */
+public class IntentAggregatorTest {
+
+    private static final ApplicationId APP = new TestApplicationId("aggregator");
+    private static final ProviderId PID = new ProviderId("of", "aggregator");
+
+    private final IdGenerator idGenerator = new MockIdGenerator();
+    private final FakeIntentService intentService = new FakeIntentService();
+    private final Map<HostId, Host> hosts = new HashMap<>();
+    private final List<String> pairs = new ArrayList<>();
+    private final Set<Set<HostId>> withdrawn = new HashSet<>();
+
+    private final Host dst = host(1);
+    private final Host a = host(2);
+    private final Host b = host(3);
+    private final Host c = host(4);
+
+    private IntentAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        Intent.bindIdGenerator(idGenerator);
+    }
+
+    @After
+    public void tearDown() {
+        if (aggregator != null) {
+            aggregator.stop();
+        }
+        Intent.unbindIdGenerator(idGenerator);
+    }
+
+    @Test
+    public void aggregatesPopularDestinationAndReleasesIt() {
+        aggregator = aggregator(0);
+        assertFalse(aggregator.addPair(a, dst));
+        assertFalse(aggregator.addPair(b, dst));
+        assertTrue(aggregator.addPair(c, dst));
+
+        assertEquals(1, aggregator.aggregatedCount());
+        assertEquals(4, aggregator.treeCount());
+        assertEquals(3, tree(dst).ingressPoints().size());
+        assertEquals(ImmutableSet.of(dst.location()), tree(a).ingressPoints());
+        assertEquals(3, aggregator.treePeers(dst.id()).size());
+
+        // A host-to-host intent is only withdrawn once the trees of both hosts are installed
+        assertTrue(pairs.isEmpty());
+        aggregator.treeInstalled(tree(dst));
+        aggregator.treeInstalled(tree(a));
+        aggregator.treeInstalled(tree(b));
+        assertEquals(ImmutableSet.of("withdraw " + a.id(), "withdraw " + b.id()), ImmutableSet.copyOf(pairs));
+        aggregator.treeInstalled(tree(c));
+        assertEquals(3, pairs.size());
+        assertTrue(pairs.contains("withdraw " + c.id()));
+
+        pairs.clear();
+        aggregator.hostRemoved(c.id());
+        assertEquals(0, aggregator.aggregatedCount());
+        assertEquals(0, aggregator.treeCount());
+        assertEquals(ImmutableSet.of("pair " + a.id(), "pair " + b.id()), ImmutableSet.copyOf(pairs));
+        assertTrue(intentService.withdrawn.contains(aggregator.treeKey(dst.id())));
+    }
+
+    @Test
+    public void failedTreeIsResubmittedByTheNextPair() {
+        aggregator = aggregator(0);
+        aggregate();
+        MultiPointToSinglePointIntent failed = tree(dst);
+        assertTrue(aggregator.treePending(dst.id()));
+
+        assertTrue(aggregator.treeFailed(failed));
+        assertFalse(aggregator.treeFailed(failed));
+        assertEquals(3, aggregator.treeCount());
+        assertFalse(aggregator.treePending(dst.id()));
+
+        assertTrue(aggregator.addPair(a, dst));
+        assertEquals(4, aggregator.treeCount());
+        assertFalse(failed.id().equals(tree(dst).id()));
+        assertEquals(3, tree(dst).ingressPoints().size());
+    }
+
+    @Test
+    public void onlyTheLatestTreeIsConfirmed() {
+        aggregator = aggregator(0);
+        aggregate();
+        MultiPointToSinglePointIntent first = tree(dst);
+        Host d = host(5);
+        assertTrue(aggregator.addPair(d, dst));
+
+        assertNull(aggregator.treeInstalled(first));
+        assertTrue(aggregator.treePending(dst.id()));
+        assertEquals(dst.id(), aggregator.treeInstalled(tree(dst)));
+        assertFalse(aggregator.treePending(dst.id()));
+    }
+
+    @Test
+    public void treeChangesAreCoalesced() {
+        aggregator = aggregator(60000);
+        aggregator.start();
+        aggregate();
+        for (int i = 5; i < 25; i++) {
+            assertTrue(aggregator.addPair(host(i), dst));
+        }
+        assertEquals(0, intentService.submissions(aggregator.treeKey(dst.id())));
+        assertTrue(aggregator.treePending(dst.id()));
+
+        aggregator.flushTrees();
+        assertEquals(1, intentService.submissions(aggregator.treeKey(dst.id())));
+        assertEquals(23, tree(dst).ingressPoints().size());
+    }
+
+    @Test
+    public void popularDestinationsSharingPeersNeedFewerIntents() {
+        aggregator = aggregator(0, 3, 3);
+        List<Host> destinations = ImmutableList.of(dst, host(5), host(6));
+        List<Host> peers = ImmutableList.of(a, b, c, host(7), host(8));
+        Set<Set<HostId>> pairIntents = new HashSet<>();
+        for (Host destination : destinations) {
+            for (Host peer : peers) {
+                if (!aggregator.addPair(peer, destination)) {
+                    pairIntents.add(ImmutableSet.of(peer.id(), destination.id()));
+                }
+            }
+        }
+        for (Host host : hosts.values()) {
+            if (tree(host) != null) {
+                aggregator.treeInstalled(tree(host));
+            }
+        }
+
+        // 3 destinations x 5 peers: 15 host-to-host intents without aggregation, 3 + 5 trees with it
+        assertEquals(3, aggregator.aggregatedCount());
+        assertEquals(8, aggregator.treeCount());
+        assertEquals(9, pairIntents.size());
+        assertTrue(withdrawn.containsAll(pairIntents));
+    }
+
+    // Three peers for dst with a threshold of 2: dst moves to the trees
+    private void aggregate() {
+        assertFalse(aggregator.addPair(a, dst));
+        assertFalse(aggregator.addPair(b, dst));
+        assertTrue(aggregator.addPair(c, dst));
+    }
+
+    private IntentAggregator aggregator(long treeDelay) {
+        return aggregator(treeDelay, 2, 3);
+    }
+
+    private IntentAggregator aggregator(long treeDelay, int threshold, int release) {
+        IntentAggregator.PairIntents pairIntents = new IntentAggregator.PairIntents() {
+            @Override
+            public void submit(Host one, Host two) {
+                pairs.add("pair " + (one.equals(dst) ? two.id() : one.id()));
+            }
+
+            @Override
+            public void withdraw(HostId one, HostId two) {
+                pairs.add("withdraw " + (one.equals(dst.id()) ? two : one));
+                withdrawn.add(ImmutableSet.of(one, two));
+            }
+        };
+        return new IntentAggregator(APP, intentService, new IntentIndex(intentService), hosts::get,
+                                    pairIntents, threshold, release, treeDelay);
+    }
+
+    private MultiPointToSinglePointIntent tree(Host host) {
+        return (MultiPointToSinglePointIntent) intentService.intents.get(aggregator.treeKey(host.id()));
+    }
+
+    // Each host on its own switch
+    private Host host(int index) {
+        HostId id = HostId.hostId(MacAddress.valueOf(index), VlanId.NONE);
+        Host host = new DefaultHost(PID, id, id.mac(), VlanId.NONE,
+                                    new HostLocation(did("s" + index), PortNumber.portNumber(1), 0),
+                                    ImmutableSet.of());
+        hosts.put(id, host);
+        return host;
+    }
+
+    private static class FakeIntentService extends IntentServiceAdapter {
+        final Map<Key, Intent> intents = new HashMap<>();
+        final Map<Key, Integer> submitted = new HashMap<>();
+        final List<Key> withdrawn = new ArrayList<>();
+
+        @Override
+        public void submit(Intent intent) {
+            intents.put(intent.key(), intent);
+            submitted.merge(intent.key(), 1, Integer::sum);
+        }
+
+        @Override
+        public void withdraw(Intent intent) {
+            withdrawn.add(intent.key());
+            intents.remove(intent.key());
+        }
+
+        @Override
+        public Intent getIntent(Key key) {
+            return intents.get(key);
+        }
+
+        int submissions(Key key) {
+            return submitted.getOrDefault(key, 0);
+        }
+    }
+}
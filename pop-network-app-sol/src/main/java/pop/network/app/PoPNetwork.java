@@ -15,6 +15,9 @@
  */
 package pop.network.app;
 
+import app.commons.EthernetHeader;
+import app.commons.IntentIndex;
+import app.commons.PacketLog;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
@@ -22,7 +25,6 @@ import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.onlab.packet.ARP;
 import org.onlab.packet.Ethernet;
-import org.onlab.packet.IPv4;
 import org.onlab.packet.Ip4Address;
 import org.onlab.packet.IpAddress;
 import org.onlab.packet.IpPrefix;
@@ -40,7 +42,6 @@ import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.host.HostService;
-import org.onosproject.net.intent.Intent;
 import org.onosproject.net.intent.IntentService;
 import org.onosproject.net.intent.Key;
 import org.onosproject.net.intent.PointToPointIntent;
@@ -55,7 +56,6 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
@@ -69,8 +69,16 @@ public class PoPNetwork {
     // Objeto para registrar os eventos no LOG no ONOS
     private static Logger log = LoggerFactory.getLogger(PoPNetwork.class);
 
+    // Log por pacote: todas as mensagens, ate 10 por segundo de cada uma
+    private static final int PACKET_LOG_SAMPLING = 1;
+    private static final int PACKET_LOG_RATE = 10;
+
     public static final String INTENT_FORMAT = "%s~%s";
 
+    // Retirada das intents na desativacao: lotes de chaves processados em paralelo
+    private static final int WITHDRAW_BATCH_SIZE = 500;
+    private static final int WITHDRAW_THREADS = 4;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
@@ -108,6 +116,12 @@ public class PoPNetwork {
 
     private ArrayList<IpAddress> defaultRouter = null;
 
+    // Chaves das intents submetidas pela aplicacao, retiradas na desativacao
+    private IntentIndex intentIndex;
+
+    // Registros feitos a cada pacote, escritos fora da thread do pacote e limitados por segundo
+    private final PacketLog packetLog = new PacketLog(log, "pop", PACKET_LOG_SAMPLING, PACKET_LOG_RATE);
+
     /**
      * Rotina que dita o que será executado na ativação da aplicação
      * (app activate <app>)
@@ -115,6 +129,8 @@ public class PoPNetwork {
     @Activate
     public void activate() {
         appId = coreService.registerApplication("pop.network.app");
+        intentIndex = new IntentIndex(intentService);
+        packetLog.start();
 
         // Le e carrega as configuracoes da rede e dos clientes dos arquivos de configuracao
         clientes = RoutingConfigReader.clientesPoP;
@@ -140,6 +156,7 @@ public class PoPNetwork {
         clientes.clear();
         networks.clear();
         removeIntents();
+        packetLog.stop();
         log.info("Parando a execucao da aplicacao PoP");
     }
 
@@ -150,10 +167,14 @@ public class PoPNetwork {
 
         Host dstHost = hostService.getHost(dstHostId);
 
-        log.info("Alterando par de MAC original {}<-->{} para {}<-->{}", context.inPacket().parsed().getSourceMAC(), context.inPacket().parsed().getDestinationMAC(), virtual, dstHost.mac());
+        // Os MACs originais sao lidos do cabecalho apenas se a mensagem for de fato registrada
+        ByteBuffer frame = context.inPacket().unparsed();
+        packetLog.info("Alterando par de MAC original {}<-->{} para {}<-->{}",
+                       () -> new Object[]{MacAddress.valueOf(EthernetHeader.srcMac(frame)),
+                               MacAddress.valueOf(EthernetHeader.dstMac(frame)), virtual, dstHost.mac()});
         context.inPacket().parsed().setDestinationMACAddress(dstHost.mac());
         context.inPacket().parsed().setSourceMACAddress(virtual);
-        log.info("MACs do pacote recebido alterado");
+        packetLog.info("MACs do pacote recebido alterado");
 
         installIntent(context, srcHostId, dstHostId, rotaEscolhida);
     }
@@ -232,16 +253,16 @@ public class PoPNetwork {
      * Processq os pacotes recebidos e encaminha-os para o destino
      * criando as Intents para os proximos pacotes do fluxo
      */
-    private void processPacket(PacketContext context, Ethernet eth) {
+    private void processPacket(PacketContext context, ByteBuffer frame) {
 
         // Se o pacote já foi processado por outro modulo, não faça nada
         if (context.isHandled()) {
             return;
         }
 
-        IPv4 ipv4Packet = (IPv4) eth.getPayload();
-        Ip4Address dstIp = Ip4Address.valueOf(ipv4Packet.getDestinationAddress());
-        Ip4Address srcIp = Ip4Address.valueOf((ipv4Packet.getSourceAddress()));
+        // Enderecos lidos direto do cabecalho; o pacote so e decodificado se for reescrito
+        Ip4Address dstIp = Ip4Address.valueOf(EthernetHeader.ipv4Dst(frame));
+        Ip4Address srcIp = Ip4Address.valueOf(EthernetHeader.ipv4Src(frame));
 
         Set<IpPrefix> rotas = clientes.keySet();
 
@@ -256,7 +277,7 @@ public class PoPNetwork {
 
         for (IpPrefix rota : rotas) {
             if (rota.contains(dstIp)) {
-                log.warn("Procurando a rota para o ip de destino {} ", dstIp);
+                packetLog.warn("Procurando a rota para o ip de destino {} ", dstIp);
                 Random rand = new Random(System.currentTimeMillis());
                 int index = rand.nextInt(clientes.get(rota).size());
                 Iterator<IpAddress> iter = clientes.get(rota).iterator();
@@ -270,11 +291,11 @@ public class PoPNetwork {
         }
 
         if (routerIp == null && defaultRouter == null) {
-            log.warn("Nao ha rota para IP de Destino {}. E não há rota default configurada", dstIp);
+            packetLog.warn("Nao ha rota para IP de Destino {}. E não há rota default configurada", dstIp);
             context.block();
             return;
         } else if (routerIp == null) {
-            log.warn("Nao ha rota para IP de Destino {}. Enviando para rota default", dstIp);
+            packetLog.warn("Nao ha rota para IP de Destino {}. Enviando para rota default", dstIp);
             Random rand = new Random(System.currentTimeMillis());
             int index = rand.nextInt(defaultRouter.size());
             Iterator<IpAddress> iter = defaultRouter.iterator();
@@ -287,7 +308,7 @@ public class PoPNetwork {
         }
 
         Set<Host> dstHosts = hostService.getHostsByIp(routerIp);
-        MacAddress srcMac = eth.getSourceMAC();
+        MacAddress srcMac = MacAddress.valueOf(EthernetHeader.srcMac(frame));
 
         //while (dstHosts.isEmpty()) {
         if (dstHosts.isEmpty())  {
@@ -306,8 +327,8 @@ public class PoPNetwork {
     /**
      * Verifica se o EtherType (tipo) do pacote é IPv4
      */
-    private boolean isIpv4Packet(Ethernet eth) {
-        return eth.getEtherType() == Ethernet.TYPE_IPV4;
+    private boolean isIpv4Packet(ByteBuffer frame) {
+        return EthernetHeader.etherType(frame) == Ethernet.TYPE_IPV4;
     }
 
     /**
@@ -317,22 +338,21 @@ public class PoPNetwork {
     private class PopPacketProcessor implements PacketProcessor {
         @Override
         public void process(PacketContext context) {
-            Ethernet eth = context.inPacket().parsed();
+            ByteBuffer frame = context.inPacket().unparsed();
 
             // Saia se for um pacote de controle
-            if (isControlPacket(eth) || !isIpv4Packet(eth)) {
+            if (frame == null || isControlPacket(frame) || !isIpv4Packet(frame)) {
                 return;
             }
-            processPacket(context, eth);
+            processPacket(context, frame);
         }
     }
 
     /**
      * Verifica se o pacote passado como argumento e um pacote de controle (lldp, bbdp, etc)
      */
-    private boolean isControlPacket(Ethernet eth) {
-        short type = eth.getEtherType();
-        return type == Ethernet.TYPE_LLDP || type == Ethernet.TYPE_BSN || type == -30398 || type == -31011;
+    private boolean isControlPacket(ByteBuffer frame) {
+        return EthernetHeader.isControlPacket(frame);
     }
 
     /**
@@ -340,13 +360,11 @@ public class PoPNetwork {
      */
     private void installIntent(PacketContext context, HostId srcHost, HostId dstHost, IpPrefix rotaEscolhida) {
 
-        Ethernet inPkt = context.inPacket().parsed();
         TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
 
         Host srcRouter = hostService.getHost(srcHost);
         Host dstRouter = hostService.getHost(dstHost);
 
-        IPv4 ipv4Packet = (IPv4) inPkt.getPayload();
 
         // Porta de saida do pacote - SW onde o pacote deve ser encaminhado para o host de destino
         ConnectPoint egress =  new ConnectPoint(DeviceId.deviceId(dstRouter.location().deviceId().uri()),
@@ -355,7 +373,7 @@ public class PoPNetwork {
         ConnectPoint ingress =  new ConnectPoint(DeviceId.deviceId(srcRouter.location().deviceId().uri()),
                                                  PortNumber.portNumber(srcRouter.location().port().toLong()));
 
-        Key key = Key.of(format(INTENT_FORMAT, srcHost, Ip4Address.valueOf(ipv4Packet.getDestinationAddress())), appId);
+        Key key = Key.of(format(INTENT_FORMAT, srcHost, Ip4Address.valueOf(EthernetHeader.ipv4Dst(context.inPacket().unparsed()))), appId);
 
         // Seletor do tráfego (match no mac de origem, mac de destino e IP de destino
         selectorBuilder.matchInPort(context.inPacket().receivedFrom().port())
@@ -388,24 +406,19 @@ public class PoPNetwork {
                 .treatment(treatment)
                 .build();
 
-        log.info("Intent do tipo PointToPoint criada {}", intent);
-        intentService.submit(intent);
+        packetLog.info("Intent do tipo PointToPoint criada {}", intent);
+        intentIndex.submit(intent);
 
         // evita perder o primeiro pacote (envia ele diretamente para o destino apos processamento)
         packetOutPort(context, egress);
     }
 
     /**
-     * Remove as intents criadas pela nossa aplicação.
+     * Remove as intents criadas pela nossa aplicação, pelo indice de chaves, e depois as da aplicacao
+     * fora do indice (deixadas por uma ativacao anterior)
      */
     private void removeIntents() {
-        Iterable<Intent> intentsList = intentService.getIntents();
-        for ( Intent intent : intentsList) {
-            boolean toRemove = Objects.equals(appId, intent.appId());
-            if (toRemove) {
-                intentService.withdraw(intent);
-                intentService.purge(intent);
-            }
-        }
+        long withdrawn = intentIndex.withdrawEverything(appId, WITHDRAW_BATCH_SIZE, WITHDRAW_THREADS);
+        log.info("Intents retiradas: {}", withdrawn);
     }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@
  */
 package proactive.firewall.app;
 
+import app.commons.FlowRuleBatcher;
 import com.google.common.collect.HashMultimap;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -52,6 +53,12 @@ public class ProactiveFirewall implements FirewallService{
 
     private static final int DROP_PRIORITY = 129;
 
+    // As regras de cada switch sao aplicadas em um unico lote a cada
+    // RULE_BATCH_DELAY ms ou assim que RULE_BATCH_SIZE regras se acumularem
+    private static final int RULE_BATCH_SIZE = 200;
+    private static final long RULE_BATCH_DELAY = 10;
+    private static final int RULE_BATCH_THREADS = 1;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
@@ -63,6 +70,8 @@ public class ProactiveFirewall implements FirewallService{
 
     private ApplicationId appId;
 
+    private FlowRuleBatcher flowRuleBatcher;
+
     private final HashSet<BlockRecord> srcBlockList = new HashSet<>();
     private final HashSet<BlockRecord> dstBlockList = new HashSet<>();
 
@@ -71,11 +80,15 @@ public class ProactiveFirewall implements FirewallService{
     @Activate
     public void activate() {
         appId = coreService.registerApplication("proactive.firewall.app");
+        flowRuleBatcher = new FlowRuleBatcher(flowRuleService, "firewall-rules",
+                                              RULE_BATCH_SIZE, RULE_BATCH_DELAY, RULE_BATCH_THREADS);
+        flowRuleBatcher.start();
         log.info("Started");
     }
 
     @Deactivate
     public void deactivate() {
+        flowRuleBatcher.stop();
         flowRuleService.removeFlowRulesById(appId);
         srcBlockList.clear();
         dstBlockList.clear();
@@ -207,6 +220,8 @@ public class ProactiveFirewall implements FirewallService{
          * Para limpar todas as regras, iremos remover as regras de fluxos criadas (utilize a funcao removeFlowRulesById, do servico de flowRule do ONOS)
          * pela aplicação (appId) e limpar as regras armazenadas no banco de dados da aplicacao (srcBlockList, dstBlockList e pairBlocList)
          */
+        // Aplica as regras ainda na fila para que nenhuma delas sobreviva a limpeza
+        flowRuleBatcher.flushPending();
         flowRuleService.removeFlowRulesById(appId);
         srcBlockList.clear();
         dstBlockList.clear();
@@ -432,7 +447,7 @@ public class ProactiveFirewall implements FirewallService{
                 .forDevice(deviceId)
                 .build();
 
-        flowRuleService.applyFlowRules(flowRule);
+        flowRuleBatcher.add(flowRule);
     }
 
     private void flowRuleRemove(DeviceId deviceId, TrafficSelector selector) {
@@ -448,7 +463,7 @@ public class ProactiveFirewall implements FirewallService{
                 .forDevice(deviceId)
                 .build();
 
-        flowRuleService.removeFlowRules(flowRule);
+        flowRuleBatcher.remove(flowRule);
     }
 
     private class BlockRecord {
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.hub.app;
+
+import app.commons.FlowRuleBatcher;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Regras de FLOOD do hub no plano de dados.
+ *
+ * Cada porta de um switch que e ponto de broadcast (porta de borda ou porta da
+ * arvore de broadcast) recebe uma regra de baixa prioridade IN_PORT=porta ->
+ * FLOOD, e o trafego que entra por ela deixa de passar pelo controlador. As
+ * demais portas ficam sem regra e seguem pelo caminho reativo (packet-in).
+ * As regras acompanham as mudancas de portas, de switches e da topologia.
+ */
+final class HubRules {
+
+    private static final TrafficTreatment FLOOD = DefaultTrafficTreatment.builder()
+            .setOutput(PortNumber.FLOOD).build();
+
+    private final DeviceService deviceService;
+    private final TopologyService topologyService;
+    private final FlowRuleBatcher flowRuleBatcher;
+    private final ApplicationId appId;
+
+    // Regras instaladas por switch, indexadas pela porta de entrada
+    private final Map<DeviceId, Map<PortNumber, FlowRule>> installed = new HashMap<>();
+
+    private int priority;
+
+    HubRules(DeviceService deviceService, TopologyService topologyService,
+             FlowRuleBatcher flowRuleBatcher, ApplicationId appId, int priority) {
+        this.deviceService = deviceService;
+        this.topologyService = topologyService;
+        this.flowRuleBatcher = flowRuleBatcher;
+        this.appId = appId;
+        this.priority = priority;
+    }
+
+    /**
+     * Troca a prioridade das regras, reinstalando as existentes.
+     */
+    synchronized void setPriority(int priority) {
+        if (priority == this.priority) {
+            return;
+        }
+        Set<DeviceId> devices = new HashSet<>(installed.keySet());
+        clear();
+        this.priority = priority;
+        devices.forEach(this::sync);
+    }
+
+    /**
+     * Acerta as regras de todos os switches conhecidos.
+     */
+    synchronized void syncAll() {
+        Set<DeviceId> devices = new HashSet<>(installed.keySet());
+        for (Device device : deviceService.getDevices()) {
+            devices.add(device.id());
+        }
+        devices.forEach(this::sync);
+    }
+
+    /**
+     * Acerta as regras do switch com os pontos de broadcast atuais: instala as que
+     * faltam e remove as das portas que deixaram de ser ponto de broadcast.
+     */
+    synchronized void sync(DeviceId deviceId) {
+        if (!deviceService.isAvailable(deviceId)) {
+            // As regras saem junto com o switch
+            installed.remove(deviceId);
+            return;
+        }
+        Topology topology = topologyService.currentTopology();
+        Set<PortNumber> wanted = new HashSet<>();
+        for (Port port : deviceService.getPorts(deviceId)) {
+            PortNumber number = port.number();
+            if (port.isEnabled() && !number.isLogical()
+                    && topologyService.isBroadcastPoint(topology, new ConnectPoint(deviceId, number))) {
+                wanted.add(number);
+            }
+        }
+
+        Map<PortNumber, FlowRule> rules = installed.computeIfAbsent(deviceId, d -> new HashMap<>());
+        Iterator<Map.Entry<PortNumber, FlowRule>> it = rules.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PortNumber, FlowRule> entry = it.next();
+            if (!wanted.remove(entry.getKey())) {
+                flowRuleBatcher.remove(entry.getValue());
+                it.remove();
+            }
+        }
+        for (PortNumber port : wanted) {
+            FlowRule rule = floodRule(deviceId, port);
+            rules.put(port, rule);
+            flowRuleBatcher.add(rule);
+        }
+        if (rules.isEmpty()) {
+            installed.remove(deviceId);
+        }
+    }
+
+    /**
+     * Remove todas as regras do hub.
+     */
+    synchronized void clear() {
+        for (Map<PortNumber, FlowRule> rules : installed.values()) {
+            rules.values().forEach(flowRuleBatcher::remove);
+        }
+        installed.clear();
+    }
+
+    /**
+     * Numero de regras instaladas.
+     */
+    synchronized int size() {
+        int size = 0;
+        for (Map<PortNumber, FlowRule> rules : installed.values()) {
+            size += rules.size();
+        }
+        return size;
+    }
+
+    private FlowRule floodRule(DeviceId deviceId, PortNumber inPort) {
+        return DefaultFlowRule.builder()
+                .fromApp(appId)
+                .forDevice(deviceId)
+                .withSelector(DefaultTrafficSelector.builder().matchInPort(inPort).build())
+                .withTreatment(FLOOD)
+                .withPriority(priority)
+                .makePermanent()
+                .build();
+    }
+}
@@ -15,34 +15,83 @@
  */
 package simple.hub.app;
 
+import app.commons.BroadcastPoints;
+import app.commons.EthernetHeader;
+import app.commons.FloodLimiter;
+import app.commons.FlowRuleBatcher;
+import app.commons.PacketLog;
+import com.google.common.base.Strings;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.onlab.packet.Ethernet;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
-import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketPriority;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
 import org.onosproject.net.topology.TopologyService;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.Dictionary;
+
 @Component(immediate = true)
 public class SimpleHub {
 
+    // Log por pacote: todas as mensagens, ate 10 por segundo de cada uma
+    private static final int PACKET_LOG_SAMPLING = 1;
+    private static final int PACKET_LOG_RATE = 10;
+
+    private static final boolean DEFAULT_FLOW_RULE_MODE = false;
+
+    // Acima da regra de packet-in (PacketPriority.REACTIVE) e abaixo das regras das demais aplicacoes
+    private static final int DEFAULT_FLOOD_PRIORITY = 10;
+
+    // As regras de FLOOD sao enviadas a cada switch em lotes de ate RULE_BATCH_SIZE regras
+    // ou a cada RULE_BATCH_DELAY ms
+    private static final int RULE_BATCH_SIZE = 100;
+    private static final long RULE_BATCH_DELAY = 10;
+    private static final int RULE_BATCH_THREADS = 1;
+
+    // O hub inunda todo o trafego: o limite de floods fica desligado, a nao ser que configurado
+    private static final int DEFAULT_FLOOD_RATE = 0;
+    private static final int DEFAULT_FLOOD_BURST = 200;
+    private static final boolean DEFAULT_STORM_DROP_RULE = false;
+    private static final int DEFAULT_STORM_RULE_TIMEOUT = 10;
+
+    // Baldes do limitador de floods (as portas que colidem dividem o balde)
+    private static final int FLOOD_LIMITER_STRIPES = 4096;
+
+    // Acima das regras de encaminhamento das aplicacoes
+    private static final int STORM_RULE_PRIORITY = 1000;
+
     // Objeto para registrar os eventos no LOG no ONOS
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    // Registros feitos a cada pacote, escritos fora da thread do pacote e limitados por segundo
+    private final PacketLog packetLog = new PacketLog(log, "hub", PACKET_LOG_SAMPLING, PACKET_LOG_RATE);
+
     // Servicos do CORE do ONOS (KARAF) que nossa aplicação espera utilizar
     // Prove um serie de funcionalidades para a aplicação
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
@@ -57,6 +106,38 @@ public class SimpleHub {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected PacketService packetService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Property(name = "flowRuleMode", boolValue = DEFAULT_FLOW_RULE_MODE,
+            label = "Instala em cada switch uma regra de FLOOD por ponto de broadcast, tirando o trafego " +
+                    "do controlador; as demais portas seguem pelo caminho reativo; default false")
+    private boolean flowRuleMode = DEFAULT_FLOW_RULE_MODE;
+
+    @Property(name = "floodPriority", intValue = DEFAULT_FLOOD_PRIORITY,
+            label = "Prioridade das regras de FLOOD do flowRuleMode; default 10")
+    private int floodPriority = DEFAULT_FLOOD_PRIORITY;
+
+    @Property(name = "floodRate", intValue = DEFAULT_FLOOD_RATE,
+            label = "Floods por segundo permitidos por porta de entrada (0 desliga o limite); default 0")
+    private int floodRate = DEFAULT_FLOOD_RATE;
+
+    @Property(name = "floodBurst", intValue = DEFAULT_FLOOD_BURST,
+            label = "Rajada de floods permitida por porta de entrada acima de floodRate; default 200")
+    private int floodBurst = DEFAULT_FLOOD_BURST;
+
+    @Property(name = "stormDropRule", boolValue = DEFAULT_STORM_DROP_RULE,
+            label = "Instala uma regra temporaria de descarte na porta de borda que passar de floodRate; " +
+                    "default false")
+    private boolean stormDropRule = DEFAULT_STORM_DROP_RULE;
+
+    @Property(name = "stormRuleTimeout", intValue = DEFAULT_STORM_RULE_TIMEOUT,
+            label = "Tempo (em segundos) sem trafego na porta para a regra de descarte expirar; default 10")
+    private int stormRuleTimeout = DEFAULT_STORM_RULE_TIMEOUT;
+
     // ID da Aplicacao. Para fins de logs e para atrelar variaveis à aplicacao
     private ApplicationId appId;
 
@@ -64,10 +145,35 @@ public class SimpleHub {
        os pacotes capturados pelo ONOS */
     private final HubPacketProcessor packetProcessor = new HubPacketProcessor();
 
+    // Portas de entrada por onde o hub pode inundar; as demais (links fora da arvore) descartam o pacote
+    private BroadcastPoints broadcastPoints;
+
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final TopologyListener topologyListener = new InternalTopologyListener();
+
+    private FlowRuleBatcher flowRuleBatcher;
+
+    // Regras de FLOOD instaladas nos switches quando flowRuleMode esta ligado
+    private HubRules hubRules;
+
+    // Todo pacote do hub e um flood: o limitador conta todo o trafego de cada porta de entrada
+    private final FloodLimiter floodLimiter = new FloodLimiter(FLOOD_LIMITER_STRIPES);
+
     // Rotina que dita o que será executado na ativação da aplicação (app activate <app>
     @Activate
-    public void activate() {
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
         appId = coreService.registerApplication("hub.simples.app");
+        broadcastPoints = new BroadcastPoints(topologyService);
+        broadcastPoints.start();
+        packetLog.start();
+        flowRuleBatcher = new FlowRuleBatcher(flowRuleService, "hub-rules",
+                                              RULE_BATCH_SIZE, RULE_BATCH_DELAY, RULE_BATCH_THREADS);
+        flowRuleBatcher.start();
+        hubRules = new HubRules(deviceService, topologyService, flowRuleBatcher, appId, floodPriority);
+        deviceService.addListener(deviceListener);
+        topologyService.addListener(topologyListener);
+        readComponentConfiguration(context);
 
         /* Adiciona o objeto processor criado no packetService para que o ONOS encaminhe os pacotes
            para ser processado pela nossa aplicação */
@@ -86,9 +192,72 @@ public class SimpleHub {
     @Deactivate
     public void deactivate() {
         withdrawIntercepts();
+        deviceService.removeListener(deviceListener);
+        topologyService.removeListener(topologyListener);
+        flowRuleBatcher.stop();
         flowRuleService.removeFlowRulesById(appId);
+        hubRules = null;
         packetService.removeProcessor(packetProcessor);
-        log.info("Aplicação de HUB desativada");
+        broadcastPoints.stop();
+        packetLog.stop();
+        cfgService.unregisterProperties(getClass(), false);
+        log.info("Aplicação de HUB desativada. Floods descartados pelo limite: {}", floodLimiter.dropped());
+        floodLimiter.reset();
+    }
+
+    /**
+     * Rotina executada quando a configuracao do componente e alterada (cfg set simple.hub.app.SimpleHub ...)
+     */
+    @Modified
+    public void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    /**
+     * Le as propriedades configuraveis do componente (modo de regras e limite de floods)
+     */
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        flowRuleMode = getBooleanProperty(properties, "flowRuleMode", DEFAULT_FLOW_RULE_MODE);
+        floodPriority = getIntegerProperty(properties, "floodPriority", DEFAULT_FLOOD_PRIORITY);
+
+        hubRules.setPriority(floodPriority);
+        if (flowRuleMode) {
+            hubRules.syncAll();
+        } else {
+            // Modo desligado: todo o trafego volta a passar pelo controlador
+            hubRules.clear();
+        }
+
+        floodRate = Math.max(getIntegerProperty(properties, "floodRate", DEFAULT_FLOOD_RATE), 0);
+        floodBurst = Math.max(getIntegerProperty(properties, "floodBurst", DEFAULT_FLOOD_BURST), 1);
+        floodLimiter.configure(floodRate, floodBurst);
+        stormDropRule = getBooleanProperty(properties, "stormDropRule", DEFAULT_STORM_DROP_RULE);
+        stormRuleTimeout = Math.max(getIntegerProperty(properties, "stormRuleTimeout", DEFAULT_STORM_RULE_TIMEOUT), 1);
+        floodLimiter.configureStormRule(appId, stormDropRule, STORM_RULE_PRIORITY, stormRuleTimeout);
+
+        log.info("Configurado: flowRuleMode={}, floodPriority={}, floodRate={}, floodBurst={}, " +
+                         "stormDropRule={}, stormRuleTimeout={}",
+                 flowRuleMode, floodPriority, floodRate, floodBurst, stormDropRule, stormRuleTimeout);
+    }
+
+    /**
+     * Le uma propriedade inteira, usando o valor padrao se ela nao existir ou for invalida
+     */
+    private int getIntegerProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+        String value = Tools.get(properties, name);
+        try {
+            return Strings.isNullOrEmpty(value) ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Valor invalido para {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+
+    private boolean getBooleanProperty(Dictionary<?, ?> properties, String name, boolean defaultValue) {
+        String value = Tools.get(properties, name);
+        return Strings.isNullOrEmpty(value) ? defaultValue : Boolean.parseBoolean(value.trim());
     }
 
     /**
@@ -127,17 +296,16 @@ public class SimpleHub {
                 return;
             }
 
-            // Retira o pacote de entrada a partir do contexto recebido pela aplicação,
-            InboundPacket pkt = context.inPacket();
-            // Processa o pacote de entrada (parsed retorna os campos do pacote Ethernet, como src_mac, src_ip, dst_ip, payload, ...
-            Ethernet ethPkt = pkt.parsed();
+            // Retira o pacote de entrada a partir do contexto recebido pela aplicação.
+            // O hub so precisa do EtherType, lido direto dos bytes recebidos (sem parsed())
+            ByteBuffer frame = context.inPacket().unparsed();
 
-            if (ethPkt == null) {
+            if (frame == null) {
                 return;
             }
 
             // não trata pacotes de controle (LLDP, BBDP, ...)
-            if (isControlPacket(ethPkt)) {
+            if (isControlPacket(frame)) {
                 return;
             }
 
@@ -149,18 +317,23 @@ public class SimpleHub {
     /**
      * Verifique se e um pacote de controle
      */
-    private boolean isControlPacket(Ethernet eth) {
-        short type = eth.getEtherType();
-        return type == Ethernet.TYPE_LLDP || type == Ethernet.TYPE_BSN || type == -30398 || type == -31011;
+    private boolean isControlPacket(ByteBuffer frame) {
+        return EthernetHeader.isControlPacket(frame);
     }
 
     /**
      * Funcao responsavel por realizar o flood do pacote em todas as portas do switch
      */
     private void flood(PacketContext context) {
+        ConnectPoint inPort = context.inPacket().receivedFrom();
         // Verifica se o broadcast é permitido para esse pacote, recebido na interface especifica
-        if (topologyService.isBroadcastPoint(topologyService.currentTopology(),
-                                             context.inPacket().receivedFrom())) {
+        if (broadcastPoints.isBroadcastPoint(inPort)) {
+            // Porta acima do limite de floods (laco ou tempestade de broadcast): descarta
+            if (!floodLimiter.tryAcquire(inPort)) {
+                stormDetected(inPort);
+                context.block();
+                return;
+            }
             /*
             * TODO Lab 1: Corrija o erro da aplicação que está enviando os pacotes apenas para a porta de origem
             *
@@ -176,14 +349,62 @@ public class SimpleHub {
         }
     }
 
+    // Porta acima do limite: instala a regra de descarte, se o limitador indicar uma
+    private void stormDetected(ConnectPoint inPort) {
+        FlowRule stormRule = floodLimiter.stormRule(inPort, topologyService);
+        if (stormRule != null) {
+            log.warn("Tempestade de broadcast em {}: mais de {} floods/s; descartando o trafego da porta",
+                     inPort, floodRate);
+            flowRuleService.applyFlowRules(stormRule);
+        }
+    }
+
     /**
      * Envia o pacote para a porta especificada
      */
     private void packetOut(PacketContext context, PortNumber portNumber) {
         // Altera a porta de saida para a porta especificada pelo portNumber
         context.treatmentBuilder().setOutput(portNumber);
-        log.info("SCI - HUB: Porta de saida {}", portNumber);
+        packetLog.info("SCI - HUB: Porta de saida {}", portNumber);
         // Envia o pacote para a porta de saida
         context.send();
     }
+
+    /**
+     * Instala as regras de FLOOD quando um switch conecta e as acerta quando suas portas mudam
+     */
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event) {
+            HubRules rules = hubRules;
+            if (!flowRuleMode || rules == null) {
+                return;
+            }
+            switch (event.type()) {
+                case DEVICE_ADDED:
+                case DEVICE_AVAILABILITY_CHANGED:
+                case DEVICE_REMOVED:
+                case PORT_ADDED:
+                case PORT_UPDATED:
+                case PORT_REMOVED:
+                    rules.sync(event.subject().id());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Os pontos de broadcast mudam com a topologia (novos links, nova arvore de broadcast)
+     */
+    private class InternalTopologyListener implements TopologyListener {
+        @Override
+        public void event(TopologyEvent event) {
+            HubRules rules = hubRules;
+            if (flowRuleMode && rules != null) {
+                rules.syncAll();
+            }
+        }
+    }
 }
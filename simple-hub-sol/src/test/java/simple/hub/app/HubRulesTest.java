@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.hub.app;
+
+import app.commons.FlowRuleBatcher;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.TestApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.PortCriterion;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the hub FLOOD rules kept in sync with the broadcast points.
+ */
+public class HubRulesTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+
+    private final Set<ConnectPoint> broadcastPoints = new HashSet<>();
+    private final Set<PortNumber> installed = new HashSet<>();
+    private boolean available = true;
+    private HubRules rules;
+
+    @Before
+    public void setUp() {
+        FlowRuleBatcher batcher = new FlowRuleBatcher(new RecordingFlowRuleService(), "test", 1, 1, 1);
+        rules = new HubRules(new FakeDeviceService(), new FakeTopologyService(), batcher,
+                             new TestApplicationId("hub"), 10);
+        broadcastPoints.add(new ConnectPoint(DEVICE, PortNumber.portNumber(1)));
+        broadcastPoints.add(new ConnectPoint(DEVICE, PortNumber.portNumber(2)));
+    }
+
+    @Test
+    public void installsFloodRulesOnBroadcastPointsOnly() {
+        rules.sync(DEVICE);
+        assertEquals(ports(1, 2), installed);
+        assertEquals(2, rules.size());
+    }
+
+    @Test
+    public void followsBroadcastPointChanges() {
+        rules.sync(DEVICE);
+        broadcastPoints.remove(new ConnectPoint(DEVICE, PortNumber.portNumber(2)));
+        broadcastPoints.add(new ConnectPoint(DEVICE, PortNumber.portNumber(3)));
+        rules.syncAll();
+        assertEquals(ports(1, 3), installed);
+
+        rules.clear();
+        assertEquals(ports(), installed);
+        assertEquals(0, rules.size());
+    }
+
+    @Test
+    public void forgetsDisconnectedDevices() {
+        rules.sync(DEVICE);
+        available = false;
+        rules.sync(DEVICE);
+        assertEquals(0, rules.size());
+    }
+
+    private static Set<PortNumber> ports(long... numbers) {
+        Set<PortNumber> ports = new HashSet<>();
+        for (long number : numbers) {
+            ports.add(PortNumber.portNumber(number));
+        }
+        return ports;
+    }
+
+    private class RecordingFlowRuleService extends FlowRuleServiceAdapter {
+        @Override
+        public void apply(FlowRuleOperations ops) {
+            for (Set<FlowRuleOperation> stage : ops.stages()) {
+                for (FlowRuleOperation op : stage) {
+                    PortNumber port = inPort(op.rule());
+                    if (op.type() == FlowRuleOperation.Type.ADD) {
+                        installed.add(port);
+                    } else {
+                        installed.remove(port);
+                    }
+                }
+            }
+        }
+
+        private PortNumber inPort(FlowRule rule) {
+            return ((PortCriterion) rule.selector().getCriterion(Criterion.Type.IN_PORT)).port();
+        }
+    }
+
+    private class FakeDeviceService extends DeviceServiceAdapter {
+        @Override
+        public boolean isAvailable(DeviceId deviceId) {
+            return available;
+        }
+
+        @Override
+        public List<Port> getPorts(DeviceId deviceId) {
+            return ImmutableList.of(new DefaultPort(null, PortNumber.portNumber(1), true),
+                                    new DefaultPort(null, PortNumber.portNumber(2), true),
+                                    new DefaultPort(null, PortNumber.portNumber(3), true),
+                                    new DefaultPort(null, PortNumber.LOCAL, true));
+        }
+    }
+
+    private class FakeTopologyService extends TopologyServiceAdapter {
+        @Override
+        public boolean isBroadcastPoint(Topology topology, ConnectPoint connectPoint) {
+            return connectPoint.port().equals(PortNumber.LOCAL) || broadcastPoints.contains(connectPoint);
+        }
+    }
+}
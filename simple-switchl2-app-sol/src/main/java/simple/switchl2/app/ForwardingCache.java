@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache das decisoes de encaminhamento do switch L2.
+ *
+ * Guarda, para cada par (switch de entrada, MAC de destino), a porta de saida
+ * escolhida. O cache e limitado pelo numero de MACs de destino e nao expira por
+ * tempo: as entradas sao invalidadas pelos eventos de host e de topologia.
+ * Cada invalidacao incrementa a versao do cache, de modo que uma decisao
+ * calculada antes do evento nunca seja gravada depois dele.
+ */
+final class ForwardingCache {
+
+    private final Cache<MacAddress, Map<DeviceId, PortNumber>> entries;
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Cria um cache que guarda decisoes para ate maxDestinations MACs de destino.
+     */
+    ForwardingCache(long maxDestinations) {
+        entries = CacheBuilder.newBuilder()
+                .maximumSize(maxDestinations)
+                .build();
+    }
+
+    /**
+     * Versao atual do cache. Deve ser lida antes de calcular a decisao
+     * que sera gravada com store().
+     */
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * Retorna a porta de saida guardada para o par (deviceId, dstMac) ou null.
+     */
+    PortNumber lookup(DeviceId deviceId, MacAddress dstMac) {
+        Map<DeviceId, PortNumber> ports = entries.getIfPresent(dstMac);
+        return ports == null ? null : ports.get(deviceId);
+    }
+
+    /**
+     * Grava a decisao calculada na versao informada. Se o cache foi invalidado
+     * desde entao, a decisao esta velha e e descartada.
+     */
+    void store(long computedAt, DeviceId deviceId, MacAddress dstMac, PortNumber port) {
+        if (computedAt != version.get()) {
+            return;
+        }
+        Map<DeviceId, PortNumber> ports = entries.asMap()
+                .computeIfAbsent(dstMac, mac -> new ConcurrentHashMap<>());
+        ports.put(deviceId, port);
+        // Um evento pode ter chegado durante a gravacao; nesse caso desfaz
+        if (computedAt != version.get()) {
+            ports.remove(deviceId, port);
+        }
+    }
+
+    /**
+     * Invalida as decisoes que levam ao host com o MAC informado.
+     */
+    void invalidate(MacAddress dstMac) {
+        version.incrementAndGet();
+        entries.invalidate(dstMac);
+    }
+
+    /**
+     * Invalida todas as decisoes (por exemplo, quando a topologia muda).
+     */
+    void invalidateAll() {
+        version.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    /**
+     * Numero de MACs de destino presentes no cache.
+     */
+    long size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+import app.commons.LatencyHistogram;
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.DeviceId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores e histogramas de latencia das decisoes de encaminhamento do SimpleSwitch,
+ * por resultado e por switch de entrada. As gravacoes nao usam locks (apenas LongAdders)
+ * e podem ser feitas por varias threads ao mesmo tempo.
+ */
+public final class ForwardingMetrics {
+
+    /**
+     * Resultado do tratamento de um packet-in.
+     */
+    public enum Outcome {
+        /** Pacote enviado para todas as portas (destino desconhecido ou multicast). */
+        FLOODED,
+        /** Regra instalada no switch de borda do proprio destino. */
+        SAME_SWITCH_INSTALL,
+        /** Regras instaladas em todos os switches do caminho ate o destino (pathInstall). */
+        PATH_INSTALL,
+        /** Regra instalada apenas neste switch, rumo ao proximo salto ate o destino. */
+        HOP_INSTALL,
+        /** Regra instalada a partir de uma decisao guardada no cache de encaminhamento. */
+        CACHE_HIT,
+        /** Regra do fluxo ja pedida; o pacote foi apenas encaminhado. */
+        PENDING_FORWARD,
+        /** ARP encaminhado para a porta de saida, sem regra (ARPs nao recebem regras). */
+        ARP_FORWARDED,
+        /** Nenhum caminho ate o destino que nao volte pela porta de entrada; o pacote foi em flood. */
+        NO_PATH,
+        /** Destino na propria porta de entrada: o pacote e descartado. */
+        INGRESS_PORT_DROPPED,
+        /** Pacote descartado (flood nao permitido na porta, inclusive sem caminho, ou fila de processamento cheia). */
+        BLOCKED,
+        /** Flood descartado por exceder o limite de floods da porta de entrada. */
+        FLOOD_LIMITED,
+        /** Pacote de controle (LLDP, BDDP, IPv6) ignorado. */
+        CONTROL_IGNORED
+    }
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final LongAdder[] counts = newCounters();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OUTCOMES.length];
+    private final ConcurrentMap<DeviceId, LongAdder[]> byDevice = new ConcurrentHashMap<>();
+
+    public ForwardingMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Registra o resultado de um packet-in recebido por deviceId, tratado em latencyNanos.
+     */
+    public void record(DeviceId deviceId, Outcome outcome, long latencyNanos) {
+        counts[outcome.ordinal()].increment();
+        latencies[outcome.ordinal()].record(latencyNanos);
+        byDevice.computeIfAbsent(deviceId, d -> newCounters())[outcome.ordinal()].increment();
+    }
+
+    /**
+     * Numero de packet-ins com o resultado informado.
+     */
+    public long count(Outcome outcome) {
+        return counts[outcome.ordinal()].sum();
+    }
+
+    /**
+     * Histograma das latencias de tratamento dos packet-ins com o resultado informado.
+     */
+    public LatencyHistogram latency(Outcome outcome) {
+        return latencies[outcome.ordinal()];
+    }
+
+    /**
+     * Numero de packet-ins de cada resultado, por switch de entrada.
+     */
+    public Map<DeviceId, Map<Outcome, Long>> countsByDevice() {
+        ImmutableMap.Builder<DeviceId, Map<Outcome, Long>> builder = ImmutableMap.builder();
+        byDevice.forEach((deviceId, deviceCounts) -> builder.put(deviceId, snapshot(deviceCounts)));
+        return builder.build();
+    }
+
+    /**
+     * Numero de packet-ins de cada resultado recebidos pelo switch informado.
+     */
+    public Map<Outcome, Long> counts(DeviceId deviceId) {
+        LongAdder[] deviceCounts = byDevice.get(deviceId);
+        return deviceCounts == null ? snapshot(newCounters()) : snapshot(deviceCounts);
+    }
+
+    /**
+     * Zera todos os contadores e histogramas.
+     */
+    public void reset() {
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            counts[i].reset();
+            latencies[i].reset();
+        }
+        byDevice.clear();
+    }
+
+    private static Map<Outcome, Long> snapshot(LongAdder[] adders) {
+        ImmutableMap.Builder<Outcome, Long> builder = ImmutableMap.builder();
+        for (Outcome outcome : OUTCOMES) {
+            builder.put(outcome, adders[outcome.ordinal()].sum());
+        }
+        return builder.build();
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] adders = new LongAdder[OUTCOMES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
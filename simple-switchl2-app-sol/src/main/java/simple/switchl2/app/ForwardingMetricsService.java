@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+/**
+ * Servico que expoe as metricas das decisoes de encaminhamento do SimpleSwitch.
+ */
+public interface ForwardingMetricsService {
+
+    /**
+     * Metricas acumuladas desde a ativacao (ou desde o ultimo resetMetrics()).
+     */
+    ForwardingMetrics metrics();
+
+    /**
+     * Zera as metricas.
+     */
+    void resetMetrics();
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Motor que recalcula em segundo plano a tabela de proximos saltos a cada nova topologia.
+ *
+ * O calculo roda fora da thread de processamento de pacotes; a nova tabela so substitui
+ * a anterior (de forma atomica) quando esta pronta. Enquanto isso, a tabela anterior
+ * continua sendo usada.
+ */
+final class NextHopEngine {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final TopologyService topologyService;
+    private final int parallelism;
+    private final AtomicReference<NextHopTable> table = new AtomicReference<>();
+
+    private ExecutorService executor;
+    private ForkJoinPool pool;
+
+    NextHopEngine(TopologyService topologyService, int parallelism) {
+        this.topologyService = topologyService;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Inicia o motor e agenda o calculo da tabela para a topologia atual.
+     */
+    void start() {
+        executor = Executors.newSingleThreadExecutor(groupedThreads("simple/switchl2", "next-hop"));
+        pool = new ForkJoinPool(parallelism);
+        recompute();
+    }
+
+    /**
+     * Para o motor e descarta a tabela atual.
+     */
+    void stop() {
+        executor.shutdownNow();
+        pool.shutdownNow();
+        table.set(null);
+    }
+
+    /**
+     * Agenda o recalculo da tabela para a topologia atual. Varios pedidos seguidos
+     * resultam em um unico calculo, pois cada tarefa le a topologia mais recente.
+     */
+    void recompute() {
+        executor.execute(this::computeLatest);
+    }
+
+    /**
+     * Retorna a tabela atual ou null se ela ainda nao foi calculada.
+     */
+    NextHopTable table() {
+        return table.get();
+    }
+
+    private void computeLatest() {
+        Topology topology = topologyService.currentTopology();
+        NextHopTable current = table.get();
+        if (current != null && current.topology().equals(topology)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            NextHopTable computed = NextHopTable.compute(topology, topologyService.getGraph(topology), pool);
+            table.set(computed);
+            log.info("Tabela de proximos saltos calculada para {} switches em {} us",
+                     topology.deviceCount(), (System.nanoTime() - start) / 1000);
+        } catch (IllegalStateException e) {
+            log.warn("Nao foi possivel calcular a tabela de proximos saltos", e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyGraph;
+import org.onosproject.net.topology.TopologyVertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Tabela imutavel de proximos saltos (switch de origem x switch de destino -> links de saida)
+ * calculada para uma topologia.
+ *
+ * Para cada par de switches guarda todos os links de saida da origem que iniciam algum
+ * caminho mais curto (em numero de saltos) ate o destino. A consulta e apenas uma
+ * leitura de array e nao cria nenhum objeto Path.
+ */
+final class NextHopTable {
+
+    private static final Link[] NO_HOPS = new Link[0];
+
+    private final Topology topology;
+    private final Map<DeviceId, Integer> index;
+    private final Link[][][] nextHops;
+
+    private NextHopTable(Topology topology, Map<DeviceId, Integer> index, Link[][][] nextHops) {
+        this.topology = topology;
+        this.index = index;
+        this.nextHops = nextHops;
+    }
+
+    /**
+     * Topologia a partir da qual a tabela foi calculada.
+     */
+    Topology topology() {
+        return topology;
+    }
+
+    /**
+     * Retorna os links de saida de src que levam a dst por um caminho mais curto.
+     * Retorna null se algum dos switches nao faz parte da tabela e um array vazio
+     * se dst nao e alcancavel a partir de src.
+     */
+    Link[] nextHops(DeviceId src, DeviceId dst) {
+        Integer s = index.get(src);
+        Integer d = index.get(dst);
+        if (s == null || d == null) {
+            return null;
+        }
+        return nextHops[s][d];
+    }
+
+    /**
+     * Calcula a tabela para a topologia informada, executando uma busca em largura
+     * por switch de origem, em paralelo, no pool informado.
+     */
+    static NextHopTable compute(Topology topology, TopologyGraph graph, ForkJoinPool pool) {
+        List<TopologyVertex> vertexes = new ArrayList<>(graph.getVertexes());
+        int n = vertexes.size();
+
+        ImmutableMap.Builder<DeviceId, Integer> indexBuilder = ImmutableMap.builder();
+        for (int i = 0; i < n; i++) {
+            indexBuilder.put(vertexes.get(i).deviceId(), i);
+        }
+        Map<DeviceId, Integer> index = indexBuilder.build();
+
+        // Lista de adjacencia indexada: para cada switch, seus links de saida e o indice do vizinho
+        Link[][] outLinks = new Link[n][];
+        int[][] neighbours = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<Link> links = new ArrayList<>();
+            for (TopologyEdge edge : graph.getEdgesFrom(vertexes.get(i))) {
+                if (index.containsKey(edge.link().dst().deviceId())) {
+                    links.add(edge.link());
+                }
+            }
+            outLinks[i] = links.toArray(new Link[links.size()]);
+            neighbours[i] = new int[links.size()];
+            for (int j = 0; j < links.size(); j++) {
+                neighbours[i][j] = index.get(links.get(j).dst().deviceId());
+            }
+        }
+
+        Link[][][] nextHops = new Link[n][][];
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel()
+                    .forEach(src -> nextHops[src] = bfs(src, outLinks, neighbours))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Calculo da tabela de proximos saltos interrompido", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Falha no calculo da tabela de proximos saltos", e.getCause());
+        }
+        return new NextHopTable(topology, index, nextHops);
+    }
+
+    /**
+     * Busca em largura a partir de src. Cada switch alcancado herda o conjunto de
+     * links de saida de src (primeiro salto) de todos os seus antecessores no nivel anterior.
+     */
+    private static Link[][] bfs(int src, Link[][] outLinks, int[][] neighbours) {
+        int n = outLinks.length;
+        int[] dist = new int[n];
+        BitSet[] firstHops = new BitSet[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+
+        Arrays.fill(dist, -1);
+        dist[src] = 0;
+
+        for (int j = 0; j < neighbours[src].length; j++) {
+            int v = neighbours[src][j];
+            if (v == src) {
+                continue;
+            }
+            if (dist[v] == -1) {
+                dist[v] = 1;
+                firstHops[v] = new BitSet();
+                queue[tail++] = v;
+            }
+            firstHops[v].set(j);
+        }
+
+        while (head < tail) {
+            int u = queue[head++];
+            for (int v : neighbours[u]) {
+                if (dist[v] == -1) {
+                    dist[v] = dist[u] + 1;
+                    firstHops[v] = (BitSet) firstHops[u].clone();
+                    queue[tail++] = v;
+                } else if (dist[v] == dist[u] + 1) {
+                    firstHops[v].or(firstHops[u]);
+                }
+            }
+        }
+
+        Link[][] row = new Link[n][];
+        for (int dst = 0; dst < n; dst++) {
+            if (firstHops[dst] == null) {
+                row[dst] = NO_HOPS;
+                continue;
+            }
+            Link[] hops = new Link[firstHops[dst].cardinality()];
+            int k = 0;
+            for (int j = firstHops[dst].nextSetBit(0); j >= 0; j = firstHops[dst].nextSetBit(j + 1)) {
+                hops[k++] = outLinks[src][j];
+            }
+            row[dst] = hops;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+import org.onosproject.net.packet.PacketContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Distribui o processamento dos packet-ins entre N workers.
+ *
+ * Cada pacote vai para o worker escolhido pelo hash do seu fluxo, entao pacotes
+ * do mesmo fluxo sao tratados em ordem, por uma unica thread. Cada worker tem uma
+ * fila limitada; quando ela esta cheia o pacote e recusado e quem chamou aplica a
+ * politica de sobrecarga.
+ *
+ * O contexto aceito e bloqueado ainda na thread do ONOS, para que os proximos
+ * processors o ignorem. Como context.send() nao faz nada depois disso, os workers
+ * devem enviar o pacote com PacketService.emit().
+ */
+final class PacketDispatcher {
+
+    /**
+     * O que fazer com um pacote quando a fila do seu worker esta cheia.
+     */
+    enum OverloadPolicy {
+        /** Faz flood do pacote na thread do ONOS. */
+        FLOOD,
+        /** Descarta o pacote. */
+        DROP,
+        /** Nao trata o pacote, deixando-o para o proximo processor. */
+        PUNT
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final int queueSize;
+    private final ExecutorService[] workers;
+    private final AtomicInteger[] pending;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Cria um despachante com o numero de workers informado, cada um com
+     * uma fila de ate queueSize pacotes.
+     */
+    PacketDispatcher(int workerCount, int queueSize) {
+        this.queueSize = queueSize;
+        this.workers = new ExecutorService[workerCount];
+        this.pending = new AtomicInteger[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                                groupedThreads("simple/switchl2", "packet-worker-" + i));
+            pending[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Numero de workers.
+     */
+    int workerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Tamanho maximo da fila de cada worker.
+     */
+    int queueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Numero de pacotes recusados por fila cheia.
+     */
+    long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Entrega o contexto ao worker do fluxo flowHash. Se houver espaco na fila, bloqueia
+     * o contexto e retorna true; o handler sera executado na thread do worker.
+     * Se a fila estiver cheia, nao altera o contexto e retorna false.
+     */
+    boolean dispatch(int flowHash, PacketContext context, Consumer<PacketContext> handler) {
+        int index = (flowHash & Integer.MAX_VALUE) % workers.length;
+        AtomicInteger queued = pending[index];
+        // Reserva a vaga antes de bloquear o contexto: um pacote recusado ainda pode
+        // seguir para o proximo processor
+        if (queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        context.block();
+        try {
+            workers[index].execute(() -> {
+                try {
+                    handler.accept(context);
+                } catch (RuntimeException e) {
+                    log.warn("Falha ao processar pacote recebido em {}", context.inPacket().receivedFrom(), e);
+                } finally {
+                    queued.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Despachante parando; o contexto ja foi bloqueado, entao o pacote e descartado
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Para os workers, aguardando brevemente que terminem os pacotes ja aceitos.
+     */
+    void stop() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        for (ExecutorService worker : workers) {
+            try {
+                if (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                    worker.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                worker.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -15,50 +15,118 @@
  */
 package simple.switchl2.app;
 
+import app.commons.BroadcastPoints;
+import app.commons.EthernetHeader;
+import app.commons.FloodLimiter;
+import app.commons.ObjectiveQueue;
+import app.commons.PacketLog;
+import app.commons.PendingFlows;
+import com.google.common.base.Strings;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.Service;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.MacAddress;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.Host;
 import org.onosproject.net.HostId;
+import org.onosproject.net.Link;
 import org.onosproject.net.Path;
+import org.onosproject.net.Port;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.criteria.PortCriterion;
 import org.onosproject.net.flowobjective.DefaultForwardingObjective;
 import org.onosproject.net.flowobjective.FlowObjectiveService;
 import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketPriority;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
 import org.onosproject.net.topology.TopologyService;
 import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.osgi.service.component.ComponentContext;
+import simple.switchl2.app.ForwardingMetrics.Outcome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component(immediate = true)
-public class SimpleSwitch {
+@Service
+public class SimpleSwitch implements ForwardingMetricsService {
 
     // Variaveis globais relativas a prioridade dos Fluxos
     // e tempo de expiracao de uma regra de fluxo criada pela aplicacao
     private static final int DEFAULT_TIMEOUT = 30;
     private static final int DEFAULT_PRIORITY = 100;
+    private static final boolean DEFAULT_PATH_INSTALL = false;
+
+    // Processamento dos packet-ins em workers (0 = na propria thread do ONOS)
+    private static final int DEFAULT_DISPATCH_WORKERS = 0;
+    private static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1024;
+    private static final String DEFAULT_OVERLOAD_POLICY = "FLOOD";
+
+    // Registro no log de 1 a cada N decisoes de encaminhamento (0 = desligado),
+    // com no maximo DEFAULT_TRACE_RATE linhas por segundo de cada mensagem
+    private static final int DEFAULT_TRACE_SAMPLING = 0;
+    private static final int DEFAULT_TRACE_RATE = 10;
+
+    // Numero maximo de MACs de destino guardados no cache de encaminhamento
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    // Numero de threads usadas no calculo da tabela de proximos saltos
+    private static final int NEXT_HOP_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    // Fila das regras instaladas: a fila de cada switch e esvaziada a cada OBJECTIVE_QUEUE_DELAY ms
+    // ou assim que OBJECTIVE_QUEUE_SIZE regras se acumularem
+    private static final int OBJECTIVE_QUEUE_SIZE = 100;
+    private static final long OBJECTIVE_QUEUE_DELAY = 5;
+    private static final int OBJECTIVE_QUEUE_THREADS = 2;
+
+    // Tempo maximo (ms) que um fluxo fica marcado como "regra pedida, ainda nao instalada"
+    // e numero maximo de fluxos marcados
+    private static final long PENDING_FLOW_TIMEOUT = 2000;
+    private static final int PENDING_FLOW_MAX = 50000;
+
+    // Limite de floods por porta de entrada e regra de descarte para tempestades de broadcast
+    private static final int DEFAULT_FLOOD_RATE = 1000;
+    private static final int DEFAULT_FLOOD_BURST = 200;
+    private static final boolean DEFAULT_STORM_DROP_RULE = false;
+    private static final int DEFAULT_STORM_RULE_TIMEOUT = 10;
+    private static final int FLOOD_LIMITER_STRIPES = 4096;
+    private static final int STORM_RULE_PRIORITY = 1000;
 
     // Objeto para registrar os eventos no LOG no ONOS
     private final Logger log = LoggerFactory.getLogger(getClass());
@@ -78,9 +146,15 @@ public class SimpleSwitch {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected HostService hostService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected DeviceService deviceService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
     // ID da Aplicacao. Para fins de logs e para atrelar variaveis à aplicacao
     private ApplicationId appId;
 
@@ -88,16 +162,116 @@ public class SimpleSwitch {
     // encaminhe para ele os pacotes capturados pelo controlador
     private L2PacketProcessor processor = new L2PacketProcessor();
 
+    // Decide se o pacote para MAC desconhecido pode ser inundado a partir da porta de entrada
+    private BroadcastPoints broadcastPoints;
+
+    @Property(name = "flowPriority", intValue = DEFAULT_PRIORITY,
+            label = "Prioridade das regras de fluxo instaladas pela aplicacao; default 100")
     private int flowPriority = DEFAULT_PRIORITY;
+
+    @Property(name = "flowTimeout", intValue = DEFAULT_TIMEOUT,
+            label = "Tempo (em segundos) de expiracao das regras de fluxo; default 30")
     private int flowTimeout = DEFAULT_TIMEOUT;
 
+    @Property(name = "pathInstall", boolValue = DEFAULT_PATH_INSTALL,
+            label = "Instala as regras em todos os switches do caminho no primeiro packet-in, " +
+                    "em vez de apenas no switch de entrada; default false")
+    private boolean pathInstall = DEFAULT_PATH_INSTALL;
+
+    @Property(name = "dispatchWorkers", intValue = DEFAULT_DISPATCH_WORKERS,
+            label = "Numero de threads que processam os packet-ins; 0 processa na thread do ONOS; default 0")
+    private int dispatchWorkers = DEFAULT_DISPATCH_WORKERS;
+
+    @Property(name = "dispatchQueueSize", intValue = DEFAULT_DISPATCH_QUEUE_SIZE,
+            label = "Numero maximo de pacotes na fila de cada thread; default 1024")
+    private int dispatchQueueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+
+    @Property(name = "overloadPolicy", value = DEFAULT_OVERLOAD_POLICY,
+            label = "O que fazer com um pacote quando a fila esta cheia: FLOOD, DROP ou PUNT " +
+                    "(deixar para o proximo processor); default FLOOD")
+    private volatile PacketDispatcher.OverloadPolicy overloadPolicy =
+            PacketDispatcher.OverloadPolicy.valueOf(DEFAULT_OVERLOAD_POLICY);
+
+    @Property(name = "traceSampling", intValue = DEFAULT_TRACE_SAMPLING,
+            label = "Registra no log 1 a cada N decisoes de encaminhamento; 0 desliga o registro; default 0")
+    private int traceSampling = DEFAULT_TRACE_SAMPLING;
+
+    @Property(name = "traceRate", intValue = DEFAULT_TRACE_RATE,
+            label = "Numero maximo de registros por segundo de cada mensagem; as demais sao resumidas; default 10")
+    private int traceRate = DEFAULT_TRACE_RATE;
+
+    @Property(name = "floodRate", intValue = DEFAULT_FLOOD_RATE,
+            label = "Floods por segundo permitidos por porta de entrada (0 desliga o limite); default 1000")
+    private int floodRate = DEFAULT_FLOOD_RATE;
+
+    @Property(name = "floodBurst", intValue = DEFAULT_FLOOD_BURST,
+            label = "Rajada de floods permitida por porta de entrada acima de floodRate; default 200")
+    private int floodBurst = DEFAULT_FLOOD_BURST;
+
+    @Property(name = "stormDropRule", boolValue = DEFAULT_STORM_DROP_RULE,
+            label = "Instala uma regra temporaria de descarte na porta de borda que passar de floodRate; " +
+                    "default false")
+    private boolean stormDropRule = DEFAULT_STORM_DROP_RULE;
+
+    @Property(name = "stormRuleTimeout", intValue = DEFAULT_STORM_RULE_TIMEOUT,
+            label = "Tempo (em segundos) sem trafego na porta para a regra de descarte expirar; default 10")
+    private int stormRuleTimeout = DEFAULT_STORM_RULE_TIMEOUT;
+
+    // Limite dos floods de destinos desconhecidos e broadcasts, por porta de entrada
+    private final FloodLimiter floodLimiter = new FloodLimiter(FLOOD_LIMITER_STRIPES);
+
+    // Workers que processam os packet-ins, ou null se o processamento e feito na thread do ONOS
+    private volatile PacketDispatcher dispatcher;
+
+    // Numero de packet-ins evitados pela instalacao das regras em todo o caminho
+    private final AtomicLong packetInsSaved = new AtomicLong();
+
+    // Contadores e latencias das decisoes de encaminhamento (cli simpleSwitch:metrics e REST)
+    private final ForwardingMetrics metrics = new ForwardingMetrics();
+
+    // Log das decisoes por pacote: amostrado, limitado por segundo e escrito fora da thread do pacote
+    private final PacketLog packetLog = new PacketLog(log, "switchl2", DEFAULT_TRACE_SAMPLING, DEFAULT_TRACE_RATE);
+
+    // Cache das decisoes (switch de entrada, MAC de destino) -> porta de saida,
+    // invalidado pelos eventos de host e de topologia
+    private final ForwardingCache forwardingCache = new ForwardingCache(DEFAULT_CACHE_SIZE);
+    private final HostListener hostListener = new InternalHostListener();
+    private final TopologyListener topologyListener = new InternalTopologyListener();
+
+    // Tabela de proximos saltos entre todos os switches, recalculada a cada nova topologia
+    private NextHopEngine nextHopEngine;
+
+    // Fila por switch das regras instaladas no switch de entrada, enviadas (uma a uma)
+    // fora da thread de processamento de pacotes
+    private ObjectiveQueue objectiveQueue;
+
+    // Fluxos cuja regra ja foi pedida: os packet-ins seguintes do fluxo sao apenas
+    // encaminhados ate a regra ser instalada (RULE_ADDED) ou o tempo expirar
+    private final PendingFlows<PortNumber> pendingFlows =
+            new PendingFlows<>(PENDING_FLOW_TIMEOUT, PENDING_FLOW_MAX);
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
     /**
      * Rotina que dita o que será executado na ativação da aplicação
      * (app activate <app>)
      */
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
         appId = coreService.registerApplication("simple.switchl2.app");
+        broadcastPoints = new BroadcastPoints(topologyService);
+        broadcastPoints.start();
+        readComponentConfiguration(context);
+        packetLog.start();
+        nextHopEngine = new NextHopEngine(topologyService, NEXT_HOP_PARALLELISM);
+        nextHopEngine.start();
+        objectiveQueue = new ObjectiveQueue(flowObjectiveService, "switchl2-objectives",
+                                            OBJECTIVE_QUEUE_SIZE, OBJECTIVE_QUEUE_DELAY,
+                                            OBJECTIVE_QUEUE_THREADS);
+        objectiveQueue.start();
+        hostService.addListener(hostListener);
+        topologyService.addListener(topologyListener);
+        flowRuleService.addListener(flowRuleListener);
         packetService.addProcessor(processor, PacketProcessor.ADVISOR_MAX + 2);
         requestIntercepts();
         log.info("Started with Application ID {}", appId.id());
@@ -111,10 +285,125 @@ public class SimpleSwitch {
     @Deactivate
     protected void deactivate() {
         withdrawIntercepts();
-        flowRuleService.removeFlowRulesById(appId);
         packetService.removeProcessor(processor);
+        broadcastPoints.stop();
         processor = null;
-        log.info("Stopped");
+        configureDispatcher(0, 0);
+        // Envie as regras pendentes antes de remover as regras da aplicacao
+        objectiveQueue.stop();
+        flowRuleService.removeFlowRulesById(appId);
+        hostService.removeListener(hostListener);
+        topologyService.removeListener(topologyListener);
+        flowRuleService.removeListener(flowRuleListener);
+        pendingFlows.clearAll();
+        nextHopEngine.stop();
+        forwardingCache.invalidateAll();
+        floodLimiter.reset();
+        cfgService.unregisterProperties(getClass(), false);
+        packetLog.stop();
+        log.info("Stopped. Packet-ins evitados pela instalacao no caminho: {}", packetInsSaved.get());
+    }
+
+    /**
+     * Rotina executada quando a configuracao do componente e alterada (cfg set simple.switchl2.app.SimpleSwitch ...)
+     */
+    @Modified
+    protected void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    /**
+     * Numero de packet-ins evitados desde a ativacao por ter instalado as regras em todo o caminho
+     */
+    public long packetInsSaved() {
+        return packetInsSaved.get();
+    }
+
+    @Override
+    public ForwardingMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    /**
+     * Le as propriedades configuraveis do componente (prioridade, timeout e modo de instalacao)
+     */
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        flowPriority = getIntegerProperty(properties, "flowPriority", DEFAULT_PRIORITY);
+        flowTimeout = getIntegerProperty(properties, "flowTimeout", DEFAULT_TIMEOUT);
+
+        String pathInstallString = Tools.get(properties, "pathInstall");
+        pathInstall = Strings.isNullOrEmpty(pathInstallString) ?
+                DEFAULT_PATH_INSTALL : Boolean.parseBoolean(pathInstallString.trim());
+
+        dispatchWorkers = getIntegerProperty(properties, "dispatchWorkers", DEFAULT_DISPATCH_WORKERS);
+        dispatchQueueSize = getIntegerProperty(properties, "dispatchQueueSize", DEFAULT_DISPATCH_QUEUE_SIZE);
+
+        String policyString = Tools.get(properties, "overloadPolicy");
+        try {
+            overloadPolicy = PacketDispatcher.OverloadPolicy.valueOf(
+                    Strings.isNullOrEmpty(policyString) ? DEFAULT_OVERLOAD_POLICY : policyString.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Valor invalido para overloadPolicy: {}", policyString);
+            overloadPolicy = PacketDispatcher.OverloadPolicy.valueOf(DEFAULT_OVERLOAD_POLICY);
+        }
+
+        configureDispatcher(dispatchWorkers, dispatchQueueSize);
+
+        traceSampling = Math.max(getIntegerProperty(properties, "traceSampling", DEFAULT_TRACE_SAMPLING), 0);
+        traceRate = Math.max(getIntegerProperty(properties, "traceRate", DEFAULT_TRACE_RATE), 1);
+        packetLog.configure(traceSampling, traceRate);
+
+        floodRate = Math.max(getIntegerProperty(properties, "floodRate", DEFAULT_FLOOD_RATE), 0);
+        floodBurst = Math.max(getIntegerProperty(properties, "floodBurst", DEFAULT_FLOOD_BURST), 1);
+        floodLimiter.configure(floodRate, floodBurst);
+        String stormDropRuleString = Tools.get(properties, "stormDropRule");
+        stormDropRule = Strings.isNullOrEmpty(stormDropRuleString) ?
+                DEFAULT_STORM_DROP_RULE : Boolean.parseBoolean(stormDropRuleString.trim());
+        stormRuleTimeout = Math.max(getIntegerProperty(properties, "stormRuleTimeout", DEFAULT_STORM_RULE_TIMEOUT), 1);
+        floodLimiter.configureStormRule(appId, stormDropRule, STORM_RULE_PRIORITY, stormRuleTimeout);
+
+        log.info("Configurado: flowPriority={}, flowTimeout={}, pathInstall={}, " +
+                         "dispatchWorkers={}, dispatchQueueSize={}, overloadPolicy={}, traceSampling={}, traceRate={}, " +
+                         "floodRate={}, floodBurst={}, stormDropRule={}, stormRuleTimeout={}",
+                 flowPriority, flowTimeout, pathInstall, dispatchWorkers, dispatchQueueSize, overloadPolicy,
+                 traceSampling, traceRate, floodRate, floodBurst, stormDropRule, stormRuleTimeout);
+    }
+
+    /**
+     * Recria os workers de processamento se o numero de threads ou o tamanho das filas mudou.
+     * Com workers = 0 os pacotes passam a ser processados na thread do ONOS.
+     */
+    private void configureDispatcher(int workers, int queueSize) {
+        PacketDispatcher old = dispatcher;
+        if (old == null ? workers <= 0 :
+                old.workerCount() == workers && old.queueSize() == queueSize) {
+            return;
+        }
+        dispatcher = workers > 0 ? new PacketDispatcher(workers, Math.max(queueSize, 1)) : null;
+        if (old != null) {
+            old.stop();
+            log.info("Workers de processamento parados; pacotes recusados por fila cheia: {}", old.rejected());
+        }
+    }
+
+    /**
+     * Le uma propriedade inteira, usando o valor padrao se ela nao existir ou for invalida
+     */
+    private int getIntegerProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+        String value = Tools.get(properties, name);
+        try {
+            return Strings.isNullOrEmpty(value) ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Valor invalido para {}: {}", name, value);
+            return defaultValue;
+        }
     }
 
     /**
@@ -152,34 +441,96 @@ public class SimpleSwitch {
                 return;
             }
 
-            // Obtem o pacote de entrada a partir do contexto recebido pela aplicação,
-            // Processa o pacote de entrada (parsed retorna os campos do pacote Ethernet, como src_mac, src_ip, dst_ip, payload, ...
-            InboundPacket pkt = context.inPacket();
-            Ethernet ethPkt = pkt.parsed();
+            long start = System.nanoTime();
+            DeviceId deviceId = context.inPacket().receivedFrom().deviceId();
+
+            // Obtem o pacote de entrada a partir do contexto recebido pela aplicação.
+            // O switch L2 so precisa do cabecalho Ethernet, lido direto dos bytes recebidos
+            // (sem decodificar o pacote inteiro com parsed())
+            ByteBuffer frame = context.inPacket().unparsed();
 
-            if (ethPkt == null) {
+            if (frame == null) {
                 return;
             }
 
             // Nao tratar pacotes de controle (LLDP, BBDP, ...)
-            if (isControlPacket(ethPkt)) {
+            if (isControlPacket(frame)) {
+                metrics.record(deviceId, Outcome.CONTROL_IGNORED, System.nanoTime() - start);
                 return;
             }
 
             // Nao tratar pacote de IPv6 multicast
-            if (isIpv6Multicast(ethPkt) ) {
+            if (isIpv6Multicast(frame) ) {
+                metrics.record(deviceId, Outcome.CONTROL_IGNORED, System.nanoTime() - start);
                 return;
             }
 
-            // Realizar flood de pacotes de Multicast que capturarmos
-            if (ethPkt.isMulticast()) {
-                flood(context);
+            // Sem workers, processe aqui mesmo
+            PacketDispatcher packetDispatcher = dispatcher;
+            if (packetDispatcher == null) {
+                metrics.record(deviceId, forward(context, frame), System.nanoTime() - start);
                 return;
             }
 
+            // Pacotes do mesmo fluxo (MAC de origem, MAC de destino) vao sempre para o mesmo worker.
+            // A latencia registrada inclui o tempo de espera na fila do worker.
+            int flowHash = Long.hashCode(31 * EthernetHeader.srcMac(frame) + EthernetHeader.dstMac(frame));
+            if (packetDispatcher.dispatch(flowHash, context, c -> metrics.record(
+                    deviceId, forward(c, c.inPacket().unparsed()), System.nanoTime() - start))) {
+                return;
+            }
+
+            // Fila cheia: aplique a politica de sobrecarga
+            switch (overloadPolicy) {
+                case FLOOD:
+                    metrics.record(deviceId, flood(context), System.nanoTime() - start);
+                    break;
+                case DROP:
+                    context.block();
+                    metrics.record(deviceId, Outcome.BLOCKED, System.nanoTime() - start);
+                    break;
+                case PUNT:
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Decide para onde o pacote vai e instala as regras necessarias, retornando a decisao
+         * tomada. Executado na thread do ONOS ou em um dos workers.
+         */
+        private Outcome forward(PacketContext context, ByteBuffer frame) {
+            InboundPacket pkt = context.inPacket();
+
+            // Realizar flood de pacotes de Multicast que capturarmos
+            if (EthernetHeader.isMulticast(frame)) {
+                return flood(context);
+            }
+
             // Obtem do pacote os enderecos MAC de origem e destino
-            MacAddress srcMac = ethPkt.getSourceMAC();
-            MacAddress dstMac = ethPkt.getDestinationMAC();
+            MacAddress srcMac = MacAddress.valueOf(EthernetHeader.srcMac(frame));
+            MacAddress dstMac = MacAddress.valueOf(EthernetHeader.dstMac(frame));
+            boolean isArp = EthernetHeader.etherType(frame) == Ethernet.TYPE_ARP;
+
+            // A regra deste fluxo ja foi pedida e ainda nao foi instalada: apenas encaminhe o pacote
+            PortNumber pendingPort = pendingFlows.lookup(pkt.receivedFrom().deviceId(),
+                                                         pkt.receivedFrom().port(), srcMac, dstMac);
+            if (pendingPort != null) {
+                packetOut(context, pendingPort);
+                return Outcome.PENDING_FORWARD;
+            }
+
+            // Se ja decidimos para onde vai esse destino a partir deste switch, use a decisao
+            // guardada no cache (desde que ela nao devolva o pacote para a porta de entrada).
+            // No modo de instalacao no caminho precisamos do caminho inteiro, e nao so da porta.
+            PortNumber cachedPort = pathInstall ? null :
+                    forwardingCache.lookup(pkt.receivedFrom().deviceId(), dstMac);
+            if (cachedPort != null && !cachedPort.equals(pkt.receivedFrom().port())) {
+                return installRule(context, isArp, srcMac, dstMac, cachedPort, Outcome.CACHE_HIT);
+            }
+
+            // Versao do cache antes do calculo; se um evento chegar no meio, a decisao e descartada
+            long cacheVersion = forwardingCache.version();
 
             // Obtem o host de destino a partir do seu endereco MAC
             //HostId id = HostId.hostId(dstMac);
@@ -194,8 +545,7 @@ public class SimpleSwitch {
             // Sabemos quem e o destino? Se nao, flood e saia
             //Host dst = hostService.getHost(id);
             if (!dstSet.iterator().hasNext()) {
-                flood(context);
-                return;
+                return flood(context);
             }
 
             Host dst = dstSet.iterator().next();
@@ -207,53 +557,47 @@ public class SimpleSwitch {
             * curtos ate o destino, se existir, e criar os fluxos pelo caminho.
             */
 
-            log.warn("Calculo do caminho de {} para {}", context.inPacket().receivedFrom().deviceId(), dst.location().deviceId());
+            packetLog.info("Calculo do caminho de {} para {}",
+                           pkt.receivedFrom().deviceId(), dst.location().deviceId());
 
             //Se estamos no mesmo switch de borda que o nosso destino
             //encaminhar o pacote (criar regra de fluxo) para o destino e sair
             if (pkt.receivedFrom().deviceId().equals(dst.location().deviceId())) {
                 if (!context.inPacket().receivedFrom().port().equals(dst.location().port())) {
-                    installRule(context, dst.location().port());
+                    forwardingCache.store(cacheVersion, pkt.receivedFrom().deviceId(), dstMac,
+                                          dst.location().port());
+                    return installRule(context, isArp, srcMac, dstMac, dst.location().port(),
+                                       Outcome.SAME_SWITCH_INSTALL);
                 }
-                return;
+                // O destino esta na propria porta de entrada: o pacote ja chegou a ele
+                context.block();
+                return Outcome.INGRESS_PORT_DROPPED;
             }
 
-            // Se não estamos no switch do destino, descubra os caminhos que levam daqui (pkt.receivedFrom().deviceId())
-            // para o switch de borda do destino (dst.localtion().deviceId())
-            Set<Path> paths =
-                    topologyService.getPaths(topologyService.currentTopology(),
-                                             pkt.receivedFrom().deviceId(),
-                                             dst.location().deviceId());
-            // Se não existem caminhos, flood e saia
-            if (paths.isEmpty()) {
-                flood(context);
-                return;
+            // Se não estamos no switch do destino, consulte a tabela de proximos saltos pre-calculada
+            // (switch atual -> switch de borda do destino). Se ela ainda nao estiver pronta, calcule
+            // os caminhos pelo servico de topologia.
+            NextHopTable nextHops = nextHopEngine.table();
+            Link[] hops = nextHops == null ? null :
+                    nextHops.nextHops(pkt.receivedFrom().deviceId(), dst.location().deviceId());
+            Path path = null;
+            Link firstHop;
+            if (hops == null) {
+                path = pickForwardPath(pkt, dst);
+                firstHop = path == null ? null : path.links().get(0);
+            } else {
+                firstHop = pickForwardLink(hops, pkt.receivedFrom().port());
             }
 
-            // Escolha um dos caminhos possiveis (calculados) que não retornam para onde viemos (evitar loop na topologia L2)
-            // Se não existir tal caminho, flood e saia
-            Path path = pickForwardPath(paths, pkt.receivedFrom().port());
-            if (path == null) {
-                log.warn("Oh Nao... Não sei para onde ir... {} -> {} recebido em {}",
-                         ethPkt.getSourceMAC(), ethPkt.getDestinationMAC(),
-                         pkt.receivedFrom());
-                flood(context);
-                return;
+            // Se não existe caminho (ou todos voltam para onde viemos), flood e saia
+            if (firstHop == null) {
+                packetLog.info("Oh Nao... Não sei para onde ir... {} -> {} recebido em {}",
+                               srcMac, dstMac,
+                               pkt.receivedFrom());
+                Outcome flooded = flood(context);
+                return flooded == Outcome.FLOODED ? Outcome.NO_PATH : flooded;
             }
 
-
-            /*
-             * TODO Lab 1: Criando regras de Fluxo  - Corrigindo o ponto de conexão
-             *
-             * Aqui, voce devera trocar o ponto de conexão (switch/porta) onde se encontra o destino destino (dst.location())
-             * pela porta de saida do switch atual que nos levará para o proximo switch no caminho para o destino (path.src())
-             * Para tanto, atribua ao ponto de conexao egressPort o valor correto (path.src)
-             *
-             */
-
-            //ConnectPoint egressPort = new ConnectPoint(dst.location().deviceId(), dst.location().port());
-            ConnectPoint egressPort = new ConnectPoint(path.src().deviceId(), path.src().port());
-
             /*
              * TODO Lab 1: Criando regras de Fluxo - Substituindo o envio do pacote pela criacao da regra de fluxo
              *
@@ -265,10 +609,20 @@ public class SimpleSwitch {
 
             // Encaminhe o pacote e finalize
             //sendTo(context.inPacket().parsed(), egressPort);
-            installRule(context, egressPort.port());
-
-            // Registre no Log (como warning) o encaminhamento realizado
-            log.warn("Trafego do mac {} para o mac_dst {} via Switch/porta {}", srcMac, dstMac, egressPort.toString());
+            PortNumber egressPort = firstHop.src().port();
+            forwardingCache.store(cacheVersion, pkt.receivedFrom().deviceId(), dstMac, egressPort);
+
+            // No modo de instalacao no caminho, programe todos os switches ate o destino de uma vez
+            List<Link> route = !pathInstall ? null :
+                    path != null ? path.links() : walkRoute(nextHops, firstHop, dst.location().deviceId());
+            Outcome outcome = route != null ?
+                    installPathRules(context, isArp, srcMac, dstMac, route, dst.location().port()) :
+                    installRule(context, isArp, srcMac, dstMac, egressPort, Outcome.HOP_INSTALL);
+
+            // Registre no Log (por amostragem) o encaminhamento realizado
+            packetLog.info("Trafego do mac {} para o mac_dst {} via Switch/porta {}/{}", srcMac, dstMac,
+                           pkt.receivedFrom().deviceId(), egressPort);
+            return outcome;
         }
     }
 
@@ -285,59 +639,140 @@ public class SimpleSwitch {
     }
 
     /**
-     * Instala uma regra, encaminhando o pacote para a porta especifica em portNumber
+     * Instala uma regra, encaminhando o pacote para a porta especifica em portNumber. Retorna
+     * installed, ou ARP_FORWARDED se o pacote e um ARP (que nao recebe regra)
      */
-    private void installRule(PacketContext context, PortNumber portNumber) {
-        Ethernet inPkt = context.inPacket().parsed();
-        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
-
+    private Outcome installRule(PacketContext context, boolean isArp, MacAddress srcMac, MacAddress dstMac,
+                                PortNumber portNumber, Outcome installed) {
         // Nao crie regras para pacotes ARPs. Apenas encaminhe-os para a porta de saida
-        if (inPkt.getEtherType() == Ethernet.TYPE_ARP) {
+        if (isArp) {
             packetOut(context, portNumber);
-            return;
+            return Outcome.ARP_FORWARDED;
+        }
+
+        ForwardingObjective forwardingObjective =
+                buildObjective(context.inPacket().receivedFrom().port(),
+                               srcMac, dstMac, portNumber);
+
+        // A regra entra na fila do switch e e enviada fora da thread do pacote
+        objectiveQueue.submit(context.inPacket().receivedFrom().deviceId(), forwardingObjective);
+        pendingFlows.register(context.inPacket().receivedFrom().deviceId(), context.inPacket().receivedFrom().port(),
+                              srcMac, dstMac, portNumber);
+
+        packetLog.info("Instalando regra de fluxo no switch {}", context.inPacket().receivedFrom().deviceId());
+
+        // Envia o pacote para o proximo switch no caminho (para evitarmos perder o primeiro 'pacote do fluxos')
+        packetOut(context, portNumber);
+        return installed;
+    }
+
+    /**
+     * Pede as regras do fluxo em todos os switches do caminho (route), do switch de saida para o
+     * de entrada, e encaminha o pacote recebido pelo primeiro salto sem esperar por elas.
+     * O FlowObjectiveService instala cada regra de forma assincrona, por switch, entao um pacote
+     * ainda pode chegar a um switch sem regra: cada salto fica registrado em pendingFlows ate o
+     * RULE_ADDED, e esse packet-in e apenas encaminhado, sem calcular o caminho de novo.
+     * As regras nao passam pela fila de objetivos para nao esperarem OBJECTIVE_QUEUE_DELAY.
+     * Retorna PATH_INSTALL, ou ARP_FORWARDED se o pacote e um ARP (que nao recebe regras).
+     */
+    private Outcome installPathRules(PacketContext context, boolean isArp, MacAddress srcMac, MacAddress dstMac,
+                                     List<Link> route, PortNumber dstPort) {
+        PortNumber egressPort = route.get(0).src().port();
+
+        // Nao crie regras para pacotes ARPs. Apenas encaminhe-os para a porta de saida
+        if (isArp) {
+            packetOut(context, egressPort);
+            return Outcome.ARP_FORWARDED;
         }
 
+        // Switch de borda do destino: da porta por onde o fluxo chega ate a porta do host
+        Link last = route.get(route.size() - 1);
+        forwardAt(last.dst().deviceId(), last.dst().port(), srcMac, dstMac, dstPort);
+
+        // Switches intermediarios e, por ultimo, o switch de entrada
+        for (int i = route.size() - 1; i >= 0; i--) {
+            Link hop = route.get(i);
+            PortNumber inPort = i == 0 ?
+                    context.inPacket().receivedFrom().port() : route.get(i - 1).dst().port();
+            forwardAt(hop.src().deviceId(), inPort, srcMac, dstMac, hop.src().port());
+        }
+
+        // Cada switch alem do de entrada deixaria de gerar um packet-in para este fluxo
+        packetInsSaved.addAndGet(route.size());
+        packetLog.info("Instalando regras de fluxo em {} switches a partir de {}",
+                       route.size() + 1, context.inPacket().receivedFrom().deviceId());
+
+        packetOut(context, egressPort);
+        return Outcome.PATH_INSTALL;
+    }
+
+    /**
+     * Pede a regra de um salto do caminho e a registra como pendente ate ser instalada
+     */
+    private void forwardAt(DeviceId deviceId, PortNumber inPort, MacAddress srcMac, MacAddress dstMac,
+                           PortNumber outPort) {
+        flowObjectiveService.forward(deviceId, buildObjective(inPort, srcMac, dstMac, outPort));
+        pendingFlows.register(deviceId, inPort, srcMac, dstMac, outPort);
+    }
+
+    /**
+     * Cria o objetivo de encaminhamento (regra de fluxo) para o fluxo srcMac -> dstMac
+     * que chega pela porta inPort e sai pela porta outPort
+     */
+    private ForwardingObjective buildObjective(PortNumber inPort, MacAddress srcMac,
+                                               MacAddress dstMac, PortNumber outPort) {
         // Cria o seletor que sera utilizado para o match da regra com o fluxo
-        selectorBuilder.matchInPort(context.inPacket().receivedFrom().port())
-                .matchEthSrc(inPkt.getSourceMAC())
-                .matchEthDst(inPkt.getDestinationMAC())
-                .matchEthType(Ethernet.TYPE_IPV4);
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchInPort(inPort)
+                .matchEthSrc(srcMac)
+                .matchEthDst(dstMac)
+                .matchEthType(Ethernet.TYPE_IPV4)
+                .build();
 
         // Cria a acao que sera realizada nos pacotes que realizarem match com a regra
         TrafficTreatment treatment = DefaultTrafficTreatment.builder()
-                .setOutput(portNumber)
+                .setOutput(outPort)
                 .build();
 
         // Cria a regra de fluxo. Repare na prioridade da regra e no parametro makeTemporary
         // que torna a regra temporaria, expirando-a apos o tempo definido em "flowTimeout"
         // Podemos utilizar o parametro .makePermanent() para tornar a regra permanente.
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
+        return DefaultForwardingObjective.builder()
                 .fromApp(appId)
-                .withSelector(selectorBuilder.build())
+                .withSelector(selector)
                 .withTreatment(treatment)
                 .withPriority(flowPriority)
                 .withFlag(ForwardingObjective.Flag.VERSATILE)
                 .makeTemporary(flowTimeout)
                 .add();
-
-        flowObjectiveService.forward(context.inPacket().receivedFrom().deviceId(),
-                                     forwardingObjective);
-
-        log.warn("Instalando regra de fluxo no switch {}", context.inPacket().receivedFrom().deviceId());
-
-        // Envia o pacote para o proximo switch no caminho (para evitarmos perder o primeiro 'pacote do fluxos')
-        packetOut(context, portNumber);
     }
 
     /**
-     * Realiza o flood do pacote (portNumber.FLOOD) se for permitido
+     * Realiza o flood do pacote (portNumber.FLOOD) se for permitido, retornando o que foi feito
      */
-    private void flood(PacketContext context) {
-        if (topologyService.isBroadcastPoint(topologyService.currentTopology(),
-                                             context.inPacket().receivedFrom())) {
+    private Outcome flood(PacketContext context) {
+        ConnectPoint inPort = context.inPacket().receivedFrom();
+        if (broadcastPoints.isBroadcastPoint(inPort)) {
+            // Porta acima do limite de floods (laco ou tempestade de broadcast): descarta
+            if (!floodLimiter.tryAcquire(inPort)) {
+                stormDetected(inPort);
+                context.block();
+                return Outcome.FLOOD_LIMITED;
+            }
             packetOut(context, PortNumber.FLOOD);
-        } else {
-            context.block();
+            return Outcome.FLOODED;
+        }
+        context.block();
+        return Outcome.BLOCKED;
+    }
+
+    // Porta acima do limite: instala a regra de descarte, se o limitador indicar uma
+    private void stormDetected(ConnectPoint inPort) {
+        FlowRule stormRule = floodLimiter.stormRule(inPort, topologyService);
+        if (stormRule != null) {
+            log.warn("Tempestade de broadcast em {}: mais de {} floods/s; descartando o trafego da porta",
+                     inPort, floodRate);
+            flowRuleService.applyFlowRules(stormRule);
         }
     }
 
@@ -345,10 +780,87 @@ public class SimpleSwitch {
      * Envia o pacote para uma porta especifica do switch em que ele foi recebido
      */
     private void packetOut(PacketContext context, PortNumber portNumber) {
+        // Pacotes entregues aos workers ja foram bloqueados na thread do ONOS e
+        // context.send() nao os enviaria mais; envie-os diretamente
+        if (context.isHandled()) {
+            ConnectPoint ingress = context.inPacket().receivedFrom();
+            TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+            if (portNumber.equals(PortNumber.FLOOD)) {
+                // O pacote emitido nao tem porta de entrada, e FLOOD o devolveria tambem pela
+                // porta por onde chegou: envie-o para cada uma das demais portas do switch
+                if (!addFloodOutputs(treatment, ingress)) {
+                    return;
+                }
+            } else {
+                treatment.setOutput(portNumber);
+            }
+            packetService.emit(new DefaultOutboundPacket(ingress.deviceId(), treatment.build(),
+                                                         context.inPacket().unparsed().duplicate()));
+            return;
+        }
         context.treatmentBuilder().setOutput(portNumber);
         context.send();
     }
 
+    /**
+     * Adiciona ao tratamento uma saida para cada porta fisica habilitada do switch, exceto a porta
+     * de entrada. Retorna false se nao ha nenhuma porta para onde enviar o pacote
+     */
+    private boolean addFloodOutputs(TrafficTreatment.Builder treatment, ConnectPoint ingress) {
+        boolean any = false;
+        for (Port port : deviceService.getPorts(ingress.deviceId())) {
+            if (port.isEnabled() && !port.number().isLogical() && !port.number().equals(ingress.port())) {
+                treatment.setOutput(port.number());
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Calcula os caminhos ate o switch do destino pelo servico de topologia e retorna o primeiro
+     * caminho que nao volta para a porta de entrada, ou null se nao houver tal caminho
+     */
+    private Path pickForwardPath(InboundPacket pkt, Host dst) {
+        Set<Path> paths =
+                topologyService.getPaths(topologyService.currentTopology(),
+                                         pkt.receivedFrom().deviceId(),
+                                         dst.location().deviceId());
+        return pickForwardPath(paths, pkt.receivedFrom().port());
+    }
+
+    /**
+     * Escolhe, entre os proximos saltos da tabela, o primeiro que nao retorna à porta de origem
+     */
+    private Link pickForwardLink(Link[] hops, PortNumber notToPort) {
+        for (Link hop : hops) {
+            if (!hop.src().port().equals(notToPort)) {
+                return hop;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Percorre a tabela de proximos saltos a partir do primeiro salto ate o switch de destino,
+     * retornando os links do caminho, ou null se o caminho nao puder ser completado
+     */
+    private List<Link> walkRoute(NextHopTable nextHops, Link firstHop, DeviceId dstDevice) {
+        List<Link> route = new ArrayList<>();
+        Link hop = firstHop;
+        route.add(hop);
+        while (!hop.dst().deviceId().equals(dstDevice)) {
+            Link[] hops = nextHops.nextHops(hop.dst().deviceId(), dstDevice);
+            hop = hops == null ? null : pickForwardLink(hops, hop.dst().port());
+            // Um caminho mais curto nunca passa duas vezes pelo mesmo switch
+            if (hop == null || route.size() > nextHops.topology().deviceCount()) {
+                return null;
+            }
+            route.add(hop);
+        }
+        return route;
+    }
+
     /**
      * Selecione um caminho de um dado conjunto de caminhos, tal que ele nao retorne à porta de origem
      * Utilizamos essa funcao para evitar caminhos com loops na topologia
@@ -365,15 +877,56 @@ public class SimpleSwitch {
     /**
      * Verifica se o pacote passado como argumento e um pacote de controle
      */
-    private boolean isControlPacket(Ethernet eth) {
-        short type = eth.getEtherType();
-        return type == Ethernet.TYPE_LLDP || type == Ethernet.TYPE_BSN || type == -30398 || type == -31011;
+    private boolean isControlPacket(ByteBuffer frame) {
+        return EthernetHeader.isControlPacket(frame);
     }
 
     /**
      * Verifica se o pacote passado como argumento e um pacote de IPv6 multicast
      */
-    private boolean isIpv6Multicast(Ethernet eth) {
-        return eth.getEtherType() == Ethernet.TYPE_IPV6 && eth.isMulticast();
+    private boolean isIpv6Multicast(ByteBuffer frame) {
+        return EthernetHeader.isIpv6Multicast(frame);
+    }
+
+    /**
+     * Retira da tabela de fluxos pendentes os fluxos cuja regra acabou de ser instalada
+     */
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (event.type() != FlowRuleEvent.Type.RULE_ADDED || rule.appId() != appId.id()) {
+                return;
+            }
+            PortCriterion inPort = (PortCriterion) rule.selector().getCriterion(Criterion.Type.IN_PORT);
+            EthCriterion srcMac = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_SRC);
+            EthCriterion dstMac = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_DST);
+            if (inPort != null && srcMac != null && dstMac != null) {
+                pendingFlows.clear(rule.deviceId(), inPort.port(), srcMac.mac(), dstMac.mac());
+            }
+        }
+    }
+
+    /**
+     * Invalida as decisoes do cache que levam a um host que mudou (adicionado, movido, removido...)
+     */
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            forwardingCache.invalidate(event.subject().mac());
+        }
+    }
+
+    /**
+     * Invalida todo o cache quando a topologia muda, pois os caminhos podem ter mudado
+     */
+    private class InternalTopologyListener implements TopologyListener {
+        @Override
+        public void event(TopologyEvent event) {
+            forwardingCache.invalidateAll();
+            // Decisoes pendentes podem apontar para links que deixaram de existir
+            pendingFlows.clearAll();
+            nextHopEngine.recompute();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app.cli;
+
+import app.commons.LatencyHistogram;
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.net.DeviceId;
+import simple.switchl2.app.ForwardingMetrics;
+import simple.switchl2.app.ForwardingMetrics.Outcome;
+import simple.switchl2.app.ForwardingMetricsService;
+
+import java.util.Map;
+
+/**
+ * CLI para listar as metricas das decisoes de encaminhamento do SimpleSwitch:
+ * contadores e latencias por resultado e contadores por switch de entrada.
+ */
+@Command(scope = "simpleSwitch", name = "metrics",
+        description = "Lista os contadores e as latencias das decisoes de encaminhamento")
+public class ForwardingMetricsCommand extends AbstractShellCommand {
+
+    private static final String OUTCOME_FORMAT = "%-20s %10s %10s %10s %10s %10s %10s";
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    @Option(name = "-d", aliases = "--device", description = "Lista apenas os contadores deste switch",
+            required = false, multiValued = false)
+    String device = null;
+
+    @Option(name = "-r", aliases = "--reset", description = "Zera as metricas depois de lista-las",
+            required = false, multiValued = false)
+    boolean reset = false;
+
+    @Override
+    protected void execute() {
+        ForwardingMetricsService service = get(ForwardingMetricsService.class);
+        ForwardingMetrics metrics = service.metrics();
+
+        if (device != null) {
+            printDevice(DeviceId.deviceId(device), metrics.counts(DeviceId.deviceId(device)));
+        } else {
+            print(OUTCOME_FORMAT, "resultado", "pacotes", "media(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)");
+            for (Outcome outcome : Outcome.values()) {
+                LatencyHistogram latency = metrics.latency(outcome);
+                print(OUTCOME_FORMAT, outcome, metrics.count(outcome),
+                      micros(latency.mean()), micros(latency.percentile(50)), micros(latency.percentile(99)),
+                      micros(latency.percentile(99.9)), micros(latency.max()));
+            }
+            print("--------------------------------------------");
+            metrics.countsByDevice().forEach(this::printDevice);
+        }
+
+        if (reset) {
+            service.resetMetrics();
+            print("Metricas zeradas");
+        }
+    }
+
+    private void printDevice(DeviceId deviceId, Map<Outcome, Long> counts) {
+        StringBuilder line = new StringBuilder(deviceId.toString());
+        counts.forEach((outcome, count) -> {
+            if (count > 0) {
+                line.append(' ').append(outcome).append('=').append(count);
+            }
+        });
+        print("%s", line);
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / NANOS_PER_MICRO);
+    }
+}
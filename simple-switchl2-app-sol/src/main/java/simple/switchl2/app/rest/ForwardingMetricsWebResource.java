@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app.rest;
+
+import app.commons.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.onlab.rest.BaseResource;
+import org.onosproject.net.DeviceId;
+import simple.switchl2.app.ForwardingMetrics;
+import simple.switchl2.app.ForwardingMetrics.Outcome;
+import simple.switchl2.app.ForwardingMetricsService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+/**
+ * REST das metricas das decisoes de encaminhamento do SimpleSwitch.
+ *
+ * GET /onos/switchl2/metrics            contadores e latencias (us) por resultado e contadores por switch
+ * GET /onos/switchl2/metrics/{deviceId} contadores de um switch
+ */
+@Path("metrics")
+public class ForwardingMetricsWebResource extends BaseResource {
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics() {
+        ForwardingMetrics metrics = get(ForwardingMetricsService.class).metrics();
+
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode outcomes = root.putObject("outcomes");
+        for (Outcome outcome : Outcome.values()) {
+            LatencyHistogram latency = metrics.latency(outcome);
+            outcomes.putObject(outcome.name())
+                    .put("count", metrics.count(outcome))
+                    .put("meanMicros", micros(latency.mean()))
+                    .put("p50Micros", micros(latency.percentile(50)))
+                    .put("p99Micros", micros(latency.percentile(99)))
+                    .put("p999Micros", micros(latency.percentile(99.9)))
+                    .put("maxMicros", micros(latency.max()));
+        }
+        ObjectNode devices = root.putObject("devices");
+        metrics.countsByDevice().forEach((deviceId, counts) -> devices.set(deviceId.toString(), json(counts)));
+        return ok(root).build();
+    }
+
+    @GET
+    @Path("{deviceId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDeviceMetrics(@PathParam("deviceId") String deviceId) {
+        ForwardingMetrics metrics = get(ForwardingMetricsService.class).metrics();
+        return ok(json(metrics.counts(DeviceId.deviceId(deviceId)))).build();
+    }
+
+    private ObjectNode json(Map<Outcome, Long> counts) {
+        ObjectNode node = mapper.createObjectNode();
+        counts.forEach((outcome, count) -> node.put(outcome.name(), count));
+        return node;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / NANOS_PER_MICRO;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simple.switchl2.app;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.Link;
+import org.onosproject.net.topology.DefaultTopologyEdge;
+import org.onosproject.net.topology.DefaultTopologyVertex;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyGraph;
+import org.onosproject.net.topology.TopologyVertex;
+
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.onosproject.net.NetTestTools.did;
+import static org.onosproject.net.NetTestTools.link;
+
+/**
+ * Tests of the all-pairs next-hop table.
+ */
+public class NextHopTableTest {
+
+    private NextHopTable table;
+
+    @Before
+    public void setUp() {
+        // Diamond a-(b|c)-d plus an isolated device e
+        TopologyGraph graph = new TestGraph(
+                ImmutableSet.of("a", "b", "c", "d", "e"),
+                ImmutableSet.of(link("a", 1, "b", 1), link("b", 1, "a", 1),
+                                link("a", 2, "c", 1), link("c", 1, "a", 2),
+                                link("b", 2, "d", 1), link("d", 1, "b", 2),
+                                link("c", 2, "d", 2), link("d", 2, "c", 2)));
+        table = NextHopTable.compute(null, graph, ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void adjacent() {
+        Link[] hops = table.nextHops(did("a"), did("b"));
+        assertEquals(1, hops.length);
+        assertEquals(1, hops[0].src().port().toLong());
+    }
+
+    @Test
+    public void equalCostPaths() {
+        assertEquals(ImmutableSet.of(1L, 2L), ports(table.nextHops(did("a"), did("d"))));
+        assertEquals(ImmutableSet.of(1L, 2L), ports(table.nextHops(did("d"), did("a"))));
+    }
+
+    @Test
+    public void unreachableAndUnknown() {
+        assertEquals(0, table.nextHops(did("a"), did("e")).length);
+        assertEquals(0, table.nextHops(did("a"), did("a")).length);
+        assertNull(table.nextHops(did("a"), did("z")));
+    }
+
+    private static Set<Long> ports(Link[] hops) {
+        return ImmutableSet.copyOf(hops).stream()
+                .map(l -> l.src().port().toLong())
+                .collect(Collectors.toSet());
+    }
+
+    private static final class TestGraph implements TopologyGraph {
+        private final Set<TopologyVertex> vertexes;
+        private final Set<TopologyEdge> edges;
+
+        TestGraph(Set<String> devices, Set<Link> links) {
+            vertexes = devices.stream()
+                    .map(d -> new DefaultTopologyVertex(did(d)))
+                    .collect(Collectors.toSet());
+            edges = links.stream()
+                    .map(l -> new DefaultTopologyEdge(new DefaultTopologyVertex(l.src().deviceId()),
+                                                      new DefaultTopologyVertex(l.dst().deviceId()), l))
+                    .collect(Collectors.toSet());
+        }
+
+        @Override
+        public Set<TopologyVertex> getVertexes() {
+            return vertexes;
+        }
+
+        @Override
+        public Set<TopologyEdge> getEdges() {
+            return edges;
+        }
+
+        @Override
+        public Set<TopologyEdge> getEdgesFrom(TopologyVertex src) {
+            return edges.stream().filter(e -> e.src().equals(src)).collect(Collectors.toSet());
+        }
+
+        @Override
+        public Set<TopologyEdge> getEdgesTo(TopologyVertex dst) {
+            return edges.stream().filter(e -> e.dst().equals(dst)).collect(Collectors.toSet());
+        }
+    }
+}